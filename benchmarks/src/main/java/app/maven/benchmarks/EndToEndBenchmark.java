@@ -0,0 +1,272 @@
+package app.maven.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.cli.SynchroniserCli;
+import app.maven.utils.Helper;
+
+/**
+ * Runs the sync end to end against a StandInRepository on this machine, so
+ * thread counts, batch sizes and mirrors can be tuned without touching a real
+ * remote.
+ *
+ * Each mode is run through SynchroniserCli.main into its own empty local
+ * repository, with the sync's console output written to a log file in the
+ * work directory. Validate mode starts from a local repository holding only
+ * the jars, so it has poms to fetch. For each mode it reports artifacts/s,
+ * MB/s served, HTTP requests per artifact and peak heap in use.
+ *
+ * java -cp benchmarks/target/benchmarks.jar app.maven.benchmarks.EndToEndBenchmark -n 2000 -lat 20 -x "--maxThreads 32"
+ */
+public class EndToEndBenchmark {
+
+	private static final String DIRECT = "direct";
+	private static final String RESOLVE = "resolve";
+	private static final String VALIDATE = "validate";
+
+	public static void main(String[] args) throws Exception {
+		Options options = buildOptions();
+		CommandLine cmd = SynchroniserCli.parseOptions(options, args);
+		if(cmd == null || cmd.hasOption("help")){
+			new HelpFormatter().printHelp("EndToEndBenchmark", options);
+			System.exit(cmd == null ? 1 : 0);
+		}
+
+		int count = Integer.parseInt(cmd.getOptionValue("artifacts", "1000"));
+		int size = Integer.parseInt(cmd.getOptionValue("size", "32768"));
+		File workdir = new File(cmd.getOptionValue("workdir", new File(System.getProperty("java.io.tmpdir"), "mvnsync-e2e").getPath()));
+		List<String> modes = Arrays.asList(cmd.getOptionValue("modes", DIRECT + "," + RESOLVE + "," + VALIDATE).split("\\s*,\\s*"));
+		boolean redirect = cmd.hasOption("redirect");
+		String[] extra = cmd.hasOption("cliArgs") ? cmd.getOptionValue("cliArgs").trim().split("\\s+") : new String[0];
+
+		StandInRepository repository = new StandInRepository(new File(workdir, "remote"));
+		System.out.println("Generating " + count + " artifacts of " + size + " bytes in " + repository.getRoot());
+		long start = System.currentTimeMillis();
+		repository.generate(count, size, 42);
+		System.out.println("Generated in " + (System.currentTimeMillis() - start) + "ms");
+
+		repository.start(Integer.parseInt(cmd.getOptionValue("port", "0")));
+		repository.setLatency(Long.parseLong(cmd.getOptionValue("latency", "0")));
+		repository.setBandwidth(Long.parseLong(cmd.getOptionValue("bandwidth", "0")) * 1024);
+		repository.setErrorRate(Double.parseDouble(cmd.getOptionValue("errorRate", "0")));
+
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+		try{
+			for(String mode: modes){
+				File local = new File(workdir, mode);
+				FileUtils.deleteDirectory(local);
+				local.mkdirs();
+
+				List<String> cli = new ArrayList<String>();
+				cli.add("--localRepository");
+				cli.add(local.getPath());
+				// the mirror is the same server under another name, so it is scheduled separately
+				cli.add("--remoteRepository");
+				cli.add(repository.url("127.0.0.1", false));
+				cli.add("--mirrors");
+				cli.add(repository.url("localhost", redirect));
+				if(DIRECT.equals(mode)){
+					cli.add("--direct");
+				}else if(VALIDATE.equals(mode)){
+					seedJars(repository, local);
+					cli.add("--validate");
+				}else if(!RESOLVE.equals(mode)){
+					System.out.println("Unknown mode: " + mode);
+					continue;
+				}
+				cli.addAll(Arrays.asList(extra));
+				results.add(run(mode, cli, repository, local, new File(workdir, mode + ".log")));
+			}
+		}finally{
+			repository.stop();
+		}
+
+		report(results);
+		if(cmd.hasOption("json")){
+			writeJson(results, new File(cmd.getOptionValue("json")));
+		}
+		System.exit(0);
+	}
+
+	private static Map<String, Object> run(String mode, List<String> cli, StandInRepository repository, File local, File log) throws Exception {
+		System.out.println("Running " + mode + ": " + cli);
+		HeapSampler heap = new HeapSampler();
+		repository.resetCounters();
+		PrintStream console = System.out;
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(log), 64 * 1024), false, "UTF-8");
+		heap.start();
+		long start = System.nanoTime();
+		try{
+			System.setOut(out);
+			SynchroniserCli.main(cli.toArray(new String[cli.size()]));
+		}finally{
+			System.setOut(console);
+			out.close();
+			heap.stop();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		int artifacts = repository.getArtifacts().size();
+		int synced = 0;
+		for(ArtifactInfo ai: repository.getArtifacts()){
+			String path = Helper.calculatePath(ai);
+			File file = new File(local, VALIDATE.equals(mode) ? pomPath(path) : path);
+			if(file.isFile()){
+				synced++;
+			}
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("mode", mode);
+		result.put("artifacts", artifacts);
+		result.put("synced", synced);
+		result.put("seconds", round(seconds));
+		result.put("artifactsPerSecond", round(artifacts / seconds));
+		result.put("mbPerSecond", round(repository.getBytesServed() / seconds / (1024 * 1024)));
+		result.put("requests", repository.getRequests());
+		result.put("requestsPerArtifact", round((double) repository.getRequests() / artifacts));
+		result.put("redirects", repository.getRedirects());
+		result.put("notFound", repository.getNotFound());
+		result.put("injectedErrors", repository.getErrors());
+		result.put("peakHeapMb", round(heap.getPeak() / (1024.0 * 1024)));
+		result.put("log", log.getPath());
+		return result;
+	}
+
+	// validate fetches what is missing next to each jar, so check the poms arrived
+	private static String pomPath(String jarPath){
+		return jarPath.substring(0, jarPath.length() - ".jar".length()) + ".pom";
+	}
+
+	private static void seedJars(StandInRepository repository, File local) throws IOException {
+		for(ArtifactInfo ai: repository.getArtifacts()){
+			String path = Helper.calculatePath(ai);
+			FileUtils.copyFile(new File(repository.getRoot(), path), new File(local, path));
+		}
+	}
+
+	private static double round(double value){
+		return Math.round(value * 100) / 100.0;
+	}
+
+	private static void report(List<Map<String, Object>> results){
+		System.out.println();
+		System.out.println(String.format("%-10s %8s %8s %10s %8s %10s %10s", "mode", "synced", "seconds", "art/s", "MB/s", "req/art", "heap MB"));
+		for(Map<String, Object> r: results){
+			System.out.println(String.format("%-10s %8s %8s %10s %8s %10s %10s", r.get("mode"),
+				r.get("synced") + "/" + r.get("artifacts"), r.get("seconds"), r.get("artifactsPerSecond"),
+				r.get("mbPerSecond"), r.get("requestsPerArtifact"), r.get("peakHeapMb")));
+		}
+	}
+
+	private static void writeJson(List<Map<String, Object>> results, File file) throws IOException {
+		StringBuilder json = new StringBuilder("[\n");
+		for(int i=0;i<results.size();i++){
+			json.append("  {");
+			boolean first = true;
+			for(Map.Entry<String, Object> entry: results.get(i).entrySet()){
+				json.append(first ? "" : ", ").append('"').append(entry.getKey()).append("\": ");
+				Object value = entry.getValue();
+				if(value instanceof Number){
+					json.append(value);
+				}else{
+					json.append('"').append(String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+				}
+				first = false;
+			}
+			json.append(i < results.size() - 1 ? "},\n" : "}\n");
+		}
+		json.append("]\n");
+		FileUtils.writeStringToFile(file, json.toString(), "UTF-8");
+		System.out.println("Results written to " + file.getPath());
+	}
+
+	@SuppressWarnings("static-access")
+	private static Options buildOptions(){
+		Option help = new Option( "h", "print usage" );
+		help.setLongOpt("help");
+		Option artifacts = OptionBuilder.withArgName("int").hasArg().withLongOpt("artifacts").withDescription("number of artifacts in the stand-in repository, default 1000").create("n");
+		Option size = OptionBuilder.withArgName("bytes").hasArg().withLongOpt("size").withDescription("size of each jar, default 32768").create("s");
+		Option latency = OptionBuilder.withArgName("ms").hasArg().withLongOpt("latency").withDescription("delay before every response").create("lat");
+		Option bandwidth = OptionBuilder.withArgName("KB/s").hasArg().withLongOpt("bandwidth").withDescription("bandwidth limit of each response, 0 for none").create("bw");
+		Option errorRate = OptionBuilder.withArgName("fraction").hasArg().withLongOpt("errorRate").withDescription("fraction of artifact requests answered with a 503").create("err");
+		Option redirect = new Option( "rd", "serve the mirror through a redirect to the repository");
+		redirect.setLongOpt("redirect");
+		Option modes = OptionBuilder.withArgName("[mode[,]]").hasArg().withLongOpt("modes").withDescription("comma seperated modes to run from direct, resolve and validate").create("M");
+		Option cliArgs = OptionBuilder.withArgName("args").hasArg().withLongOpt("cliArgs").withDescription("extra arguments passed to every sync, e.g. \"--maxThreads 32 --batch 100\"").create("x");
+		Option workdir = OptionBuilder.withArgName("path").hasArg().withLongOpt("workdir").withDescription("directory for the stand-in and local repositories").create("w");
+		Option port = OptionBuilder.withArgName("int").hasArg().withLongOpt("port").withDescription("port to serve on, any free port by default").create("p");
+		Option json = OptionBuilder.withArgName("path").hasArg().withLongOpt("json").withDescription("also write the results to this file as JSON").create("j");
+
+		Options options = new Options();
+		options.addOption(help);
+		options.addOption(artifacts);
+		options.addOption(size);
+		options.addOption(latency);
+		options.addOption(bandwidth);
+		options.addOption(errorRate);
+		options.addOption(redirect);
+		options.addOption(modes);
+		options.addOption(cliArgs);
+		options.addOption(workdir);
+		options.addOption(port);
+		options.addOption(json);
+		return options;
+	}
+
+	/**
+	 * Polls heap usage while a sync runs, keeping the highest value seen.
+	 */
+	private static class HeapSampler implements Runnable {
+		private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		private volatile boolean running = true;
+		private volatile long peak = 0;
+		private Thread thread;
+
+		void start(){
+			System.gc();
+			thread = new Thread(this, "heap-sampler");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void stop() throws InterruptedException {
+			running = false;
+			thread.join();
+		}
+
+		long getPeak(){
+			return peak;
+		}
+
+		public void run() {
+			while(running){
+				peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
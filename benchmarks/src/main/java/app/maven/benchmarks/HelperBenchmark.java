@@ -0,0 +1,109 @@
+package app.maven.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.maven.utils.Helper;
+
+/**
+ * GAV and path conversions, which run at least once for every artifact.
+ *
+ * Inputs are cycled through a small table of realistic coordinates so the
+ * results cannot be constant folded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class HelperBenchmark {
+
+	private static final String[][] COORDINATES = {
+		{"org.apache.maven.plugins", "maven-compiler-plugin", "3.11.0", null},
+		{"com.fasterxml.jackson.core", "jackson-databind", "2.15.2", null},
+		{"org.slf4j", "slf4j-api", "1.7.36", "sources"},
+		{"junit", "junit", "4.11", null},
+		{"org.eclipse.aether", "aether-transport-wagon", "0.9.0.M3", "javadoc"},
+		{"io.netty", "netty-codec-http2", "4.1.100.Final", null},
+		{"com.google.guava", "guava", "32.1.2-jre", null},
+		{"org.apache.lucene", "lucene-core", "3.6.2", "tests"}
+	};
+
+	private final File root = new File("/srv/maven/repository");
+	private ArtifactInfo[] artifacts;
+	private String[] gavs;
+	private String[] spacedGavs;
+	private File[] files;
+	private int next = 0;
+
+	@Setup
+	public void setup(){
+		int n = COORDINATES.length;
+		artifacts = new ArtifactInfo[n];
+		gavs = new String[n];
+		spacedGavs = new String[n];
+		files = new File[n];
+		for(int i=0;i<n;i++){
+			String[] c = COORDINATES[i];
+			ArtifactInfo ai = new ArtifactInfo();
+			ai.groupId = c[0];
+			ai.artifactId = c[1];
+			ai.version = c[2];
+			ai.classifier = c[3];
+			ai.fextension = "jar";
+			artifacts[i] = ai;
+			gavs[i] = c[0] + ":" + c[1] + ":" + c[2];
+			spacedGavs[i] = c[0] + " : " + c[1] + " : " + c[2];
+			files[i] = new File(root, Helper.calculatePath(ai));
+		}
+	}
+
+	private int index(){
+		int i = next;
+		next = (i + 1) & (COORDINATES.length - 1);
+		return i;
+	}
+
+	@Benchmark
+	public String calculatePathFromArtifact(){
+		return Helper.calculatePath(artifacts[index()]);
+	}
+
+	@Benchmark
+	public String calculatePathFromGav(){
+		return Helper.calculatePath(spacedGavs[index()]);
+	}
+
+	@Benchmark
+	public String calculateGavFromArtifact(){
+		return Helper.calculateGav(artifacts[index()]);
+	}
+
+	@Benchmark
+	public String calculateGavFromFile(){
+		return Helper.calculateGav(root, files[index()]);
+	}
+
+	@Benchmark
+	public ArtifactInfo buildArtifactInfoFromGav(){
+		return Helper.buildArtifactInfo(gavs[index()]);
+	}
+
+	@Benchmark
+	public ArtifactInfo buildArtifactInfoFromFile(){
+		return Helper.buildArtifactInfo(root, files[index()]);
+	}
+}
@@ -0,0 +1,111 @@
+package app.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.Indexer;
+import org.apache.maven.index.IteratorResultSet;
+import org.apache.maven.index.artifact.Gav;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import app.maven.Aether;
+import app.maven.MavenSearcher;
+
+/**
+ * Reading every artifact out of the index, as a full sync does before it
+ * downloads anything. The index is built once per trial in a temporary local
+ * repository with the same creators and context MavenSearcher uses against a
+ * real remote index.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexIterationBenchmark {
+
+	@Param({"10000", "100000"})
+	public int artifacts;
+
+	private File local;
+	private MavenSearcher searcher;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		local = File.createTempFile("mvnsync-index", "");
+		local.delete();
+		local.mkdirs();
+
+		Aether aether = new Aether(local.getPath());
+		aether.setRemoteRepository("http://repo.example.org/maven2");
+		searcher = new MavenSearcher(aether);
+		searcher.addType("jar");
+		searcher.setupIndexer();
+
+		PlexusContainer container = new DefaultPlexusContainer();
+		Indexer indexer = container.lookup(Indexer.class);
+		List<ArtifactContext> batch = new ArrayList<ArtifactContext>();
+		for(int i=0;i<artifacts;i++){
+			ArtifactInfo ai = new ArtifactInfo();
+			ai.groupId = "org.example.group" + (i % 500);
+			ai.artifactId = "artifact" + (i / 10);
+			ai.version = "1." + (i % 10);
+			ai.packaging = i % 20 == 0 ? "pom" : "jar";
+			ai.fextension = ai.packaging;
+			ai.lastModified = System.currentTimeMillis();
+			ai.size = 1024 + i;
+			ai.sha1 = String.format("%040x", i);
+			batch.add(new ArtifactContext(null, null, null, ai, new Gav(ai.groupId, ai.artifactId, ai.version)));
+			if(batch.size() == 10000){
+				indexer.addArtifactsToIndex(batch, searcher.getIndexingContext());
+				batch.clear();
+			}
+		}
+		indexer.addArtifactsToIndex(batch, searcher.getIndexingContext());
+		searcher.getIndexingContext().commit();
+		container.dispose();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		searcher.closeIndex();
+		FileUtils.deleteDirectory(local);
+	}
+
+	@Benchmark
+	public int iterate(Blackhole blackhole) throws IOException {
+		IteratorResultSet results = searcher.loadDependenciesFromIndex();
+		int count = 0;
+		try{
+			for(ArtifactInfo ai: results){
+				blackhole.consume(ai);
+				count++;
+			}
+		}finally{
+			results.close();
+		}
+		return count;
+	}
+}
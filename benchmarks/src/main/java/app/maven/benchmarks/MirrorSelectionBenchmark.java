@@ -0,0 +1,72 @@
+package app.maven.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.maven.MirrorScheduler;
+import app.maven.RoundRobin;
+
+/**
+ * Cost of picking the mirror for each download: the plain RoundRobin
+ * iterator against the MirrorScheduler that replaced it, which is shared by
+ * all download threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MirrorSelectionBenchmark {
+
+	@Param({"1", "4", "16"})
+	public int mirrors;
+
+	private Iterator<String> roundRobin;
+	private MirrorScheduler scheduler;
+
+	@Setup
+	public void setup(){
+		List<String> urls = new ArrayList<String>();
+		for(int i=0;i<mirrors;i++){
+			urls.add("http://mirror" + i + ".example.org/maven2/");
+		}
+		roundRobin = new RoundRobin<String>(urls).iterator();
+		scheduler = new MirrorScheduler(urls);
+		// give every mirror some history so selection is weighted
+		for(int i=0;i<mirrors;i++){
+			scheduler.success(urls.get(i), 20 + i * 10, 1024 * 1024, 100 + i * 50);
+		}
+	}
+
+	@Benchmark
+	public String roundRobin(){
+		return roundRobin.next();
+	}
+
+	@Benchmark
+	public String scheduler(){
+		return scheduler.next();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String schedulerContended(){
+		return scheduler.next();
+	}
+}
@@ -0,0 +1,378 @@
+package app.maven.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.Indexer;
+import org.apache.maven.index.artifact.Gav;
+import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.context.IndexingContext;
+import org.apache.maven.index.packer.IndexPacker;
+import org.apache.maven.index.packer.IndexPackingRequest;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusContainer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import app.maven.utils.Helper;
+
+/**
+ * A synthetic Maven repository served over HTTP from the local machine.
+ *
+ * generate() writes jars, poms and their .sha1 files in the standard layout
+ * and packs a Maven index for them under .index, so every mode of the sync
+ * can run against it. The content is served under /repo and again under
+ * /redirect, which answers every request with a redirect to /repo. Latency,
+ * per-connection bandwidth and a rate of 503 errors can be injected into
+ * artifact requests; index files are served without errors so every run
+ * starts from the same index.
+ */
+public class StandInRepository {
+
+	public static final String REPO = "/repo";
+	public static final String REDIRECT = "/redirect";
+
+	private static final int CHUNK = 8 * 1024;
+
+	private final File root;
+	private final List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+	private HttpServer server;
+	private ExecutorService executor;
+
+	private volatile long latencyMillis = 0;
+	private volatile long bytesPerSecond = 0;
+	private volatile double errorRate = 0;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong bytesServed = new AtomicLong();
+	private final AtomicLong redirects = new AtomicLong();
+	private final AtomicLong notFound = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	public StandInRepository(File root){
+		this.root = root;
+	}
+
+	public File getRoot(){
+		return root;
+	}
+
+	public List<ArtifactInfo> getArtifacts(){
+		return artifacts;
+	}
+
+	public void setLatency(long millis){
+		this.latencyMillis = millis;
+	}
+
+	/**
+	 * Limits each response to this many bytes per second, 0 for no limit.
+	 */
+	public void setBandwidth(long bytesPerSecond){
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Fraction of artifact requests answered with a 503.
+	 */
+	public void setErrorRate(double errorRate){
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Writes count artifacts, each a jar of roughly jarSize bytes with a pom,
+	 * and packs an index of them.
+	 */
+	public void generate(int count, int jarSize, long seed) throws Exception {
+		FileUtils.deleteDirectory(root);
+		root.mkdirs();
+		Random random = new Random(seed);
+		byte[] content = new byte[jarSize];
+		for(int i=0;i<count;i++){
+			ArtifactInfo ai = new ArtifactInfo();
+			ai.groupId = "org.standin.group" + (i % 100);
+			ai.artifactId = "lib" + (i / 100);
+			ai.version = "1." + (i % 7) + "." + (i % 3);
+			ai.packaging = "jar";
+			ai.fextension = "jar";
+
+			File jar = new File(root, Helper.calculatePath(ai));
+			jar.getParentFile().mkdirs();
+			random.nextBytes(content);
+			writeJar(jar, content);
+			File pom = new File(jar.getParentFile(), ai.artifactId + "-" + ai.version + ".pom");
+			FileUtils.writeStringToFile(pom, "<project>\n  <modelVersion>4.0.0</modelVersion>\n"
+				+ "  <groupId>" + ai.groupId + "</groupId>\n"
+				+ "  <artifactId>" + ai.artifactId + "</artifactId>\n"
+				+ "  <version>" + ai.version + "</version>\n"
+				+ "  <packaging>jar</packaging>\n</project>\n", "UTF-8");
+
+			ai.sha1 = writeSha1(jar);
+			writeSha1(pom);
+			ai.size = jar.length();
+			ai.lastModified = jar.lastModified();
+			artifacts.add(ai);
+		}
+		packIndex();
+	}
+
+	private static void writeJar(File jar, byte[] content) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+		try{
+			// stored so the jar is as large as the content
+			JarEntry entry = new JarEntry("data.bin");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(content.length);
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setCrc(crc.getValue());
+			out.putNextEntry(entry);
+			out.write(content);
+			out.closeEntry();
+		}finally{
+			out.close();
+		}
+	}
+
+	private static String writeSha1(File file) throws IOException, NoSuchAlgorithmException {
+		MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		InputStream in = new FileInputStream(file);
+		try{
+			byte[] buffer = new byte[CHUNK];
+			int read;
+			while((read = in.read(buffer)) > 0){
+				sha1.update(buffer, 0, read);
+			}
+		}finally{
+			in.close();
+		}
+		String hex = Helper.toHex(sha1.digest());
+		FileUtils.writeStringToFile(new File(file.getPath() + ".sha1"), hex, "UTF-8");
+		return hex;
+	}
+
+	private void packIndex() throws Exception {
+		PlexusContainer container = new DefaultPlexusContainer();
+		File indexDir = new File(root.getParentFile(), root.getName() + "-lucene");
+		FileUtils.deleteDirectory(indexDir);
+		try{
+			Indexer indexer = container.lookup(Indexer.class);
+			List<IndexCreator> creators = new ArrayList<IndexCreator>();
+			creators.add(container.lookup(IndexCreator.class, "min"));
+			creators.add(container.lookup(IndexCreator.class, "jarContent"));
+			IndexingContext context = indexer.createIndexingContext("standin", "standin", root, indexDir,
+				"http://127.0.0.1" + REPO, null, true, true, creators);
+			try{
+				List<ArtifactContext> batch = new ArrayList<ArtifactContext>();
+				for(ArtifactInfo ai: artifacts){
+					File jar = new File(root, Helper.calculatePath(ai));
+					File pom = new File(jar.getParentFile(), ai.artifactId + "-" + ai.version + ".pom");
+					batch.add(new ArtifactContext(pom, jar, null, ai, new Gav(ai.groupId, ai.artifactId, ai.version)));
+					if(batch.size() == 5000){
+						indexer.addArtifactsToIndex(batch, context);
+						batch.clear();
+					}
+				}
+				indexer.addArtifactsToIndex(batch, context);
+				context.commit();
+
+				IndexPackingRequest request = new IndexPackingRequest(context, new File(root, ".index"));
+				request.setFormats(Arrays.asList(IndexPackingRequest.IndexFormat.FORMAT_V1));
+				request.setCreateIncrementalChunks(false);
+				container.lookup(IndexPacker.class).packIndex(request);
+			}finally{
+				indexer.closeIndexingContext(context, true);
+			}
+		}finally{
+			container.dispose();
+			FileUtils.deleteDirectory(indexDir);
+		}
+	}
+
+	public void start(int port) throws IOException {
+		// without TCP_NODELAY small responses on kept-alive connections stall on delayed acks
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext(REPO, new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.createContext(REDIRECT, new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				redirects.incrementAndGet();
+				pause();
+				String target = REPO + exchange.getRequestURI().getRawPath().substring(REDIRECT.length());
+				exchange.getResponseHeaders().set("Location", "http://127.0.0.1:" + getPort() + target);
+				exchange.sendResponseHeaders(302, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	public void stop(){
+		if(server != null){
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Base URL of the repository on the given host name, which lets the same
+	 * server stand in for differently named mirrors.
+	 */
+	public String url(String host, boolean redirect){
+		return "http://" + host + ":" + getPort() + (redirect ? REDIRECT : REPO);
+	}
+
+	private void pause(){
+		if(latencyMillis > 0){
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try{
+			pause();
+			String path = exchange.getRequestURI().getPath().substring(REPO.length());
+			while(path.startsWith("/")){
+				path = path.substring(1);
+			}
+			path = path.replaceAll("/+", "/");
+			boolean index = path.startsWith(".index/");
+			if(!index && errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate){
+				errors.incrementAndGet();
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			File file = new File(root, path);
+			if(path.isEmpty() || path.contains("..") || !file.isFile()){
+				notFound.incrementAndGet();
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			long length = file.length();
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.getResponseHeaders().set("Last-Modified", httpDate(file.lastModified()));
+			if("HEAD".equals(exchange.getRequestMethod())){
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, length);
+			OutputStream out = exchange.getResponseBody();
+			InputStream in = new FileInputStream(file);
+			try{
+				copy(in, out);
+			}finally{
+				in.close();
+			}
+		}finally{
+			exchange.close();
+		}
+	}
+
+	private static String httpDate(long millis){
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(millis));
+	}
+
+	// copies the body, sleeping between chunks to hold the bandwidth limit
+	private void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[CHUNK];
+		long start = System.nanoTime();
+		long sent = 0;
+		int read;
+		while((read = in.read(buffer)) > 0){
+			out.write(buffer, 0, read);
+			sent += read;
+			bytesServed.addAndGet(read);
+			long limit = bytesPerSecond;
+			if(limit > 0){
+				long due = sent * 1000000000L / limit;
+				long ahead = due - (System.nanoTime() - start);
+				if(ahead > 1000000){
+					try {
+						Thread.sleep(ahead / 1000000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	public long getRequests(){
+		return requests.get();
+	}
+
+	public long getBytesServed(){
+		return bytesServed.get();
+	}
+
+	public long getRedirects(){
+		return redirects.get();
+	}
+
+	public long getNotFound(){
+		return notFound.get();
+	}
+
+	public long getErrors(){
+		return errors.get();
+	}
+
+	public void resetCounters(){
+		requests.set(0);
+		bytesServed.set(0);
+		redirects.set(0);
+		notFound.set(0);
+		errors.set(0);
+	}
+}
@@ -0,0 +1,105 @@
+package app.maven.workers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.maven.cache.VerifiedArtifactCache;
+import app.maven.utils.Helper;
+
+/**
+ * Checking a local artifact against its .sha1, which every sync does for
+ * every artifact already on disk. The file is hashed unless the verified
+ * artifact cache has already seen it unchanged.
+ *
+ * This lives in the workers package because validChecksum is package-private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidChecksumBenchmark {
+
+	@Param({"4096", "1048576", "33554432"})
+	public int size;
+
+	private File dir;
+	private File artifact;
+	private VerifiedArtifactCache cache;
+	private DownloadWorker hashing;
+	private DownloadWorker cached;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, NoSuchAlgorithmException {
+		dir = File.createTempFile("mvnsync-checksum", "");
+		dir.delete();
+		artifact = new File(dir, "org/example/lib/1.0/lib-1.0.jar");
+		artifact.getParentFile().mkdirs();
+
+		byte[] block = new byte[64 * 1024];
+		new Random(size).nextBytes(block);
+		MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		OutputStream out = new FileOutputStream(artifact);
+		try{
+			for(int written=0;written<size;written+=block.length){
+				int length = Math.min(block.length, size - written);
+				out.write(block, 0, length);
+				sha1.update(block, 0, length);
+			}
+		}finally{
+			out.close();
+		}
+		FileUtils.writeStringToFile(new File(artifact.getPath() + ".sha1"), Helper.toHex(sha1.digest()));
+
+		URL remote = new URL("http://mirror.example.org/maven2/org/example/lib/1.0/lib-1.0.jar");
+		URL remoteChecksum = new URL(remote + ".sha1");
+		hashing = new DownloadWorker(artifact, remote, remoteChecksum);
+
+		cache = new VerifiedArtifactCache(dir);
+		cache.open(false);
+		cached = new DownloadWorker(artifact, remote, remoteChecksum);
+		cached.setVerifiedArtifactCache(cache);
+		if(!cached.validChecksum(artifact)){
+			throw new IllegalStateException("benchmark artifact does not match its checksum");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		cache.close();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public boolean hashed(){
+		return hashing.validChecksum(artifact);
+	}
+
+	@Benchmark
+	public boolean verifiedCache(){
+		return cached.validChecksum(artifact);
+	}
+}
@@ -2,7 +2,6 @@ package app.maven;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -10,6 +9,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.maven.index.ArtifactInfo;
 import org.apache.maven.index.IteratorResultSet;
@@ -31,10 +33,22 @@ import org.eclipse.aether.resolution.DependencyRequest;
 import org.eclipse.aether.resolution.DependencyResolutionException;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 
+import app.maven.cache.VerifiedArtifactCache;
+import app.maven.events.ResolveBatchEvent;
+import app.maven.journal.StoppableSource;
+import app.maven.journal.SyncJournal;
 import app.maven.listeners.ConsoleRepositoryListener;
+import app.maven.listeners.MetricsTransferListener;
+import app.maven.logging.SyncLog;
+import app.maven.metrics.SyncMetrics;
 import app.maven.providers.ManualWagonProvider;
+import app.maven.transport.HttpTransport;
 import app.maven.utils.Helper;
+import app.maven.workers.DownloadEngine;
+import app.maven.workers.DownloadPipeline;
 import app.maven.workers.DownloadWorker;
+import app.maven.workers.SharedDownloadEngine;
+import app.maven.workers.VirtualThreadDownloadEngine;
 
 public class Aether {
 	private RepositorySystem system;
@@ -48,16 +62,36 @@ public class Aether {
 	private int max;
 	private boolean hasMax = false;
 	private int MAX_THREADS = 16;
+	private int QUEUE_SIZE = 1000; //artifacts buffered between the index reader and the downloaders
+	private int RESOLVE_THREADS = 1; //batches resolved concurrently in resolve and collect modes
+	private int HOST_CONCURRENCY = 64; //concurrent transfers per mirror host for the virtual thread engine
 	
-	private int BATCH = 50; //50 = best tested download rate out of 15,24,48,50,100
+	private int BATCH = 50; //starting batch size, 50 = best tested download rate out of 15,24,48,50,100
+	private int MIN_BATCH = 10;
+	private int MAX_BATCH = 500;
+	private BatchSizeController batchSize = new BatchSizeController(BATCH, MIN_BATCH, MAX_BATCH);
 	
 	public static final int COLLECT = 0;
 	public static final int RESOLVE = 1;
 	public static final int DIRECT = 2;
 	
+	public static final int POOL_ENGINE = 0;
+	public static final int VIRTUAL_ENGINE = 1;
+	
 	private int method = RESOLVE;
+	private int engine = POOL_ENGINE;
+	private boolean useIndexChecksums = false;
+	private boolean reverify = false;
+	private boolean resume = false;
+	private Shard shard = Shard.ALL;
+	private File journalDir;
+	private final SyncMetrics metrics;
+	private SharedDownloadEngine sharedEngine;
+	private HttpTransport sharedTransport;
+	private VerifiedArtifactCache sharedVerified;
 	
 	public Aether(String local){
+		metrics = new SyncMetrics();
 		setLocalRepository(local);
 		groupId = "";
 		artifactId = "";		
@@ -65,6 +99,46 @@ public class Aether {
 		newSession();	
 	}
 	
+	/**
+	 * A job of a long-running process, configured like parent and sharing
+	 * its repository system, batch size tuning and any shared downloads, but
+	 * with a session, mirror list and metrics of its own. The job's metrics
+	 * also count towards the parent's.
+	 */
+	public Aether(Aether parent){
+		metrics = new SyncMetrics(parent.metrics);
+		metrics.setShard(parent.metrics.getShard());
+		system = parent.system;
+		localRepository = parent.localRepository;
+		mirrors.addAll(parent.mirrors);
+		remoteRepository = parent.remoteRepository;
+		groupId = parent.groupId;
+		artifactId = parent.artifactId;
+		max = parent.max;
+		hasMax = parent.hasMax;
+		MAX_THREADS = parent.MAX_THREADS;
+		QUEUE_SIZE = parent.QUEUE_SIZE;
+		RESOLVE_THREADS = parent.RESOLVE_THREADS;
+		HOST_CONCURRENCY = parent.HOST_CONCURRENCY;
+		BATCH = parent.BATCH;
+		batchSize = parent.batchSize;
+		method = parent.method;
+		engine = parent.engine;
+		useIndexChecksums = parent.useIndexChecksums;
+		reverify = parent.reverify;
+		resume = parent.resume;
+		shard = parent.shard;
+		journalDir = parent.journalDir;
+		sharedEngine = parent.sharedEngine;
+		sharedTransport = parent.sharedTransport;
+		sharedVerified = parent.sharedVerified;
+		newSession();
+	}
+	
+	public SyncMetrics getMetrics(){
+		return metrics;
+	}
+	
 	public RepositorySystem getRepositorySystem(){
 		return system;
 	}
@@ -138,13 +212,159 @@ public class Aether {
 	public void setMax(int max) {
 		this.max = max;
 		this.hasMax = true;
-		this.BATCH = max;
+	}
+	
+	/**
+	 * Use a fixed batch size instead of tuning it from measured throughput.
+	 */
+	public void setBatch(int batch){
+		this.BATCH = batch;
+		this.batchSize = BatchSizeController.fixed(batch);
 	}
 	
 	public void setMaxThreads(int max){
 		this.MAX_THREADS = max;
 	}
 	
+	public void setResolveThreads(int threads){
+		this.RESOLVE_THREADS = threads;
+	}
+	
+	public void setEngine(int engine){
+		this.engine = engine;
+	}
+	
+	public void setUseIndexChecksums(boolean useIndexChecksums){
+		this.useIndexChecksums = useIndexChecksums;
+	}
+	
+	public void setReverify(boolean reverify){
+		this.reverify = reverify;
+	}
+	
+	/**
+	 * Skip artifacts the sync journal records as already processed.
+	 */
+	public void setResume(boolean resume){
+		this.resume = resume;
+	}
+	
+	public void setHostConcurrency(int max){
+		this.HOST_CONCURRENCY = max;
+	}
+	
+	/**
+	 * Only sync the artifacts in this shard, with a journal and verified
+	 * artifact cache of its own.
+	 */
+	public void setShard(Shard shard){
+		this.shard = shard;
+		metrics.setShard(shard.isAll() ? null : shard.toString());
+	}
+	
+	public Shard getShard(){
+		return shard;
+	}
+	
+	/**
+	 * Keep the sync journal in this directory instead of the repository's
+	 * .sync-journal, or go back to that when null.
+	 */
+	public void setJournal(File dir){
+		this.journalDir = dir;
+	}
+	
+	public boolean isResume(){
+		return resume;
+	}
+	
+	private SyncJournal openJournal(){
+		File dir = journalDir != null ? journalDir : new File(localRepository.getBasedir(), ".sync-journal" + shard.suffix());
+		SyncJournal journal = new SyncJournal(dir);
+		try {
+			journal.open(resume);
+		} catch (IOException e) {
+			System.out.println("could not open sync journal: " + e.getMessage());
+		}
+		return journal;
+	}
+	
+	private void closeJournal(SyncJournal journal, boolean finished){
+		if(!finished){
+			journal.close();
+			System.out.println("Sync incomplete, resume with --resume (journal: " + journal.getJournal().getPath() + ")");
+			return;
+		}
+		try {
+			journal.finish();
+		} catch (IOException e) {
+			System.out.println("could not compact sync journal: " + e.getMessage());
+		}
+	}
+	
+	private HttpTransport newHttpTransport(){
+		int connections = (engine == Aether.VIRTUAL_ENGINE) ? HOST_CONCURRENCY * mirrors.size() : MAX_THREADS;
+		HttpTransport transport = new HttpTransport(connections);
+		for(RemoteRepository mirror: mirrors){
+			transport.addMirror(mirror.getUrl());
+		}
+		return transport;
+	}
+	
+	/**
+	 * Keeps the download threads, HTTP connections and verified artifact
+	 * cache of direct downloads open until closeSharedDownloads, for this
+	 * instance and the jobs copied from it. The virtual thread engine has no
+	 * pool worth keeping, so it is still created per download.
+	 */
+	public void shareDownloads(){
+		List<RemoteRepository> all = new ArrayList<RemoteRepository>(mirrors);
+		all.add(remoteRepository);
+		int connections = (engine == Aether.VIRTUAL_ENGINE) ? HOST_CONCURRENCY * all.size() : MAX_THREADS;
+		sharedTransport = new HttpTransport(connections);
+		for(RemoteRepository mirror: all){
+			sharedTransport.addMirror(mirror.getUrl());
+		}
+		sharedVerified = new VerifiedArtifactCache(localRepository.getBasedir(), shard.suffix());
+		try {
+			sharedVerified.open(reverify);
+		} catch (IOException e) {
+			System.out.println("could not open verified artifact cache: " + e.getMessage());
+		}
+		if(engine == Aether.POOL_ENGINE){
+			sharedEngine = new SharedDownloadEngine(MAX_THREADS);
+		}
+	}
+	
+	public void closeSharedDownloads(){
+		if(sharedEngine != null){
+			sharedEngine.shutdown();
+			sharedEngine = null;
+		}
+		if(sharedTransport != null){
+			sharedTransport.shutdown();
+			sharedTransport = null;
+		}
+		if(sharedVerified != null){
+			try {
+				sharedVerified.close();
+			} catch (IOException e) {
+				System.out.println("could not save verified artifact cache: " + e.getMessage());
+			}
+			sharedVerified = null;
+		}
+	}
+	
+	private DownloadEngine newDownloadEngine(){
+		if(sharedEngine != null){
+			return sharedEngine.newEngine();
+		}
+		if(engine == Aether.VIRTUAL_ENGINE){
+			return new VirtualThreadDownloadEngine(HOST_CONCURRENCY, QUEUE_SIZE);
+		}
+		return new DownloadPipeline(MAX_THREADS, QUEUE_SIZE);
+	}
+	
 	public void newRepositorySystem()
     {
         DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
@@ -158,6 +378,7 @@ public class Aether {
         DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
         session.setLocalRepositoryManager( system.newLocalRepositoryManager( session, localRepository ) );
         session.setRepositoryListener(new ConsoleRepositoryListener());
+        session.setTransferListener(new MetricsTransferListener(metrics));
         this.session = session;
     }
 
@@ -170,125 +391,250 @@ public class Aether {
 		return collectRequest;
     }
     
-    public void directDownload(IteratorResultSet deps){
-    	ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS);
+    /**
+     * Downloads every artifact straight from the mirrors. An error reading
+     * deps is rethrown once the journal is closed without finishing it.
+     */
+    public void directDownload(Iterator<ArtifactInfo> deps){
     	mirrors.add(remoteRepository);
-    	RoundRobin<RemoteRepository> roundRobin = new RoundRobin<RemoteRepository>(mirrors);
-    	
-    	Iterator<RemoteRepository> m = roundRobin.iterator();
-        
-    	while(deps.hasNext()){
-    		ArtifactInfo ai = deps.next();
-			try {
-				URL remoteBase = new URL(m.next().getUrl());
-				URL remote = followRedirect(new URL(remoteBase.toString() + "/" + Helper.calculatePath(ai)));
-				URL remoteChecksum = followRedirect(new URL(remoteBase.toString() + "/" + Helper.calculatePath(ai) + ".sha1"));
-	    		File local = new File(localRepository.getBasedir(),Helper.calculatePath(ai));
-	    		Runnable worker = new DownloadWorker(local,remote,remoteChecksum);
-	            executor.execute(worker);
-			} catch (MalformedURLException e) {
-				System.out.println("error creating remote url: " + e.getMessage());
+    	List<String> urls = new ArrayList<String>();
+    	for(RemoteRepository mirror: mirrors){
+    		urls.add(mirror.getUrl());
+    	}
+    	final MirrorScheduler scheduler = new MirrorScheduler(urls);
+    	final DownloadEngine downloader = newDownloadEngine();
+    	metrics.setQueueDepth(new SyncMetrics.Gauge() {
+			public long value() {
+				return downloader.getQueueDepth();
+			}
+		});
+    	final HttpTransport transport = sharedTransport != null ? sharedTransport : newHttpTransport();
+    	final VerifiedArtifactCache verified;
+    	if(sharedVerified != null){
+    		verified = sharedVerified;
+    	}else{
+    		verified = new VerifiedArtifactCache(localRepository.getBasedir(), shard.suffix());
+	    	try {
+				verified.open(reverify);
+			} catch (IOException e) {
+				System.out.println("could not open verified artifact cache: " + e.getMessage());
 			}
     	}
-    	while (!executor.isTerminated()) {}
-        System.out.println("Finished all threads");
-    	executor.shutdown();
-    }
-    
-    private URL followRedirect(URL url){
-    	int status = 0;
-    	boolean redirect = false;
+    	final SyncJournal journal = openJournal();
+    	final DownloadWorker.Listener recorder = new DownloadWorker.Listener() {
+			public void finished(DownloadWorker worker, boolean successful) {
+				journal.complete(worker.getArtifact(), successful);
+			}
+		};
+		boolean finished = false;
+		RuntimeException readError = null;
+    	long start = System.currentTimeMillis();
     	
     	try {
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-			status = conn.getResponseCode();
-			if (status != HttpURLConnection.HTTP_OK) {
-				if (status == HttpURLConnection.HTTP_MOVED_TEMP
-					|| status == HttpURLConnection.HTTP_MOVED_PERM
-						|| status == HttpURLConnection.HTTP_SEE_OTHER)
-				redirect = true;
-			}
-			if(redirect == true){
-				String newUrl = conn.getHeaderField("Location");
-				return new URL(newUrl);
+			downloader.run(journal.track(shard.filter(deps)), new DownloadEngine.WorkerFactory() {
+				public DownloadWorker create(ArtifactInfo ai) {
+					String mirror = scheduler.next();
+					try {
+						String path = Helper.calculatePath(ai);
+						URL remote = new URL(mirror + "/" + path);
+						URL remoteChecksum = new URL(mirror + "/" + path + ".sha1");
+			    		File local = new File(localRepository.getBasedir(),path);
+			    		DownloadWorker worker;
+			    		if(useIndexChecksums && ai.sha1 != null && !ai.sha1.isEmpty()){
+			    			worker = new DownloadWorker(local,remote,remoteChecksum,ai.sha1,ai.size);
+			    		}else{
+			    			worker = new DownloadWorker(local,remote,remoteChecksum);
+			    		}
+			    		worker.setVerifiedArtifactCache(verified);
+			    		worker.setTransport(transport);
+			    		worker.setScheduler(scheduler, mirror, path);
+			    		worker.setArtifact(ai);
+			    		worker.setListener(recorder);
+			    		worker.setMetrics(metrics);
+			    		return worker;
+					} catch (MalformedURLException e) {
+						SyncLog.warn("error creating remote url", e.getMessage());
+						journal.complete(ai, false);
+						metrics.attempted(1);
+						metrics.failed(1);
+						return null;
+					} catch (RuntimeException e) {
+						journal.complete(ai, false);
+						metrics.attempted(1);
+						metrics.failed(1);
+						throw e;
+					}
+				}
+			});
+			finished = !stopped(deps);
+		} catch (InterruptedException e) {
+			System.out.println("direct download interrupted");
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			// the source broke off, keep the journal so the rest can be resumed
+			System.out.println("error reading artifacts: " + e.getMessage());
+			readError = e;
+		}
+    	metrics.setQueueDepth(null);
+    	closeJournal(journal, finished);
+    	if(transport != sharedTransport){
+	    	transport.shutdown();
+    	}
+    	if(verified != sharedVerified){
+	    	try {
+				verified.close();
+			} catch (IOException e) {
+				System.out.println("could not save verified artifact cache: " + e.getMessage());
 			}
-		} catch (IOException e) {}
-    	
-    	return url;    	
+    	}
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        SyncLog.get().flush();
+        System.out.println("Finished all threads in " + (elapsed / 1000) + "s ("
+        	+ (downloader.getCompleted() * 1000 / elapsed) + " artifacts/s)");
+        System.out.print(scheduler.summary());
+        if(readError != null){
+        	throw readError;
+        }
+    }
+    
+    private static boolean stopped(Iterator<ArtifactInfo> source){
+    	return source instanceof StoppableSource && ((StoppableSource) source).isStopped();
     }
     
     public void resolve(IteratorResultSet deps){
-    	CollectRequest collectRequest;
-    	int total = 0;
-		
-		while(deps.hasNext()){
-			collectRequest = aetherCollectRequest();
-			for(int i=0;i<BATCH;i++){
-				ArtifactInfo ai = deps.next();
-	    		Artifact art = new DefaultArtifact(ai.groupId,ai.artifactId,ai.classifier,"jar",ai.version);
-	        	if(art!=null){
-	        		File local = new File(localRepository.getBasedir(),Helper.calculatePath(ai));
-	        		if((method == Aether.RESOLVE)&&local.exists()){
-	        			continue;
-	        		}
-        			Dependency dep = new Dependency(art,"compile");
-        			collectRequest.addDependency(dep);
-        			total++;
-	        	}
-			}
-	        DependencyRequest dependencyRequest = new DependencyRequest( collectRequest, null );
-	        request(dependencyRequest);
-	        if(hasMax && total >= max){
-        		return;
-        	}
-		}
+    	resolve((Iterator<ArtifactInfo>) deps);
 	}
     
+    /**
+     * Resolves (or collects) dependencies in batches sized by the batch size
+     * controller, running up to
+     * RESOLVE_THREADS batches at once against the shared repository system.
+     * The reader blocks once twice that many batches are waiting, so only a
+     * bounded number of batches is ever held in memory.
+     */
     public void resolve(Iterator<ArtifactInfo> deps){
-    	CollectRequest collectRequest;
+    	ExecutorService executor = Executors.newFixedThreadPool(RESOLVE_THREADS);
+    	final Semaphore inFlight = new Semaphore(RESOLVE_THREADS * 2);
+    	final AtomicInteger failedBatches = new AtomicInteger();
+    	final SyncJournal journal = openJournal();
+    	boolean finished = false;
     	int total = 0;
+    	int batches = 0;
+    	long start = System.currentTimeMillis();
     	
-		while(deps.hasNext()){
-			collectRequest = aetherCollectRequest();
-			for(int i=0;i<BATCH;i++){
-				ArtifactInfo ai = deps.next();
-	    		Artifact art = new DefaultArtifact(ai.groupId,ai.artifactId,ai.classifier,"jar",ai.version);
-	    		if(art!=null){
+    	Iterator<ArtifactInfo> source = deps;
+    	deps = journal.track(shard.filter(deps));
+    	try {
+			while(deps.hasNext()){
+				final CollectRequest collectRequest = aetherCollectRequest();
+				final List<ArtifactInfo> members = new ArrayList<ArtifactInfo>();
+				int size = 0;
+				int limit = batchSize.current();
+				while(size < limit && deps.hasNext()){
+					ArtifactInfo ai = deps.next();
+					if(ai == null){
+						continue;
+					}
+		    		Artifact art = new DefaultArtifact(ai.groupId,ai.artifactId,ai.classifier,"jar",ai.version);
 	    			File local = new File(localRepository.getBasedir(),Helper.calculatePath(ai));
 	        		if((method == Aether.RESOLVE)&&local.exists()){
+	        			journal.complete(ai, true);
+	        			metrics.attempted(1);
+	        			metrics.skipped();
 	        			continue;
 	        		}
-        			Dependency dep = new Dependency(art,"compile");
-        			collectRequest.addDependency(dep);
-        			total++;
-	    		}
+	    			collectRequest.addDependency(new Dependency(art,"compile"));
+	    			members.add(ai);
+	    			size++;
+	    			total++;
+	    			if(hasMax && total >= max){
+	    				break;
+	    			}
+				}
+				if(size == 0){
+					continue;
+				}
+				final int batch = ++batches;
+				final int count = size;
+				inFlight.acquire();
+				metrics.attempted(count);
+				executor.execute(new Runnable(){
+					public void run() {
+						boolean ok = false;
+						try{
+							ok = request(new DependencyRequest( collectRequest, null ), batch, count);
+							if(ok){
+								metrics.downloaded(count);
+							}else{
+								failedBatches.incrementAndGet();
+								metrics.failed(count);
+							}
+						}finally{
+							for(ArtifactInfo ai: members){
+								journal.complete(ai, ok);
+							}
+							inFlight.release();
+						}
+					}
+				});
+		        if(hasMax && total >= max){
+	        		break;
+	        	}
 			}
-	        DependencyRequest dependencyRequest = new DependencyRequest( collectRequest, null );
-	        request(dependencyRequest);
-	        if(hasMax && total >= max){
-        		return;
-        	}
+			finished = !deps.hasNext() && !stopped(source);
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			finished = false;
+			System.out.println("resolve interrupted");
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
 		}
+    	closeJournal(journal, finished);
+    	long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    	SyncLog.get().flush();
+    	System.out.println("Processed " + total + " dependencies in " + batches + " batches, "
+    		+ failedBatches.get() + " failed, in " + (elapsed / 1000) + "s");
+    	System.out.println("Final batch size: " + batchSize.current() + (batchSize.isAdaptive() ? " (adaptive)" : " (fixed)"));
 	}
     
-    private void request(DependencyRequest request){
+    private boolean request(DependencyRequest request, int batch, int count){
+    	ResolveBatchEvent event = new ResolveBatchEvent();
+    	event.begin();
+    	long start = System.currentTimeMillis();
+    	boolean ok = true;
     	if(method == Aether.RESOLVE){
-    		//DependencyNode node = system.collectDependencies(session, collectRequest).getRoot();
-        	//DependencyRequest dependencyRequest = new DependencyRequest( node, null );
             try {
-            	System.out.println("Attempting to resolve "+BATCH+" dependencies: ");
+            	SyncLog.info("Batch " + batch, "attempting to resolve " + count + " dependencies");
     			system.resolveDependencies( session, request  );
     		} catch (DependencyResolutionException e) {
-    			System.out.println("problem resolving dependencies: " + e.getMessage());
+    			SyncLog.warn("Batch " + batch, "problem resolving dependencies", e.getMessage());
+    			ok = false;
     		}
         }else{
         	try {
-        		System.out.println("Attempting to collect "+BATCH+" dependencies: ");
+        		SyncLog.info("Batch " + batch, "attempting to collect " + count + " dependencies");
         		system.collectDependencies(session, request.getCollectRequest());
     		} catch (DependencyCollectionException e) {
-    			System.out.println("problem collecting dependencies: " + e.getMessage());
+    			SyncLog.warn("Batch " + batch, "problem collecting dependencies", e.getMessage());
+    			ok = false;
     		}
         }
+    	long elapsed = System.currentTimeMillis() - start;
+    	metrics.batch(elapsed);
+    	event.end();
+    	if(event.shouldCommit()){
+    		event.batch = batch;
+    		event.method = method == Aether.RESOLVE ? "resolve" : "collect";
+    		event.dependencies = count;
+    		event.successful = ok;
+    		event.commit();
+    	}
+    	SyncLog.info("Batch " + batch, (ok ? "finished" : "failed") + " in " + elapsed + "ms");
+    	if(ok){
+    		batchSize.record(count, elapsed);
+    	}
+    	return ok;
     }
   
 }
@@ -0,0 +1,143 @@
+package app.maven;
+
+/**
+ * Chooses the number of dependencies sent in each resolve or collect request.
+ *
+ * The controller hill-climbs on throughput: it measures artifacts per second
+ * over a window of batches, then grows or shrinks the batch size by a factor,
+ * keeping the direction while throughput improves and reversing it, with half
+ * the step, when throughput drops. Once the step is too small to matter it
+ * settles on the best size it measured, and only starts searching again if
+ * throughput later falls well below the settled rate. A fixed controller
+ * always returns the same size.
+ */
+public class BatchSizeController {
+
+	private static final int WINDOW = 3; //batches measured at each size
+	private static final double STEP = 0.25; //initial fraction the size grows or shrinks by
+	private static final double SETTLE_STEP = 0.03; //step below which the size is considered settled
+	private static final double RETUNE_BELOW = 0.7; //fraction of the settled rate that restarts tuning
+
+	private final int min;
+	private final int max;
+	private final boolean adaptive;
+
+	private int size;
+	private int direction = 1;
+	private double step = STEP;
+	private double lastRate = -1;
+	private double settledRate = -1;
+	private int bestSize;
+	private double bestRate = -1;
+
+	private long windowArtifacts = 0;
+	private long windowMillis = 0;
+	private int windowBatches = 0;
+
+	public BatchSizeController(int initial, int min, int max){
+		this(initial, min, max, true);
+	}
+
+	private BatchSizeController(int initial, int min, int max, boolean adaptive){
+		if(min < 1 || max < min){
+			throw new IllegalArgumentException("invalid batch size bounds: " + min + " - " + max);
+		}
+		this.min = min;
+		this.max = max;
+		this.adaptive = adaptive;
+		this.size = clamp(initial);
+		this.bestSize = size;
+	}
+
+	/**
+	 * Controller that never changes the batch size.
+	 */
+	public static BatchSizeController fixed(int size){
+		return new BatchSizeController(size, size, size, false);
+	}
+
+	public boolean isAdaptive(){
+		return adaptive;
+	}
+
+	public synchronized boolean isSettled(){
+		return settledRate >= 0;
+	}
+
+	/**
+	 * The batch size to use for the next request.
+	 */
+	public synchronized int current(){
+		return size;
+	}
+
+	/**
+	 * Records how long a request for the given number of artifacts took.
+	 */
+	public synchronized void record(int artifacts, long elapsedMillis){
+		if(!adaptive || artifacts <= 0){
+			return;
+		}
+		windowArtifacts += artifacts;
+		windowMillis += Math.max(1, elapsedMillis);
+		if(++windowBatches < WINDOW){
+			return;
+		}
+		double rate = windowArtifacts * 1000.0 / windowMillis;
+		windowArtifacts = 0;
+		windowMillis = 0;
+		windowBatches = 0;
+
+		if(settledRate >= 0){
+			if(rate < settledRate * RETUNE_BELOW){
+				System.out.println("Batch throughput dropped to " + format(rate) + " artifacts/s, retuning batch size from " + size);
+				settledRate = -1;
+				step = STEP;
+				bestRate = -1;
+				lastRate = -1;
+			}else{
+				return;
+			}
+		}
+
+		if(rate > bestRate){
+			bestRate = rate;
+			bestSize = size;
+		}
+		if(lastRate >= 0 && rate < lastRate){
+			direction = -direction;
+			step = step / 2;
+		}
+		lastRate = rate;
+
+		if(step < SETTLE_STEP){
+			size = bestSize;
+			settledRate = bestRate;
+			System.out.println("Batch size settled at " + size + " (" + format(bestRate) + " artifacts/s)");
+			return;
+		}
+		int previous = size;
+		move();
+		if(size != previous){
+			System.out.println("Batch size " + previous + " -> " + size + " (" + format(rate) + " artifacts/s)");
+		}
+	}
+
+	private void move(){
+		int delta = Math.max(1, (int) Math.round(size * step));
+		int next = clamp(size + direction * delta);
+		if(next == size){
+			// hit a bound, search the other way next time
+			direction = -direction;
+		}
+		size = next;
+	}
+
+	private int clamp(int value){
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static String format(double rate){
+		return String.valueOf(Math.round(rate * 10) / 10.0);
+	}
+}
@@ -0,0 +1,144 @@
+package app.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.utils.Helper;
+import app.maven.utils.LongHashSet;
+
+/**
+ * Reads a GAV list one line at a time, yielding each distinct artifact once.
+ *
+ * Lines are read lazily as the iterator is consumed, so memory does not grow
+ * with the size of the file. Duplicates are detected by a 64-bit hash of the
+ * normalised line held in a primitive set rather than by keeping the
+ * artifacts. Gzip compressed files are detected by their magic bytes. Blank
+ * lines and lines starting with # are ignored.
+ */
+public class GavFileReader implements Iterator<ArtifactInfo>, Closeable {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final BufferedReader reader;
+	private final LongHashSet seen = new LongHashSet(1 << 16);
+	private ArtifactInfo next;
+	private boolean finished = false;
+	private long lines = 0;
+	private long duplicates = 0;
+	private long invalid = 0;
+
+	public GavFileReader(File file) throws IOException {
+		this.file = file;
+		this.reader = new BufferedReader(new InputStreamReader(open(file), UTF8), BUFFER_SIZE);
+	}
+
+	private static InputStream open(File file) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+		in.mark(2);
+		int first = in.read();
+		int second = in.read();
+		in.reset();
+		if(first == 0x1f && second == 0x8b){
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+		return in;
+	}
+
+	public long getDuplicates(){
+		return duplicates;
+	}
+
+	public long getInvalid(){
+		return invalid;
+	}
+
+	public boolean hasNext() {
+		if(next != null){
+			return true;
+		}
+		if(finished){
+			return false;
+		}
+		try {
+			String line;
+			while((line = reader.readLine()) != null){
+				lines++;
+				String gav = normalise(line);
+				if(gav.isEmpty() || gav.charAt(0) == '#'){
+					continue;
+				}
+				if(!seen.add(LongHashSet.hash(gav))){
+					duplicates++;
+					continue;
+				}
+				ArtifactInfo ai = Helper.buildArtifactInfo(gav);
+				if(ai == null){
+					invalid++;
+					continue;
+				}
+				next = ai;
+				return true;
+			}
+		} catch (IOException e) {
+			System.out.println("error reading GAV file " + file.getPath() + ": " + e.getMessage());
+		}
+		finished = true;
+		close();
+		System.out.println("Read " + lines + " lines from " + file.getPath() + ", " + seen.size() + " distinct, "
+			+ duplicates + " duplicates, " + invalid + " invalid");
+		return false;
+	}
+
+	public ArtifactInfo next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		ArtifactInfo ai = next;
+		next = null;
+		return ai;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() {
+		try {
+			reader.close();
+		} catch (IOException e) {}
+	}
+
+	// strip all whitespace, which cannot appear in a GAV, without copying clean lines
+	private static String normalise(String line){
+		StringBuilder gav = null;
+		int length = line.length();
+		for(int i=0;i<length;i++){
+			char c = line.charAt(i);
+			if(Character.isWhitespace(c)){
+				if(gav == null){
+					gav = new StringBuilder(length);
+					gav.append(line, 0, i);
+				}
+				continue;
+			}
+			if(gav != null){
+				gav.append(c);
+			}
+		}
+		return gav != null ? gav.toString() : line;
+	}
+}
@@ -0,0 +1,172 @@
+package app.maven;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.context.DocumentFilter;
+
+import app.maven.utils.LongHashSet;
+
+/**
+ * The artifacts added to the index by incremental updates that have not been
+ * synced yet.
+ *
+ * Installed as the document filter of an index update, it sees every document
+ * of each chunk applied and records the UINFO key of the artifact documents,
+ * accepting them all. Recorded keys are appended to a pending file beside the
+ * index when the update finishes, and stay there until a sync of them
+ * succeeds, so a run that updates the index and then fails does not lose the
+ * delta. A full update covers everything, so it discards the delta; recording
+ * stops at a limit so that a full update does not write out the whole index.
+ * Each shard updates its own index and so keeps its own pending file.
+ */
+public class IndexDelta implements DocumentFilter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int LIMIT = 2000000;
+
+	private final File pending;
+	private final File recording;
+	private Writer writer;
+	private int recorded = 0;
+	private boolean overflowed = false;
+
+	public IndexDelta(File dir){
+		this(dir, "");
+	}
+
+	/**
+	 * Delta kept in pending-delta plus suffix, for one shard of the repository.
+	 */
+	public IndexDelta(File dir, String suffix){
+		this.pending = new File(dir, "pending-delta" + suffix + ".txt");
+		this.recording = new File(dir, "pending-delta" + suffix + ".txt.tmp");
+	}
+
+	public File getFile(){
+		return pending;
+	}
+
+	public boolean accept(Document doc) {
+		String uinfo = doc.get(ArtifactInfo.UINFO);
+		if(uinfo == null || overflowed){
+			// deletions, group lists and descriptors have no UINFO
+			return true;
+		}
+		try {
+			if(writer == null){
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(recording), UTF8), 64 * 1024);
+			}
+			writer.write(uinfo);
+			writer.write('\n');
+			if(++recorded >= LIMIT){
+				overflowed = true;
+				discard();
+			}
+		} catch (IOException e) {
+			System.out.println("could not record index delta: " + e.getMessage());
+			overflowed = true;
+			discard();
+		}
+		return true;
+	}
+
+	/**
+	 * Artifacts recorded during the current update.
+	 */
+	public int getRecorded(){
+		return recorded;
+	}
+
+	/**
+	 * Whether recording gave up, in which case the delta is incomplete.
+	 */
+	public boolean isOverflowed(){
+		return overflowed;
+	}
+
+	/**
+	 * Adds what the update recorded to the pending delta.
+	 */
+	public void commit() throws IOException {
+		close();
+		if(recording.exists()){
+			FileInputStream in = new FileInputStream(recording);
+			FileOutputStream out = new FileOutputStream(pending, true);
+			try{
+				byte[] buffer = new byte[64 * 1024];
+				int read;
+				while((read = in.read(buffer)) > 0){
+					out.write(buffer, 0, read);
+				}
+				out.getFD().sync();
+			}finally{
+				in.close();
+				out.close();
+			}
+			recording.delete();
+		}
+	}
+
+	/**
+	 * Drops what the update recorded, keeping the pending delta.
+	 */
+	public void discard(){
+		close();
+		recording.delete();
+	}
+
+	/**
+	 * Drops the pending delta once it has been synced, or superseded by a
+	 * full update.
+	 */
+	public void clear(){
+		discard();
+		pending.delete();
+	}
+
+	/**
+	 * The distinct UINFO keys of the pending delta, in the order they were
+	 * added.
+	 */
+	public List<String> read() throws IOException {
+		List<String> keys = new ArrayList<String>();
+		if(!pending.exists()){
+			return keys;
+		}
+		LongHashSet seen = new LongHashSet(1 << 12);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(pending), UTF8), 64 * 1024);
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				if(!line.isEmpty() && seen.add(LongHashSet.hash(line))){
+					keys.add(line);
+				}
+			}
+		}finally{
+			reader.close();
+		}
+		return keys;
+	}
+
+	private void close(){
+		if(writer != null){
+			try {
+				writer.close();
+			} catch (IOException e) {}
+			writer = null;
+		}
+	}
+}
@@ -1,20 +1,26 @@
 package app.maven;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Scanner;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.maven.index.ArtifactInfo;
 import org.apache.maven.index.Indexer;
 import org.apache.maven.index.IteratorResultSet;
@@ -23,6 +29,7 @@ import org.apache.maven.index.IteratorSearchResponse;
 import org.apache.maven.index.MAVEN;
 import org.apache.maven.index.context.ExistingLuceneIndexMismatchException;
 import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.context.IndexUtils;
 import org.apache.maven.index.context.IndexingContext;
 import org.apache.maven.index.expr.SourcedSearchExpression;
 import org.apache.maven.index.updater.IndexUpdateRequest;
@@ -38,7 +45,11 @@ import org.codehaus.plexus.PlexusContainer;
 import org.codehaus.plexus.PlexusContainerException;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
 
+import app.maven.batch.BatchQueue;
+import app.maven.events.IndexUpdateEvent;
 import app.maven.listeners.ConsoleTransferListener;
+import app.maven.snapshot.SnapshotEntry;
+import app.maven.snapshot.SnapshotSorter;
 import app.maven.utils.Helper;
 
 public class MavenSearcher {
@@ -48,6 +59,12 @@ public class MavenSearcher {
 	private IndexingContext context;
 	private Aether aether;
 	private Indexer indexer;
+	private boolean incremental = false;
+	private IndexDelta delta;
+	private volatile boolean deltaLookupFailed = false;
+	
+	// UINFO terms per lookup query, within Lucene's default clause limit
+	private static final int LOOKUP_BATCH = 512;
 	
 	public void addType(String type){
 		this.types.add(type);
@@ -61,9 +78,11 @@ public class MavenSearcher {
 		plexusContainer = new DefaultPlexusContainer();
 		indexer = plexusContainer.lookup( Indexer.class );
         
-		// Files where local cache is (if any) and Lucene Index should be located
-        File mavenLocalCache = new File( aether.getLocalRepository().getBasedir(), ".remote-index/repo-cache" );
-        File mavenIndexDir = new File( aether.getLocalRepository().getBasedir(), ".remote-index/repo-index" );
+		// Files where local cache is (if any) and Lucene Index should be located,
+		// one per shard as an open context holds the index's write lock
+		String suffix = aether.getShard().suffix();
+        File mavenLocalCache = new File( aether.getLocalRepository().getBasedir(), ".remote-index/repo-cache" + suffix );
+        File mavenIndexDir = new File( aether.getLocalRepository().getBasedir(), ".remote-index/repo-index" + suffix );
 
         // Creators we want to use (search for fields it defines)
         List<IndexCreator> indexers = new ArrayList<IndexCreator>();
@@ -82,6 +101,14 @@ public class MavenSearcher {
 		return context;
 	}
 	
+	/**
+	 * Record the artifacts added by incremental index updates, so that
+	 * loadDependenciesFromDelta can sync just those.
+	 */
+	public void setIncremental(boolean incremental){
+		this.incremental = incremental;
+	}
+	
 	public void updateIndex() throws PlexusContainerException, ComponentLookupException, IOException{
 		IndexUpdater indexUpdater = plexusContainer.lookup( IndexUpdater.class );
 		//plexusContainer.lookup( Wagon.class, "http" ); // didnt work: component lookup failure
@@ -94,7 +121,42 @@ public class MavenSearcher {
         ResourceFetcher resourceFetcher = new WagonHelper.WagonFetcher( httpWagon, listener, null, null );
         Date centralContextCurrentTimestamp = context.getTimestamp();
         IndexUpdateRequest updateRequest = new IndexUpdateRequest( context, resourceFetcher );
-        IndexUpdateResult updateResult = indexUpdater.fetchAndUpdateIndex( updateRequest );
+        IndexDelta recording = null;
+        if(incremental){
+        	recording = new IndexDelta(new File( aether.getLocalRepository().getBasedir(), ".remote-index" ), aether.getShard().suffix());
+        	// the first update is always full, there is nothing to record
+        	if(centralContextCurrentTimestamp != null){
+        		updateRequest.setDocumentFilter( recording );
+        	}
+        }
+        delta = null;
+        IndexUpdateEvent event = new IndexUpdateEvent();
+        event.outcome = IndexUpdateEvent.FAILED;
+        event.begin();
+        IndexUpdateResult updateResult = null;
+        try{
+        	updateResult = indexUpdater.fetchAndUpdateIndex( updateRequest );
+        	Date updated = updateResult.getTimestamp();
+        	if(updateResult.isFullUpdate()){
+        		event.outcome = IndexUpdateEvent.FULL;
+        	}else if(updated != null && updated.equals( centralContextCurrentTimestamp )){
+        		event.outcome = IndexUpdateEvent.UP_TO_DATE;
+        	}else{
+        		event.outcome = IndexUpdateEvent.INCREMENTAL;
+        	}
+        	event.timestamp = updated != null ? updated.getTime() : 0;
+        }finally{
+        	if(recording != null && updateResult == null){
+        		// chunks applied before the failure are in the index, keep what they added
+        		recording.commit();
+        	}
+        	event.end();
+        	if(event.shouldCommit()){
+        		event.repository = context.getRepositoryUrl();
+        		event.previous = centralContextCurrentTimestamp != null ? centralContextCurrentTimestamp.getTime() : 0;
+        		event.commit();
+        	}
+        }
 
         if ( updateResult.isFullUpdate() )
         {
@@ -114,6 +176,19 @@ public class MavenSearcher {
 	        	System.out.println( "Incremental update happened: unknown timestamp");
 	        }
         }
+        
+        if(recording != null){
+        	if(updateResult.isFullUpdate() || centralContextCurrentTimestamp == null || recording.isOverflowed()){
+        		// everything has to be checked anyway
+        		recording.clear();
+        	}else{
+        		recording.commit();
+        		if(recording.getRecorded() > 0){
+        			System.out.println( "Update added " + recording.getRecorded() + " artifacts to the index" );
+        		}
+        		delta = recording;
+        	}
+        }
 	}
 	
 	public void closeIndex() {
@@ -123,47 +198,132 @@ public class MavenSearcher {
 		} catch (IOException e) {}
 	}
 
+	/**
+	 * Streams the distinct artifacts listed in a GAV file, which may be gzipped.
+	 */
 	public Iterator<ArtifactInfo> loadDependenciesFromFile(File file){
 		System.out.println("Resolving dependencies from file: " + file.getPath());
-		Set<ArtifactInfo> results = new HashSet<ArtifactInfo>();
-		Scanner sc = null;
-		File depFile = file;
-		
-		if(depFile.exists() && depFile.isFile()){
+		if(file.exists() && file.isFile()){
 			try {
-				sc = new Scanner(depFile);
-				while (sc.hasNextLine()) {
-					ArtifactInfo ai = Helper.buildArtifactInfo(sc.nextLine());
-					if(ai != null){
-						results.add(ai);
+				return new GavFileReader(file);
+			} catch (IOException e) {
+				System.out.println("GAV file could not be read: " + e.getMessage());
+			}
+		}else{
+			System.out.println("GAV file not found: " + file.getPath());
+		}
+		return Collections.<ArtifactInfo>emptyList().iterator();
+	}
+	
+	/**
+	 * Streams the artifacts added by incremental index updates since the last
+	 * successful incremental sync, looked up in the index by their UINFO keys
+	 * and filtered like loadDependenciesFromIndex. Returns null when the last
+	 * update was not incremental, in which case the whole index must be
+	 * synced.
+	 */
+	public Iterator<ArtifactInfo> loadDependenciesFromDelta() throws IOException{
+		if(delta == null){
+			return null;
+		}
+		final List<String> keys = delta.read();
+		deltaLookupFailed = false;
+		System.out.println("Searching index for " + keys.size() + " artifacts added since the last incremental sync, of type(s): " + types);
+		return new Iterator<ArtifactInfo>() {
+			private final LinkedList<ArtifactInfo> found = new LinkedList<ArtifactInfo>();
+			private int position = 0;
+
+			public boolean hasNext() {
+				while(found.isEmpty() && position < keys.size()){
+					int end = Math.min(keys.size(), position + LOOKUP_BATCH);
+					try {
+						lookup(keys.subList(position, end), found);
+					} catch (IOException e) {
+						// the delta is kept for the next sync, carry on with the other batches
+						System.out.println("index lookup failed for " + (end - position) + " artifacts: " + e.getMessage());
+						deltaLookupFailed = true;
 					}
+					position = end;
 				}
-			} catch (FileNotFoundException e) {
-				System.out.println("GAV file not found: " + e.getMessage());
-			} finally{
-				sc.close();
-				System.out.println("file closed");
+				return !found.isEmpty();
 			}
+
+			public ArtifactInfo next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return found.removeFirst();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	private void lookup(List<String> keys, List<ArtifactInfo> found) throws IOException {
+		BooleanQuery query = new BooleanQuery();
+		for(String key: keys){
+			query.add( new TermQuery( new Term( ArtifactInfo.UINFO, key ) ), Occur.SHOULD );
+		}
+		IndexSearcher searcher = context.acquireIndexSearcher();
+		try{
+			TopDocs hits = searcher.search(query, keys.size());
+			for(ScoreDoc hit: hits.scoreDocs){
+				ArtifactInfo ai = IndexUtils.constructArtifactInfo( searcher.doc(hit.doc), context );
+				if(ai != null && types.contains(ai.packaging)
+					&& (aether.getGroupId().isEmpty() || aether.getGroupId().equals(ai.groupId))
+					&& (aether.getArtifactId().isEmpty() || aether.getArtifactId().equals(ai.artifactId))){
+					found.add(ai);
+				}
+			}
+		}finally{
+			context.releaseIndexSearcher(searcher);
+		}
+	}
+	
+	/**
+	 * Forgets the artifacts returned by loadDependenciesFromDelta once they
+	 * have all been synced; otherwise they are offered again next time. The
+	 * delta is also kept when part of it could not be looked up in the index.
+	 * A shard only clears its own delta, the other shards record theirs from
+	 * their own index updates. Returns whether the delta was cleared.
+	 */
+	public boolean completeDelta(boolean synced){
+		if(delta == null){
+			return false;
 		}
-		Iterator<ArtifactInfo> it = results.iterator();
-		return it;
+		if(synced && !deltaLookupFailed){
+			delta.clear();
+			return true;
+		}
+		System.out.println("Keeping the index delta in " + delta.getFile().getPath() + " for the next sync");
+		return false;
 	}
 	
 	public IteratorResultSet loadDependenciesFromIndex() throws IOException{
+		return loadDependenciesFromIndex(aether.getGroupId(), aether.getArtifactId());
+	}
+	
+	/**
+	 * Searches the index for the configured types, limited to groupId and
+	 * artifactId unless they are empty. The results should be closed once read.
+	 */
+	public IteratorResultSet loadDependenciesFromIndex(String groupId, String artifactId) throws IOException{
 		System.out.println("Searching index for artifacts of type(s): " + types);
 		
 		final BooleanQuery query = new BooleanQuery();
 		
-		if(!aether.getGroupId().isEmpty()){
-	        Query groupIdQ = indexer.constructQuery( MAVEN.GROUP_ID, new SourcedSearchExpression( aether.getGroupId() ) );
+		if(!groupId.isEmpty()){
+	        Query groupIdQ = indexer.constructQuery( MAVEN.GROUP_ID, new SourcedSearchExpression( groupId ) );
 	        query.add( groupIdQ, Occur.MUST );
-	        System.out.println("with groupId: " + aether.getGroupId());
+	        System.out.println("with groupId: " + groupId);
 		}
 		
-		if(!aether.getArtifactId().isEmpty()){
-	        Query artifactIdQ = indexer.constructQuery( MAVEN.ARTIFACT_ID, new SourcedSearchExpression( aether.getArtifactId() ) );
+		if(!artifactId.isEmpty()){
+	        Query artifactIdQ = indexer.constructQuery( MAVEN.ARTIFACT_ID, new SourcedSearchExpression( artifactId ) );
 	        query.add( artifactIdQ, Occur.MUST );
-	        System.out.println("with artifactId: " + aether.getArtifactId());
+	        System.out.println("with artifactId: " + artifactId);
 		}
 
 		final BooleanQuery typeQuery = new BooleanQuery();
@@ -177,74 +337,136 @@ public class MavenSearcher {
         return response.getResults();
 	}
 	
-	public Set<ArtifactInfo> loadDependenciesFromFileSystem(){
+	/**
+	 * Streams the artifacts found in the local repository, walking it in parallel
+	 * in the background while the caller consumes them.
+	 */
+	public Iterator<ArtifactInfo> loadDependenciesFromFileSystem(){
 		System.out.println("Searching " + aether.getLocalRepository().getBasedir() + " for artifacts");
-		Set<ArtifactInfo> results = null;
-		loadDependenciesFromFileSystem(aether.getLocalRepository().getBasedir(),results);
-		return results;
-	}
-	
-    public void loadDependenciesFromFileSystem(File file,Set<ArtifactInfo> results){
-    	File basedir = aether.getLocalRepository().getBasedir();
-    	
-    	if(file.isFile()){
-    		ArtifactInfo ai = Helper.buildArtifactInfo(basedir,file);
-        	if(ai != null){
-        		 results.add(ai);
-        	}
-        }else if (file.isDirectory()) {
-          File[] listOfFiles = file.listFiles();
-          if(listOfFiles!=null) {
-            for(int i = 0; i < listOfFiles.length; i++){
-            	loadDependenciesFromFileSystem(listOfFiles[i],results);
-            }
-          }
-        }
-    }
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+		return new RepositoryScanner(aether.getLocalRepository().getBasedir(), threads, 1000).start();
+	}
+	
+	/**
+	 * Writes the artifacts found by an index query, with the size and SHA-1
+	 * the index has for them, to a sorted GAV snapshot.
+	 */
+	public File snapshotIndex(Iterator<ArtifactInfo> results) throws IOException {
+		File snapshot = new File(aether.getLocalRepository().getBasedir(), ".remote-index/remote" + aether.getShard().suffix() + ".gavs");
+		return writeSnapshot(aether.getShard().filter(results), snapshot);
+	}
+	
+	/**
+	 * Writes the artifact files in the local repository, with their size and
+	 * the SHA-1 recorded beside them, to a sorted GAV snapshot.
+	 */
+	public File snapshotFileSystem() throws IOException {
+		File basedir = aether.getLocalRepository().getBasedir();
+		System.out.println("Searching " + basedir + " for artifact files");
+		int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+		Iterator<ArtifactInfo> files = new RepositoryScanner(basedir, threads, 1000).setArtifactFiles(true).start();
+		File snapshot = new File(basedir, ".remote-index/local" + aether.getShard().suffix() + ".gavs");
+		return writeSnapshot(aether.getShard().filter(files), snapshot);
+	}
+	
+	private File writeSnapshot(Iterator<ArtifactInfo> artifacts, File snapshot) throws IOException {
+		long start = System.currentTimeMillis();
+		SnapshotSorter sorter = new SnapshotSorter(snapshot, SnapshotSorter.DEFAULT_RUN_SIZE);
+		while(artifacts.hasNext()){
+			ArtifactInfo ai = artifacts.next();
+			SnapshotEntry entry = ai != null ? SnapshotEntry.of(ai) : null;
+			if(entry != null){
+				sorter.add(entry);
+			}
+		}
+		long count = sorter.finish();
+		System.out.println("Wrote " + count + " artifacts to " + snapshot.getPath() + " (" + snapshot.length() / 1024 + "KB) in "
+			+ (System.currentTimeMillis() - start) + "ms");
+		return snapshot;
+	}
 	
 	public void report(IteratorResultSet results) throws IOException {
-		int artifactsLocally = 0;
-		int artifactsRemote = 0;
+		report(results, 16, false);
+	}
+	
+	/**
+	 * Prints how much of the index query is already local, checking the
+	 * filesystem on this many threads, optionally listing each version
+	 * directory once instead of checking every file.
+	 */
+	public void report(IteratorResultSet results, int threads, boolean listingCache) throws IOException {
 		File basedir = aether.getLocalRepository().getBasedir();
+		Shard shard = aether.getShard();
+		PresenceReport report = new PresenceReport(basedir, threads, listingCache);
+		long start = System.currentTimeMillis();
+		try {
+			report.run(shard.filter(results));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("report interrupted, counts are incomplete");
+		}
+		if(!shard.isAll()){
+			System.out.println("Shard: " + shard);
+		}
+		System.out.print(report.summary(20));
+		System.out.println("Checked in " + (System.currentTimeMillis() - start) + "ms");
+	}
 
-        for ( ArtifactInfo ai : results )
-        {
-        	if(ai != null){
-				artifactsRemote++;
-        		File localFile = new File(basedir,Helper.calculatePath(ai));
-				if(localFile.exists()){
-					artifactsLocally++;
-				}
-        	}
-        }
-		System.out.println("Remote: " + artifactsRemote);
-		System.out.println("Local: " + artifactsLocally);
+	/**
+	 * Where createBatchFiles writes the batches, .batches with the shard's
+	 * suffix so shards sharing the local repository keep their batches apart.
+	 */
+	public File getBatchDir(){
+		return new File(aether.getLocalRepository().getBasedir(), ".batches" + aether.getShard().suffix());
 	}
 
 	public void createBatchFiles(IteratorResultSet results, int amount) throws IOException {
 		System.out.println("Creating " + amount + " batch files from indexed content");
 
-		File baseDir = aether.getLocalRepository().getBasedir();
-		File batchDir = new File(baseDir,".batches");
+		File batchDir = getBatchDir();
+		batchDir.mkdirs();
 		System.out.println("Writing " + amount + " GAVs in each batch file");
 		int added = 0;
 		int batched = 1;
-		FileWriter writer = new FileWriter(new File(batchDir,"batch_"+batched+".txt"));
+		Shard shard = aether.getShard();
+		// each batch is written under a temporary name and renamed when complete,
+		// so batch workers never claim a half written file
+		File part = new File(batchDir,"batch_"+batched+".txt.tmp");
+		FileWriter writer = new FileWriter(part);
 		
 		for(ArtifactInfo ai: results){
+			if(ai == null || !shard.contains(ai)){
+				continue;
+			}
 			String gav = Helper.calculateGav(ai);
 			if(gav != null){
 				writer.append(gav + "\n");
 				if(++added >= amount){
 					writer.flush();
 				    writer.close();
-				    writer = new FileWriter(new File(batchDir,"batch_"+(++batched)+".txt"));
+				    moveBatch(part, new File(batchDir,"batch_"+batched+".txt"));
+				    part = new File(batchDir,"batch_"+(++batched)+".txt.tmp");
+				    writer = new FileWriter(part);
 					added = 0;
 				}
 			}
 		}
 		writer.flush();
 	    writer.close();
+	    if(added > 0){
+	    	moveBatch(part, new File(batchDir,"batch_"+batched+".txt"));
+	    }else{
+	    	part.delete();
+	    	batched--;
+	    }
+	    // batches left over from an earlier, larger run would be drained again
+	    BatchQueue.removeAfter(batchDir, batched);
 		System.out.println("Created " + batched + " batch files in " + batchDir.getPath());
 	}
+	
+	// a rewritten batch starts over, without the done marker, lease or journal of the old one
+	private static void moveBatch(File part, File batch) throws IOException {
+		BatchQueue.reset(batch);
+		Files.move(part.toPath(), batch.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
 }
@@ -0,0 +1,258 @@
+package app.maven;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hands out mirrors weighted by how well they have been performing.
+ *
+ * Every completed request feeds back its latency and throughput, and every
+ * failure its error, into per-mirror moving averages. Mirrors are picked at
+ * random in inverse proportion to the time a typical request would take on
+ * them, its latency plus the average transfer at their throughput, scaled down
+ * by their error rate, so the fastest healthy mirrors get most of the work while
+ * slower ones still receive enough to keep their figures current. A mirror that fails
+ * repeatedly is backed off for an exponentially growing period, after which it
+ * is probed again with a single request.
+ */
+public class MirrorScheduler {
+
+	private static final double ALPHA = 0.2; //weight of the newest sample in the moving averages
+	private static final int BACKOFF_AFTER = 3; //consecutive failures before a mirror is backed off
+	private static final long MIN_BACKOFF = 5 * 1000;
+	private static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+	private final Map<String, Stats> mirrors = new LinkedHashMap<String, Stats>();
+	private final Random random = new Random();
+	private final long minBackoff;
+	private double bytes = -1; //average size of a transfer, across mirrors
+
+	private static class Stats {
+		final String url;
+		double latency = -1; //ms to first byte
+		double throughput = -1; //bytes per ms after the first byte
+		double errorRate = 0;
+		long requests = 0;
+		long errors = 0;
+		int consecutiveFailures = 0;
+		long backoffUntil = 0;
+		boolean probing = false;
+
+		Stats(String url){
+			this.url = url;
+		}
+	}
+
+	public MirrorScheduler(Collection<String> urls){
+		this(urls, MIN_BACKOFF);
+	}
+
+	/**
+	 * Scheduler whose first back-off lasts minBackoff ms.
+	 */
+	public MirrorScheduler(Collection<String> urls, long minBackoff){
+		this.minBackoff = minBackoff;
+		for(String url: urls){
+			mirrors.put(url, new Stats(url));
+		}
+		if(mirrors.isEmpty()){
+			throw new IllegalArgumentException("at least one mirror is required");
+		}
+	}
+
+	public synchronized int size(){
+		return mirrors.size();
+	}
+
+	/**
+	 * Picks the next mirror to use.
+	 */
+	public String next(){
+		return next(Collections.<String>emptySet());
+	}
+
+	/**
+	 * Picks the next mirror that is not in the excluded set, or null if every
+	 * mirror has been excluded.
+	 */
+	public synchronized String next(Collection<String> excluded){
+		long now = System.currentTimeMillis();
+		List<Stats> candidates = new ArrayList<Stats>();
+		Stats soonest = null;
+		for(Stats stats: mirrors.values()){
+			if(excluded.contains(stats.url)){
+				continue;
+			}
+			if(stats.backoffUntil > now || stats.probing){
+				if(soonest == null || stats.backoffUntil < soonest.backoffUntil){
+					soonest = stats;
+				}
+				continue;
+			}
+			if(stats.backoffUntil > 0){
+				// back-off has expired, send one probe before trusting it again
+				stats.probing = true;
+				return stats.url;
+			}
+			candidates.add(stats);
+		}
+		if(candidates.isEmpty()){
+			// nothing healthy left, use whichever mirror recovers first
+			return soonest != null ? soonest.url : null;
+		}
+
+		double defaultLatency = averageLatency(candidates);
+		double defaultThroughput = averageThroughput(candidates);
+		double defaultWeight = weight(defaultLatency, defaultThroughput);
+		double[] weights = new double[candidates.size()];
+		double total = 0;
+		for(int i=0;i<candidates.size();i++){
+			Stats stats = candidates.get(i);
+			double weight = weight(stats.latency >= 0 ? stats.latency : defaultLatency,
+				stats.throughput > 0 ? stats.throughput : defaultThroughput);
+			weight = weight * (1 - stats.errorRate) + defaultWeight * 0.01;
+			weights[i] = weight;
+			total += weight;
+		}
+		double pick = random.nextDouble() * total;
+		for(int i=0;i<weights.length;i++){
+			pick -= weights[i];
+			if(pick <= 0){
+				return candidates.get(i).url;
+			}
+		}
+		return candidates.get(candidates.size() - 1).url;
+	}
+
+	/**
+	 * Records a successful transfer of the given size.
+	 */
+	public synchronized void success(String url, long latencyMillis, long bytes, long elapsedMillis){
+		Stats stats = mirrors.get(url);
+		if(stats == null){
+			return;
+		}
+		stats.requests++;
+		stats.latency = average(stats.latency, latencyMillis);
+		if(bytes > 0){
+			stats.throughput = average(stats.throughput, (double) bytes / Math.max(1, elapsedMillis - latencyMillis));
+			this.bytes = average(this.bytes, bytes);
+		}
+		stats.errorRate = average(stats.errorRate, 0);
+		stats.consecutiveFailures = 0;
+		stats.backoffUntil = 0;
+		stats.probing = false;
+	}
+
+	/**
+	 * Records that the mirror does not have an artifact. This is not held
+	 * against the mirror's health since mirrors commonly lag behind.
+	 */
+	public synchronized void notFound(String url){
+		Stats stats = mirrors.get(url);
+		if(stats == null){
+			return;
+		}
+		stats.requests++;
+		stats.probing = false;
+	}
+
+	/**
+	 * Records that the mirror was handed out but never contacted, for instance
+	 * because the local file was already valid, so a probe it was picked for
+	 * does not keep it out of rotation.
+	 */
+	public synchronized void unused(String url){
+		Stats stats = mirrors.get(url);
+		if(stats == null){
+			return;
+		}
+		stats.probing = false;
+	}
+
+	/**
+	 * Records a failed request, backing the mirror off once it keeps failing.
+	 */
+	public synchronized void failure(String url){
+		Stats stats = mirrors.get(url);
+		if(stats == null){
+			return;
+		}
+		stats.requests++;
+		stats.errors++;
+		stats.errorRate = average(stats.errorRate, 1);
+		stats.consecutiveFailures++;
+		stats.probing = false;
+		if(stats.consecutiveFailures >= BACKOFF_AFTER){
+			int exponent = Math.min(stats.consecutiveFailures - BACKOFF_AFTER, 16);
+			long backoff = Math.min(MAX_BACKOFF, minBackoff << exponent);
+			stats.backoffUntil = System.currentTimeMillis() + backoff;
+			System.out.println("backing off mirror " + url + " for " + (backoff / 1000) + "s after "
+				+ stats.consecutiveFailures + " consecutive failures");
+		}
+	}
+
+	public synchronized boolean isBackedOff(String url){
+		Stats stats = mirrors.get(url);
+		return stats != null && stats.backoffUntil > System.currentTimeMillis();
+	}
+
+	/**
+	 * One line per mirror with its current figures.
+	 */
+	public synchronized String summary(){
+		StringBuilder out = new StringBuilder();
+		for(Stats stats: mirrors.values()){
+			out.append(stats.url)
+				.append(": requests=").append(stats.requests)
+				.append(" errors=").append(stats.errors)
+				.append(" latency=").append(Math.round(Math.max(0, stats.latency))).append("ms")
+				.append(" throughput=").append(Math.round(Math.max(0, stats.throughput))).append("KB/s")
+				.append('\n');
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Requests per ms a mirror would serve at the average transfer size.
+	 */
+	private double weight(double latency, double throughput){
+		return 1 / (1 + latency + Math.max(0, bytes) / throughput);
+	}
+
+	private static double averageLatency(List<Stats> candidates){
+		double sum = 0;
+		int measured = 0;
+		for(Stats stats: candidates){
+			if(stats.latency >= 0){
+				sum += stats.latency;
+				measured++;
+			}
+		}
+		return measured > 0 ? sum / measured : 0;
+	}
+
+	private static double averageThroughput(List<Stats> candidates){
+		double sum = 0;
+		int measured = 0;
+		for(Stats stats: candidates){
+			if(stats.throughput > 0){
+				sum += stats.throughput;
+				measured++;
+			}
+		}
+		return measured > 0 ? sum / measured : 1;
+	}
+
+	private static double average(double current, double sample){
+		if(current < 0){
+			return sample;
+		}
+		return current + ALPHA * (sample - current);
+	}
+}
@@ -0,0 +1,262 @@
+package app.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.utils.Helper;
+
+/**
+ * Counts which artifacts of an index query are already in the local
+ * repository, with totals by groupId and packaging and the bytes still to
+ * transfer according to the index.
+ *
+ * The index is read on the calling thread while the filesystem checks run on
+ * a pool in batches, so on a slow or remote filesystem many checks are in
+ * flight at once instead of one stat at a time. Only a bounded number of
+ * batches waits for the pool. With the listing cache each version directory
+ * is listed once and its artifacts looked up in the listing, which turns the
+ * jar, pom, sources and javadoc of a version, or every artifact of a missing
+ * directory, into a single filesystem call.
+ */
+public class PresenceReport {
+
+	private static final int BATCH = 256;
+	private static final int CACHED_DIRECTORIES = 16 * 1024;
+
+	private final File basedir;
+	private final int threads;
+	private final Map<String, Set<String>> listings;
+	private final Totals total = new Totals();
+	private final Map<String, Totals> groups = new HashMap<String, Totals>();
+	private final Map<String, Totals> packagings = new HashMap<String, Totals>();
+
+	public PresenceReport(File basedir, int threads, boolean listingCache){
+		this.basedir = basedir;
+		this.threads = threads;
+		if(listingCache){
+			this.listings = Collections.synchronizedMap(new LinkedHashMap<String, Set<String>>(1024, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+					return size() > CACHED_DIRECTORIES;
+				}
+			});
+		}else{
+			this.listings = null;
+		}
+	}
+
+	/**
+	 * Checks every artifact, returning once all of them have been counted.
+	 */
+	public void run(Iterator<ArtifactInfo> artifacts) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final Semaphore inFlight = new Semaphore(threads * 2);
+		try{
+			while(artifacts.hasNext()){
+				final List<ArtifactInfo> batch = new ArrayList<ArtifactInfo>(BATCH);
+				while(batch.size() < BATCH && artifacts.hasNext()){
+					ArtifactInfo ai = artifacts.next();
+					if(ai != null){
+						batch.add(ai);
+					}
+				}
+				if(batch.isEmpty()){
+					continue;
+				}
+				inFlight.acquire();
+				executor.execute(new Runnable() {
+					public void run() {
+						try{
+							check(batch);
+						}finally{
+							inFlight.release();
+						}
+					}
+				});
+			}
+		}finally{
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void check(List<ArtifactInfo> batch){
+		Totals sum = new Totals();
+		Map<String, Totals> byGroup = new HashMap<String, Totals>();
+		Map<String, Totals> byPackaging = new HashMap<String, Totals>();
+		for(ArtifactInfo ai: batch){
+			String path = Helper.calculatePath(ai);
+			boolean local = exists(path);
+			sum.add(ai, local);
+			totals(byGroup, ai.groupId).add(ai, local);
+			totals(byPackaging, ai.packaging != null ? ai.packaging : ai.fextension).add(ai, local);
+		}
+		synchronized(total){
+			total.add(sum);
+			merge(groups, byGroup);
+			merge(packagings, byPackaging);
+		}
+	}
+
+	private boolean exists(String path){
+		if(listings == null){
+			return new File(basedir, path).exists();
+		}
+		int slash = path.lastIndexOf('/');
+		String dir = slash > 0 ? path.substring(0, slash) : "";
+		Set<String> names = listings.get(dir);
+		if(names == null){
+			String[] listed = new File(basedir, dir).list();
+			names = listed != null ? new HashSet<String>(Arrays.asList(listed)) : Collections.<String>emptySet();
+			listings.put(dir, names);
+		}
+		return names.contains(path.substring(slash + 1));
+	}
+
+	private static Totals totals(Map<String, Totals> map, String key){
+		if(key == null){
+			key = "unknown";
+		}
+		Totals totals = map.get(key);
+		if(totals == null){
+			totals = new Totals();
+			map.put(key, totals);
+		}
+		return totals;
+	}
+
+	private static void merge(Map<String, Totals> into, Map<String, Totals> from){
+		for(Map.Entry<String, Totals> entry: from.entrySet()){
+			totals(into, entry.getKey()).add(entry.getValue());
+		}
+	}
+
+	public Totals getTotal(){
+		return total;
+	}
+
+	/**
+	 * The report: overall counts and sizes, every packaging, and the groupIds
+	 * with the most to download.
+	 */
+	public String summary(int topGroups){
+		StringBuilder out = new StringBuilder();
+		synchronized(total){
+			out.append("Remote: ").append(total.artifacts).append('\n');
+			out.append("Local: ").append(total.local).append('\n');
+			out.append("Missing: ").append(total.artifacts - total.local).append(", ")
+				.append(bytes(total.missingBytes)).append(" to download");
+			if(total.unknownSize > 0){
+				out.append(" (").append(total.unknownSize).append(" missing artifacts have no size in the index)");
+			}
+			out.append('\n');
+			out.append("Index size: ").append(bytes(total.bytes)).append('\n');
+			out.append("By packaging:\n");
+			for(Map.Entry<String, Totals> entry: new TreeMap<String, Totals>(packagings).entrySet()){
+				out.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+			}
+			List<Map.Entry<String, Totals>> byMissing = new ArrayList<Map.Entry<String, Totals>>(groups.entrySet());
+			Collections.sort(byMissing, new Comparator<Map.Entry<String, Totals>>() {
+				public int compare(Map.Entry<String, Totals> a, Map.Entry<String, Totals> b) {
+					long x = a.getValue().missingBytes;
+					long y = b.getValue().missingBytes;
+					return x != y ? (x > y ? -1 : 1) : a.getKey().compareTo(b.getKey());
+				}
+			});
+			out.append("Top ").append(Math.min(topGroups, byMissing.size())).append(" of ").append(byMissing.size())
+				.append(" groupIds by bytes to download:\n");
+			for(int i=0;i<topGroups && i<byMissing.size();i++){
+				Map.Entry<String, Totals> entry = byMissing.get(i);
+				out.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+			}
+		}
+		return out.toString();
+	}
+
+	static String bytes(long bytes){
+		if(bytes < 1024){
+			return bytes + "B";
+		}
+		String[] units = {"KB", "MB", "GB", "TB", "PB"};
+		double value = bytes;
+		int unit = -1;
+		while(value >= 1024 && unit < units.length - 1){
+			value /= 1024;
+			unit++;
+		}
+		return String.format("%.1f%s", value, units[unit]);
+	}
+
+	/**
+	 * Counts and sizes of a set of artifacts.
+	 */
+	public static class Totals {
+		long artifacts;
+		long local;
+		long bytes;
+		long missingBytes;
+		long unknownSize;
+
+		void add(ArtifactInfo ai, boolean present){
+			artifacts++;
+			long size = ai.size;
+			if(size > 0){
+				bytes += size;
+			}
+			if(present){
+				local++;
+			}else if(size >= 0){
+				missingBytes += size;
+			}else{
+				unknownSize++;
+			}
+		}
+
+		void add(Totals other){
+			artifacts += other.artifacts;
+			local += other.local;
+			bytes += other.bytes;
+			missingBytes += other.missingBytes;
+			unknownSize += other.unknownSize;
+		}
+
+		public long getArtifacts(){
+			return artifacts;
+		}
+
+		public long getLocal(){
+			return local;
+		}
+
+		public long getBytes(){
+			return bytes;
+		}
+
+		public long getMissingBytes(){
+			return missingBytes;
+		}
+
+		public String toString(){
+			return artifacts + " artifacts (" + bytes(bytes) + "), " + local + " local, "
+				+ (artifacts - local) + " missing (" + bytes(missingBytes) + ")";
+		}
+	}
+}
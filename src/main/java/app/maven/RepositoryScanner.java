@@ -0,0 +1,253 @@
+package app.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.eclipse.aether.util.ChecksumUtils;
+
+import app.maven.utils.Helper;
+
+/**
+ * Walks a local repository in parallel, streaming the artifacts it finds.
+ *
+ * Each directory is listed by its own fork/join task, so subtrees are walked
+ * concurrently. Every version directory, one holding files named
+ * artifactId-version*, produces one ArtifactInfo which is put on a bounded
+ * queue as soon as it is found. The consumer iterates the queue while the walk
+ * is still running, and the walk blocks whenever the consumer falls behind. Hidden directories such as
+ * .remote-index and .sync-journal are not walked.
+ *
+ * With setArtifactFiles, every artifact file of a version directory produces
+ * its own ArtifactInfo instead, with its classifier, extension and size, and
+ * the SHA-1 from the .sha1 beside it when there is one.
+ */
+public class RepositoryScanner implements Iterator<ArtifactInfo> {
+
+	// Marks the end of the walk
+	private static final ArtifactInfo END = new ArtifactInfo();
+
+	private final File basedir;
+	private final BlockingQueue<ArtifactInfo> queue;
+	private final ForkJoinPool pool;
+	private boolean artifactFiles = false;
+	private ArtifactInfo next;
+	private boolean finished = false;
+	private long found = 0;
+
+	public RepositoryScanner(File basedir, int threads, int capacity){
+		this.basedir = basedir;
+		this.queue = new ArrayBlockingQueue<ArtifactInfo>(capacity);
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Yield each artifact file rather than one artifact per version directory.
+	 */
+	public RepositoryScanner setArtifactFiles(boolean artifactFiles){
+		this.artifactFiles = artifactFiles;
+		return this;
+	}
+
+	/**
+	 * Starts walking in the background, returning immediately.
+	 */
+	public RepositoryScanner start(){
+		final Thread walker = new Thread(new Runnable(){
+			public void run() {
+				try{
+					pool.invoke(new DirectoryTask(basedir.toPath()));
+				}catch(RuntimeException e){
+					System.out.println("error scanning " + basedir + ": " + e.getMessage());
+				}finally{
+					try {
+						queue.put(END);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "repository-scanner");
+		walker.setDaemon(true);
+		walker.start();
+		return this;
+	}
+
+	public long getFound(){
+		return found;
+	}
+
+	/**
+	 * Stops the walk, for consumers that do not read to the end.
+	 */
+	public void close(){
+		pool.shutdownNow();
+		finished = true;
+	}
+
+	public boolean hasNext() {
+		if(next != null){
+			return true;
+		}
+		if(finished){
+			return false;
+		}
+		try {
+			ArtifactInfo ai = queue.take();
+			if(ai == END){
+				finished = true;
+				pool.shutdown();
+				System.out.println("Found " + found + " artifacts in " + basedir);
+				return false;
+			}
+			next = ai;
+			found++;
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			return false;
+		}
+	}
+
+	public ArtifactInfo next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		ArtifactInfo ai = next;
+		next = null;
+		return ai;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Path dir;
+
+		DirectoryTask(Path dir){
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirectoryTask> subdirs = new ArrayList<DirectoryTask>();
+			Path parent = dir.getParent();
+			String prefix = parent != null ? parent.getFileName() + "-" + dir.getFileName() : null;
+			Path artifactFile = null;
+			List<String> names = artifactFiles && prefix != null ? new ArrayList<String>() : null;
+			try {
+				DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+				try{
+					for(Path entry: entries){
+						if(Files.isDirectory(entry)){
+							if(!entry.getFileName().toString().startsWith(".")){
+								subdirs.add(new DirectoryTask(entry));
+							}
+						}else if(names != null){
+							names.add(entry.getFileName().toString());
+						}else if(artifactFile == null && prefix != null && entry.getFileName().toString().startsWith(prefix)){
+							artifactFile = entry;
+						}
+					}
+				}finally{
+					entries.close();
+				}
+			} catch (IOException e) {
+				System.out.println("could not list " + dir + ": " + e.getMessage());
+				return;
+			}
+
+			if(names != null){
+				for(ArtifactInfo ai: artifacts(dir, prefix, names)){
+					try {
+						queue.put(ai);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}else if(artifactFile != null){
+				ArtifactInfo ai = Helper.buildArtifactInfo(basedir, artifactFile.toFile());
+				if(ai != null){
+					try {
+						queue.put(ai);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+			invokeAll(subdirs);
+		}
+	}
+
+	private List<ArtifactInfo> artifacts(Path dir, String prefix, List<String> names){
+		List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+		Set<String> present = new HashSet<String>(names);
+		// the pom is only an artifact of its own when the version has no main file
+		boolean hasMain = false;
+		for(String name: names){
+			if(name.startsWith(prefix + ".") && !name.equals(prefix + ".pom") && !isMetadata(name)){
+				hasMain = true;
+			}
+		}
+		for(String name: names){
+			if(!name.startsWith(prefix) || isMetadata(name) || (hasMain && name.equals(prefix + ".pom"))){
+				continue;
+			}
+			String rest = name.substring(prefix.length());
+			// classifiers may contain dots, so the extension is the last part but for .tar.*
+			int dot = rest.lastIndexOf('.');
+			if(rest.endsWith(".tar.gz") || rest.endsWith(".tar.bz2")){
+				dot = rest.lastIndexOf('.', dot - 1);
+			}
+			if(dot < 0 || dot == rest.length() - 1){
+				continue;
+			}
+			String extension = rest.substring(dot + 1);
+			String classifier = null;
+			if(dot > 0){
+				if(rest.charAt(0) != '-' || dot == 1){
+					continue;
+				}
+				classifier = rest.substring(1, dot);
+			}
+			File file = dir.resolve(name).toFile();
+			ArtifactInfo ai = Helper.buildArtifactInfo(basedir, file);
+			if(ai == null){
+				continue;
+			}
+			ai.classifier = classifier;
+			ai.fextension = extension;
+			ai.size = file.length();
+			if(present.contains(name + ".sha1")){
+				try {
+					ai.sha1 = ChecksumUtils.read(new File(file.getPath() + ".sha1"));
+				} catch (IOException e) {}
+			}
+			artifacts.add(ai);
+		}
+		return artifacts;
+	}
+
+	private static boolean isMetadata(String name){
+		return name.endsWith(".sha1") || name.endsWith(".md5") || name.endsWith(".sha256") || name.endsWith(".sha512")
+			|| name.endsWith(".asc") || name.endsWith(".part") || name.endsWith(".lastUpdated");
+	}
+}
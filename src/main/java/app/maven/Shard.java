@@ -0,0 +1,149 @@
+package app.maven;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.maven.index.ArtifactInfo;
+
+/**
+ * One of N disjoint slices of the artifacts to sync, for running a sync on
+ * several machines at once.
+ *
+ * Artifacts are assigned by a hash of groupId:artifactId, so every version of
+ * an artifact, and the directory holding them, belongs to a single shard. The
+ * hash is FNV-1a over the UTF-16 chars with a murmur3 finish; it is part of
+ * the contract between nodes and must not change, or nodes running different
+ * builds would disagree about who owns what.
+ */
+public class Shard {
+
+	public static final Shard ALL = new Shard(1, 1);
+
+	private final int index;
+	private final int count;
+
+	/**
+	 * Shard index (from 1) of count.
+	 */
+	public Shard(int index, int count){
+		if(count < 1 || index < 1 || index > count){
+			throw new IllegalArgumentException("shard must be i/N with 1 <= i <= N: " + index + "/" + count);
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parses "i/N", for example "2/8" for the second of eight shards.
+	 */
+	public static Shard parse(String text){
+		int slash = text.indexOf('/');
+		if(slash < 0){
+			throw new IllegalArgumentException("shard must be i/N: " + text);
+		}
+		try {
+			return new Shard(Integer.parseInt(text.substring(0, slash).trim()), Integer.parseInt(text.substring(slash + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("shard must be i/N: " + text);
+		}
+	}
+
+	public int getIndex(){
+		return index;
+	}
+
+	public int getCount(){
+		return count;
+	}
+
+	public boolean isAll(){
+		return count == 1;
+	}
+
+	public boolean contains(ArtifactInfo ai){
+		return contains(ai.groupId, ai.artifactId);
+	}
+
+	public boolean contains(String groupId, String artifactId){
+		return count == 1 || of(groupId, artifactId, count) == index;
+	}
+
+	/**
+	 * The shard (from 1) of count that owns groupId:artifactId.
+	 */
+	public static int of(String groupId, String artifactId, int count){
+		long hash = 0xcbf29ce484222325L;
+		hash = fnv(hash, groupId);
+		hash ^= ':';
+		hash *= 0x100000001b3L;
+		hash = fnv(hash, artifactId);
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) ((hash >>> 1) % count) + 1;
+	}
+
+	private static long fnv(long hash, String text){
+		if(text == null){
+			return hash;
+		}
+		for(int i=0;i<text.length();i++){
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Streams only the artifacts in this shard, passing nulls through as the
+	 * index results do.
+	 */
+	public Iterator<ArtifactInfo> filter(final Iterator<ArtifactInfo> source){
+		if(count == 1){
+			return source;
+		}
+		return new Iterator<ArtifactInfo>() {
+			private ArtifactInfo next;
+			private boolean ready = false;
+
+			public boolean hasNext() {
+				while(!ready && source.hasNext()){
+					ArtifactInfo ai = source.next();
+					if(ai == null || contains(ai)){
+						next = ai;
+						ready = true;
+					}
+				}
+				return ready;
+			}
+
+			public ArtifactInfo next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				ready = false;
+				ArtifactInfo ai = next;
+				next = null;
+				return ai;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Suffix keeping this shard's journal and caches apart from other shards
+	 * sharing the local repository, empty when not sharded.
+	 */
+	public String suffix(){
+		return count == 1 ? "" : "-" + index + "-of-" + count;
+	}
+
+	public String toString(){
+		return index + "/" + count;
+	}
+}
@@ -0,0 +1,469 @@
+package app.maven.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import app.maven.journal.StoppableSource;
+
+/**
+ * The batch_N.txt files in a shared directory, drained by any number of
+ * workers on any number of hosts without a coordinator.
+ *
+ * A worker owns a batch while batch_N.txt.lease exists holding its id. Leases
+ * are created with CREATE_NEW, so only one worker gets a free batch, and are
+ * kept alive by touching the file. A lease that has not been touched for the
+ * lease time belongs to a dead worker: it is renamed to a name unique to the
+ * reclaiming worker, which takes the batch over only if the file it ended up
+ * with is still the stale lease, and puts it back otherwise. A worker that
+ * finds its lease gone or rewritten when renewing stops working on the batch.
+ * Finished batches get a batch_N.txt.done marker. A batch with failed
+ * artifacts is not done: each failed attempt adds a line to batch_N.txt.failed
+ * and the batch goes back to the queue, until it has failed MAX_ATTEMPTS
+ * times and is given up. Rewriting the batches resets their markers and
+ * removes any numbered above the new last one.
+ *
+ * Expiry compares lease modification times with the local clock, so hosts
+ * sharing a directory need clocks that agree to well within the lease time.
+ */
+public class BatchQueue {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String PREFIX = "batch_";
+	private static final String SUFFIX = ".txt";
+	static final String LEASE = ".lease";
+	static final String DONE = ".done";
+	static final String JOURNAL = ".journal";
+	static final String FAILED = ".failed";
+	public static final int MAX_ATTEMPTS = 3;
+
+	private final File dir;
+	private final String owner;
+	private final long leaseMillis;
+	private final Random random = new Random();
+	private ScheduledExecutorService renewals;
+
+	public BatchQueue(File dir, String owner, long leaseMillis){
+		this.dir = dir;
+		this.owner = owner;
+		this.leaseMillis = leaseMillis;
+	}
+
+	/**
+	 * An id for this process that no other worker will share: pid@host plus a
+	 * random part in case pids are reused.
+	 */
+	public static String defaultOwner(){
+		return ManagementFactory.getRuntimeMXBean().getName() + "-" + Integer.toHexString(new Random().nextInt());
+	}
+
+	public String getOwner(){
+		return owner;
+	}
+
+	public long getLeaseMillis(){
+		return leaseMillis;
+	}
+
+	/**
+	 * The batch files in the directory, in batch number order.
+	 */
+	public List<File> batches(){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return Collections.emptyList();
+		}
+		List<File> batches = new ArrayList<File>();
+		for(File file: files){
+			String name = file.getName();
+			if(name.startsWith(PREFIX) && name.endsWith(SUFFIX) && file.isFile()){
+				batches.add(file);
+			}
+		}
+		Collections.sort(batches, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long x = number(a.getName());
+				long y = number(b.getName());
+				return x != y ? (x < y ? -1 : 1) : a.getName().compareTo(b.getName());
+			}
+		});
+		return batches;
+	}
+
+	private static long number(String name){
+		try {
+			return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Drops the done, lease and journal markers of a batch that is about to be
+	 * rewritten, so workers take it as a new batch.
+	 */
+	public static void reset(File batch){
+		for(String marker: new String[]{ DONE, LEASE, JOURNAL, FAILED }){
+			FileUtils.deleteQuietly(marker(batch, marker));
+		}
+	}
+
+	/**
+	 * Deletes the batches numbered above last, with their markers, left over
+	 * from an earlier run that made more of them.
+	 */
+	public static void removeAfter(File dir, long last){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return;
+		}
+		for(File file: files){
+			String name = file.getName();
+			int end = name.indexOf(SUFFIX);
+			if(!name.startsWith(PREFIX) || end < 0){
+				continue;
+			}
+			long number = number(name.substring(0, end + SUFFIX.length()));
+			if(number > last && number != Long.MAX_VALUE){
+				FileUtils.deleteQuietly(file);
+			}
+		}
+	}
+
+	public boolean isDone(File batch){
+		return marker(batch, DONE).exists();
+	}
+
+	/**
+	 * How many attempts at the batch ended with failed artifacts.
+	 */
+	public int attempts(File batch){
+		File failed = marker(batch, FAILED);
+		if(!failed.exists()){
+			return 0;
+		}
+		try {
+			return Files.readAllLines(failed.toPath(), UTF8).size();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	public boolean isGivenUp(File batch){
+		return attempts(batch) >= MAX_ATTEMPTS;
+	}
+
+	/**
+	 * Batches neither done nor given up, whether leased or not.
+	 */
+	public int remaining(){
+		int remaining = 0;
+		for(File batch: batches()){
+			if(!isDone(batch) && !isGivenUp(batch)){
+				remaining++;
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * Batches given up after failing MAX_ATTEMPTS times.
+	 */
+	public int givenUp(){
+		int givenUp = 0;
+		for(File batch: batches()){
+			if(!isDone(batch) && isGivenUp(batch)){
+				givenUp++;
+			}
+		}
+		return givenUp;
+	}
+
+	/**
+	 * Leases a batch that is not done, given up or held by a live worker, or returns
+	 * null if there is none right now. The search starts at a random batch so
+	 * workers started together do not all race for the first one.
+	 */
+	public Lease claim(){
+		List<File> batches = batches();
+		int count = batches.size();
+		if(count == 0){
+			return null;
+		}
+		int start = random.nextInt(count);
+		for(int i=0;i<count;i++){
+			File batch = batches.get((start + i) % count);
+			if(isDone(batch) || isGivenUp(batch)){
+				continue;
+			}
+			Lease lease = tryClaim(batch);
+			if(lease != null){
+				schedule(lease);
+				return lease;
+			}
+		}
+		return null;
+	}
+
+	private Lease tryClaim(File batch){
+		File lease = marker(batch, LEASE);
+		if(create(lease)){
+			if(isDone(batch)){
+				// finished by another worker since we listed it
+				lease.delete();
+				return null;
+			}
+			return new Lease(batch, lease, null);
+		}
+		if(!expired(lease)){
+			return null;
+		}
+		String stale = read(lease);
+		File grabbed = new File(lease.getPath() + "." + owner.replaceAll("[^A-Za-z0-9._-]", "_"));
+		try {
+			Files.move(lease.toPath(), grabbed.toPath());
+		} catch (IOException e) {
+			// another worker reclaimed or released it first
+			return null;
+		}
+		if(stale == null || !stale.equals(read(grabbed)) || !expired(grabbed)){
+			// the lease was renewed or replaced after we looked, give it back
+			try {
+				Files.move(grabbed.toPath(), lease.toPath());
+			} catch (IOException e) {
+				grabbed.delete();
+			}
+			return null;
+		}
+		grabbed.delete();
+		if(create(lease) && !isDone(batch)){
+			return new Lease(batch, lease, stale);
+		}
+		return null;
+	}
+
+	private boolean create(File lease){
+		try {
+			Files.write(lease.toPath(), owner.getBytes(UTF8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} catch (IOException e) {
+			System.out.println("could not create lease " + lease.getPath() + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private boolean expired(File lease){
+		return System.currentTimeMillis() - lease.lastModified() > leaseMillis;
+	}
+
+	private static String read(File file){
+		try {
+			return new String(Files.readAllBytes(file.toPath()), UTF8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	static File marker(File batch, String suffix){
+		return new File(batch.getPath() + suffix);
+	}
+
+	private synchronized void schedule(final Lease lease){
+		if(renewals == null){
+			renewals = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "batch-lease-renewal");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		long period = Math.max(1, leaseMillis / 3);
+		lease.renewal = renewals.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				lease.renew();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops renewing leases; any still held are left to expire.
+	 */
+	public synchronized void close(){
+		if(renewals != null){
+			renewals.shutdownNow();
+			renewals = null;
+		}
+	}
+
+	private interface Guard<T> extends Iterator<T>, StoppableSource {
+	}
+
+	/**
+	 * A batch held by this worker.
+	 */
+	public class Lease {
+
+		private final File batch;
+		private final File lease;
+		private final String reclaimedFrom;
+		private volatile boolean held = true;
+		private volatile ScheduledFuture<?> renewal;
+
+		Lease(File batch, File lease, String reclaimedFrom){
+			this.batch = batch;
+			this.lease = lease;
+			this.reclaimedFrom = reclaimedFrom;
+		}
+
+		public File getBatch(){
+			return batch;
+		}
+
+		/**
+		 * The owner of the expired lease this one replaced, or null.
+		 */
+		public String getReclaimedFrom(){
+			return reclaimedFrom;
+		}
+
+		/**
+		 * Where progress through this batch is journaled, so a worker that
+		 * reclaims it can carry on where the dead one stopped.
+		 */
+		public File getJournalDir(){
+			return marker(batch, JOURNAL);
+		}
+
+		public boolean isHeld(){
+			return held;
+		}
+
+		/**
+		 * Touches the lease, or notes that it has been lost if another worker
+		 * has taken it over.
+		 */
+		public synchronized boolean renew(){
+			if(!held){
+				return false;
+			}
+			if(!owner.equals(read(lease)) || !lease.setLastModified(System.currentTimeMillis())){
+				held = false;
+				System.out.println("lost lease on " + batch.getName() + ", leaving it to its new owner");
+			}
+			return held;
+		}
+
+		/**
+		 * Iterates the source only while the lease is held. The iterator is a
+		 * StoppableSource, stopped once the lease is lost, so the sync leaves
+		 * the batch journal to the new owner instead of finishing it.
+		 */
+		public <T> Iterator<T> guard(final Iterator<T> source){
+			return new Guard<T>() {
+				public boolean isStopped() {
+					return !held;
+				}
+
+				public boolean hasNext() {
+					return source.hasNext() && held;
+				}
+
+				// the lease can be lost between hasNext and next, hand out what hasNext promised
+				public T next() {
+					return source.next();
+				}
+
+				public void remove() {
+					source.remove();
+				}
+			};
+		}
+
+		/**
+		 * Writes the done marker and drops the lease, if the lease is still
+		 * ours.
+		 */
+		public synchronized boolean complete(String summary){
+			stopRenewal();
+			if(!renew()){
+				return false;
+			}
+			File done = marker(batch, DONE);
+			File tmp = new File(done.getPath() + ".tmp");
+			try {
+				Files.write(tmp.toPath(), (owner + "\t" + summary + "\n").getBytes(UTF8));
+				try {
+					Files.move(tmp.toPath(), done.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp.toPath(), done.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException e) {
+				System.out.println("could not mark " + batch.getName() + " done: " + e.getMessage());
+				release();
+				return false;
+			}
+			lease.delete();
+			held = false;
+			return true;
+		}
+
+		/**
+		 * Records a failed attempt and gives the batch back to be retried,
+		 * if the lease is still ours.
+		 */
+		public synchronized boolean fail(String summary){
+			stopRenewal();
+			if(!renew()){
+				return false;
+			}
+			try {
+				Files.write(marker(batch, FAILED).toPath(), (owner + "\t" + summary + "\n").getBytes(UTF8),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				System.out.println("could not record failure of " + batch.getName() + ": " + e.getMessage());
+			}
+			release();
+			return true;
+		}
+
+		/**
+		 * Gives the batch back for another worker to take.
+		 */
+		public synchronized void release(){
+			stopRenewal();
+			if(held && owner.equals(read(lease))){
+				lease.delete();
+			}
+			held = false;
+		}
+
+		private void stopRenewal(){
+			ScheduledFuture<?> scheduled = renewal;
+			if(scheduled != null){
+				scheduled.cancel(false);
+			}
+		}
+	}
+}
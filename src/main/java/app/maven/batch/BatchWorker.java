@@ -0,0 +1,138 @@
+package app.maven.batch;
+
+import java.io.File;
+import java.io.IOException;
+
+import app.maven.Aether;
+import app.maven.GavFileReader;
+import app.maven.metrics.SyncMetrics;
+
+/**
+ * Claims batch files from a BatchQueue and resolves them until every batch
+ * in the directory is done or given up, waiting on batches leased by other
+ * workers in case their owner dies and the lease has to be reclaimed.
+ *
+ * A batch is only marked done when none of its artifacts failed. Otherwise
+ * the failure is recorded and the batch is retried, after a pause so a
+ * mirror outage does not burn through the attempts.
+ */
+public class BatchWorker {
+
+	private static final long MAX_POLL = 30 * 1000;
+
+	private final Aether aether;
+	private final BatchQueue queue;
+	private final long poll;
+
+	public BatchWorker(Aether aether, BatchQueue queue){
+		this.aether = aether;
+		this.queue = queue;
+		this.poll = Math.min(MAX_POLL, Math.max(1, queue.getLeaseMillis() / 2));
+	}
+
+	/**
+	 * Returns the number of batches this worker completed.
+	 */
+	public int run(){
+		int completed = 0;
+		System.out.println("Batch worker " + queue.getOwner() + " draining " + queue.remaining() + " batches");
+		try{
+			while(!Thread.currentThread().isInterrupted()){
+				BatchQueue.Lease lease = queue.claim();
+				if(lease == null){
+					int remaining = queue.remaining();
+					if(remaining == 0){
+						break;
+					}
+					System.out.println("Waiting on " + remaining + " batches leased by other workers");
+					try {
+						Thread.sleep(poll);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					continue;
+				}
+				if(process(lease)){
+					completed++;
+				}
+			}
+		}finally{
+			queue.close();
+		}
+		System.out.println("Batch worker finished, completed " + completed + " batches");
+		int givenUp = queue.givenUp();
+		if(givenUp > 0){
+			System.out.println(givenUp + " batches failed " + BatchQueue.MAX_ATTEMPTS + " times and were given up, see their .failed files");
+		}
+		return completed;
+	}
+
+	private boolean process(BatchQueue.Lease lease){
+		File batch = lease.getBatch();
+		File journal = lease.getJournalDir();
+		boolean resume = aether.isResume();
+		if(lease.getReclaimedFrom() != null){
+			System.out.println("Reclaimed " + batch.getName() + " from expired lease of " + lease.getReclaimedFrom());
+		}else{
+			System.out.println("Claimed " + batch.getName());
+		}
+
+		SyncMetrics metrics = aether.getMetrics();
+		long attempted = metrics.getArtifactsAttempted();
+		long failed = metrics.getArtifactsFailed();
+		long start = System.currentTimeMillis();
+		GavFileReader reader;
+		try {
+			reader = new GavFileReader(batch);
+		} catch (IOException e) {
+			System.out.println("could not read " + batch.getPath() + ": " + e.getMessage());
+			// counted as a failed attempt, so a batch that stays unreadable is given up
+			if(lease.fail("unreadable: " + e.getMessage())){
+				pause();
+			}
+			return false;
+		}
+		try{
+			// carry on from the journal a dead worker left behind
+			aether.setJournal(journal);
+			aether.setResume(journal.exists());
+			aether.resolve(lease.guard(reader));
+		}finally{
+			reader.close();
+			aether.setJournal(null);
+			aether.setResume(resume);
+		}
+
+		if(Thread.currentThread().isInterrupted()){
+			lease.release();
+			return false;
+		}
+		long batchFailed = metrics.getArtifactsFailed() - failed;
+		String summary = (metrics.getArtifactsAttempted() - attempted) + " attempted\t"
+			+ batchFailed + " failed\t"
+			+ (System.currentTimeMillis() - start) + "ms";
+		if(batchFailed > 0){
+			// resolving it again skips what is already in the local repository
+			if(lease.fail(summary)){
+				System.out.println("Failed " + batch.getName() + " (attempt " + queue.attempts(batch) + " of " + BatchQueue.MAX_ATTEMPTS + "): "
+					+ summary.replace('\t', ' '));
+				pause();
+			}
+			return false;
+		}
+		if(lease.complete(summary)){
+			System.out.println("Completed " + batch.getName() + ": " + summary.replace('\t', ' '));
+			return true;
+		}
+		return false;
+	}
+
+	private void pause(){
+		try {
+			Thread.sleep(poll);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package app.maven.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Persistent record of artifacts whose checksum has already been verified.
+ *
+ * Each entry stores the path relative to the local repository with the size,
+ * modification time and SHA-1 the file had when it was verified. An entry is
+ * trusted for as long as the size and modification time are unchanged, so a
+ * sync that changes nothing only has to stat each file. New entries are
+ * appended to the store as they are verified and the store is rewritten
+ * without duplicates when it is closed.
+ */
+public class VerifiedArtifactCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int FLUSH_EVERY = 1000;
+
+	private final File basedir;
+	private final File store;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private Writer writer;
+	private int unflushed = 0;
+
+	private static class Entry {
+		final long size;
+		final long modified;
+		final String sha1;
+
+		Entry(long size, long modified, String sha1){
+			this.size = size;
+			this.modified = modified;
+			this.sha1 = sha1;
+		}
+	}
+
+	public VerifiedArtifactCache(File basedir){
+		this(basedir, "");
+	}
+
+	/**
+	 * A cache whose store name ends in the given suffix, so shards sharing a
+	 * repository do not overwrite each other's store.
+	 */
+	public VerifiedArtifactCache(File basedir, String suffix){
+		this.basedir = basedir;
+		this.store = new File(basedir, ".remote-index/verified-artifacts" + suffix);
+	}
+
+	public File getStore(){
+		return store;
+	}
+
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 * Loads existing entries and opens the store for appending. When reverify
+	 * is set existing entries are discarded so every artifact is hashed again.
+	 */
+	public synchronized void open(boolean reverify) throws IOException {
+		if(!reverify && store.exists()){
+			load();
+		}
+		store.getParentFile().mkdirs();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(store, !reverify), UTF8));
+		System.out.println("Loaded " + entries.size() + " verified artifacts from " + store.getPath());
+	}
+
+	public boolean isVerified(File file, String sha1){
+		Entry entry = entries.get(key(file));
+		if(entry == null){
+			return false;
+		}
+		if(entry.size != file.length() || entry.modified != file.lastModified()){
+			return false;
+		}
+		return sha1 == null || entry.sha1.equalsIgnoreCase(sha1.trim());
+	}
+
+	public void markVerified(File file, String sha1){
+		String key = key(file);
+		Entry entry = new Entry(file.length(), file.lastModified(), sha1.trim().toLowerCase());
+		entries.put(key, entry);
+		synchronized(this){
+			if(writer == null){
+				return;
+			}
+			try {
+				write(writer, key, entry);
+				if(++unflushed >= FLUSH_EVERY){
+					writer.flush();
+					unflushed = 0;
+				}
+			} catch (IOException e) {
+				System.out.println("could not record verified artifact: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Compacts the store so each artifact appears once and closes it.
+	 */
+	public synchronized void close() throws IOException {
+		if(writer == null){
+			return;
+		}
+		IOUtils.closeQuietly(writer);
+		writer = null;
+
+		File compacted = new File(store.getPath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compacted), UTF8));
+		try{
+			for(Map.Entry<String, Entry> e: entries.entrySet()){
+				write(out, e.getKey(), e.getValue());
+			}
+		}finally{
+			out.close();
+		}
+		Files.move(compacted.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(store), UTF8));
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] parts = line.split("\t", 4);
+				if(parts.length != 4){
+					continue;
+				}
+				try{
+					entries.put(parts[3], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0]));
+				}catch(NumberFormatException e){}
+			}
+		}finally{
+			reader.close();
+		}
+	}
+
+	private static void write(Writer out, String key, Entry entry) throws IOException {
+		out.write(entry.sha1);
+		out.write('\t');
+		out.write(Long.toString(entry.size));
+		out.write('\t');
+		out.write(Long.toString(entry.modified));
+		out.write('\t');
+		out.write(key);
+		out.write('\n');
+	}
+
+	private String key(File file){
+		String base = basedir.getAbsolutePath();
+		String path = file.getAbsolutePath();
+		if(path.startsWith(base)){
+			path = path.substring(base.length());
+		}
+		path = path.replace('\\', '/');
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+}
@@ -23,6 +23,16 @@ import org.codehaus.plexus.component.repository.exception.ComponentLookupExcepti
 
 import app.maven.Aether;
 import app.maven.MavenSearcher;
+import app.maven.Shard;
+import app.maven.batch.BatchQueue;
+import app.maven.batch.BatchWorker;
+import app.maven.daemon.SyncDaemon;
+import app.maven.logging.SyncLog;
+import app.maven.metrics.MetricsServer;
+import app.maven.schedule.ContinuousSync;
+import app.maven.schedule.RepositoryLock;
+import app.maven.snapshot.SnapshotDiff;
+import app.maven.snapshot.SnapshotReader;
 
 public class SynchroniserCli {
 
@@ -59,6 +69,32 @@ public class SynchroniserCli {
 		
 		aether = new Aether(cmd.getOptionValue("localRepository"));
 		aether.setRemoteRepository(cmd.getOptionValue("remoteRepository"));
+		aether.getMetrics().register();
+		
+		SyncLog log = SyncLog.get();
+		log.setLevel(SyncLog.Level.INFO);
+		if(cmd.hasOption("logLevel")){
+			try{
+				log.setLevel(SyncLog.Level.valueOf(cmd.getOptionValue("logLevel").toUpperCase()));
+			}catch(IllegalArgumentException e){
+				System.out.println("Unknown log level: " + cmd.getOptionValue("logLevel"));
+				dieWithUsage();
+			}
+		}
+		log.setJsonFile(cmd.hasOption("logFile") ? new File(cmd.getOptionValue("logFile")) : null);
+		log.setQuiet(cmd.hasOption("quiet"));
+		if(cmd.hasOption("quiet")){
+			String seconds = cmd.getOptionValue("quiet");
+			log.setProgress(aether.getMetrics(), (seconds != null ? Integer.parseInt(seconds) : 10) * 1000L);
+		}else{
+			log.setProgress(null, 0);
+		}
+		
+		MetricsServer metricsServer = null;
+		if(cmd.hasOption("metricsPort")){
+			metricsServer = new MetricsServer(aether.getMetrics(), Integer.parseInt(cmd.getOptionValue("metricsPort")));
+			metricsServer.start();
+		}
 		
 		if(cmd.hasOption("groupId")){
 			aether.setGroupId(cmd.getOptionValue("groupId"));
@@ -72,6 +108,10 @@ public class SynchroniserCli {
 			aether.setMax(Integer.parseInt(cmd.getOptionValue("max")));
 		}
 		
+		if(cmd.hasOption("batch")){
+			aether.setBatch(Integer.parseInt(cmd.getOptionValue("batch")));
+		}
+		
 		if(cmd.hasOption("mirrors")){
 			List<String> mirrors = Arrays.asList(cmd.getOptionValue("mirrors").split("\\s*,\\s*"));
 			for(String mirror: mirrors){
@@ -93,20 +133,132 @@ public class SynchroniserCli {
 			aether.setMaxThreads(Integer.parseInt(cmd.getOptionValue("maxThreads")));
 		}
 		
-		if(cmd.hasOption("list")){
+		if(cmd.hasOption("resolveThreads")){
+			aether.setResolveThreads(Integer.parseInt(cmd.getOptionValue("resolveThreads")));
+		}
+		
+		if(cmd.hasOption("engine")){
+			String engine = cmd.getOptionValue("engine");
+			if("virtual".equals(engine)){
+				aether.setEngine(Aether.VIRTUAL_ENGINE);
+			}else if("pool".equals(engine)){
+				aether.setEngine(Aether.POOL_ENGINE);
+			}else{
+				System.out.println("Unknown engine: " + engine);
+				dieWithUsage();
+			}
+		}
+		
+		if(cmd.hasOption("hostConcurrency")){
+			aether.setHostConcurrency(Integer.parseInt(cmd.getOptionValue("hostConcurrency")));
+		}
+		
+		if(cmd.hasOption("indexChecksums")){
+			aether.setUseIndexChecksums(true);
+		}
+		
+		if(cmd.hasOption("resume")){
+			aether.setResume(true);
+		}
+		
+		if(cmd.hasOption("shard")){
+			try{
+				aether.setShard(Shard.parse(cmd.getOptionValue("shard")));
+			}catch(IllegalArgumentException e){
+				System.out.println(e.getMessage());
+				dieWithUsage();
+			}
+			System.out.println("Syncing shard " + aether.getShard());
+		}
+		
+		if(cmd.hasOption("reverify")){
+			aether.setReverify(true);
+		}
+		
+		searcher.setIncremental(cmd.hasOption("incremental"));
+		
+		long interval = 0;
+		long jitter = 0;
+		if(cmd.hasOption("continuous")){
+			String minutes = cmd.getOptionValue("continuous");
+			interval = (minutes != null ? Long.parseLong(minutes) : 15) * 60 * 1000L;
+			jitter = cmd.hasOption("jitter") ? Long.parseLong(cmd.getOptionValue("jitter")) * 1000L : interval / 10;
+			if(interval <= 0 || jitter < 0){
+				System.out.println("--continuous must be greater than 0 and --jitter not negative");
+				dieWithUsage();
+			}
+		}
+		
+		// everything but --list writes to the local repository or its index
+		RepositoryLock lock = null;
+		if(!cmd.hasOption("list")){
+			lock = lockRepository(cmd.hasOption("shard") || cmd.hasOption("batchWorker"));
+		}
+		
+		if(cmd.hasOption("daemon")){
+			String port = cmd.getOptionValue("daemon");
+			int jobs = cmd.hasOption("daemonJobs") ? Integer.parseInt(cmd.getOptionValue("daemonJobs")) : 4;
+			final SyncDaemon daemon = new SyncDaemon(aether, searcher, port != null ? Integer.parseInt(port) : 9405, jobs);
+			daemon.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				public void run() {
+					daemon.stop();
+				}
+			}));
+			try {
+				daemon.awaitStop();
+			} catch (InterruptedException e) {
+				System.out.println("daemon interrupted");
+			}
+		}else if(cmd.hasOption("continuous")){
+			final ContinuousSync continuous = new ContinuousSync(aether, searcher, interval, jitter);
+			continuous.setDirect(cmd.hasOption("direct"));
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				public void run() {
+					System.out.println("Stopping after the running sync cycle");
+					try {
+						continuous.stop(60 * 1000);
+					} catch (InterruptedException e) {}
+				}
+			}));
+			try {
+				continuous.run();
+			} catch (InterruptedException e) {
+				System.out.println("continuous sync interrupted");
+			}
+		}else if(cmd.hasOption("list")){
 			searcher.setupIndexer();
-			searcher.report(searcher.loadDependenciesFromIndex());
+			int threads = cmd.hasOption("listThreads") ? Integer.parseInt(cmd.getOptionValue("listThreads")) : 16;
+			searcher.report(searcher.loadDependenciesFromIndex(), threads, cmd.hasOption("listCache"));
+			searcher.closeIndex();
+		}else if(cmd.hasOption("diff")){
+			searcher.setupIndexer();
+			searcher.updateIndex();
+			File remote = searcher.snapshotIndex(searcher.loadDependenciesFromIndex());
 			searcher.closeIndex();
+			File local = searcher.snapshotFileSystem();
+			SnapshotDiff diff = new SnapshotDiff(new SnapshotReader(remote), new SnapshotReader(local));
+			String out = cmd.getOptionValue("diff");
+			if(out != null){
+				long written = diff.write(new File(out));
+				System.out.println("Wrote " + written + " missing and changed GAVs to " + out);
+			}else if(cmd.hasOption("direct")){
+				aether.setMethod(Aether.DIRECT);
+				aether.directDownload(diff.toDownload(aether.getLocalRepository().getBasedir(), false));
+			}else{
+				aether.resolve(diff.toDownload(aether.getLocalRepository().getBasedir(), true));
+			}
+			System.out.println(diff.summary());
 		}else if(cmd.hasOption("validate")){
 			aether.setMethod(Aether.COLLECT);
-			Iterator<ArtifactInfo> deps = searcher.loadDependenciesFromFileSystem().iterator();
+			Iterator<ArtifactInfo> deps = searcher.loadDependenciesFromFileSystem();
 			aether.resolve(deps);
 		}else if(cmd.hasOption("direct")){
 			aether.setMethod(Aether.DIRECT);
 			searcher.setupIndexer();
 			searcher.updateIndex();
-			IteratorResultSet results = searcher.loadDependenciesFromIndex();
-			aether.directDownload(results);
+			aether.directDownload(loadDependencies(searcher));
+			completeDelta(searcher);
 			searcher.closeIndex();
 		}else if(cmd.hasOption("createBatchFiles")){
 			String val = cmd.getOptionValue("createBatchFiles");
@@ -126,6 +278,11 @@ public class SynchroniserCli {
 				System.out.println("Missing argument: batch number");
 				dieWithUsage();
 			}
+		}else if(cmd.hasOption("batchWorker")){
+			String seconds = cmd.getOptionValue("batchWorker");
+			File batchDir = searcher.getBatchDir();
+			BatchQueue queue = new BatchQueue(batchDir, BatchQueue.defaultOwner(), (seconds != null ? Integer.parseInt(seconds) : 300) * 1000L);
+			new BatchWorker(aether, queue).run();
 		}else if(cmd.hasOption("file")){
 				File file = new File(cmd.getOptionValue("file"));
 				Iterator<ArtifactInfo> it = searcher.loadDependenciesFromFile(file);
@@ -133,13 +290,56 @@ public class SynchroniserCli {
 		}else{
 			searcher.setupIndexer();
 			searcher.updateIndex();
-			IteratorResultSet it = searcher.loadDependenciesFromIndex();
-			aether.resolve(it);
+			aether.resolve(loadDependencies(searcher));
+			completeDelta(searcher);
 			searcher.closeIndex();
 		}
+		if(lock != null){
+			lock.close();
+		}
+		log.flush();
+		System.out.print(aether.getMetrics().getSummary());
+		if(metricsServer != null){
+			metricsServer.stop();
+		}
 		System.out.println("Finished");
 	}
 	
+	/**
+	 * The artifacts the index update added when syncing incrementally,
+	 * otherwise everything in the index.
+	 */
+	private static Iterator<ArtifactInfo> loadDependencies(MavenSearcher searcher) throws IOException {
+		if(cmd.hasOption("incremental")){
+			Iterator<ArtifactInfo> delta = searcher.loadDependenciesFromDelta();
+			if(delta != null){
+				return delta;
+			}
+			System.out.println("Index was not updated incrementally, syncing everything");
+		}
+		return searcher.loadDependenciesFromIndex();
+	}
+	
+	/**
+	 * Locks the local repository, shared for shards and batch workers which
+	 * sync it side by side, or exits if another sync holds it.
+	 */
+	private static RepositoryLock lockRepository(boolean shared) throws IOException {
+		File basedir = aether.getLocalRepository().getBasedir();
+		RepositoryLock lock = shared ? RepositoryLock.tryAcquireShared(basedir) : RepositoryLock.tryAcquire(basedir);
+		if(lock == null){
+			String holder = RepositoryLock.holder(basedir);
+			System.out.println("Another mvnsync" + (holder != null ? " (" + holder + ")" : "") + " is already syncing " + basedir);
+			System.exit(1);
+		}
+		return lock;
+	}
+	
+	private static void completeDelta(MavenSearcher searcher){
+		// keep the delta for the next run unless all of it was synced
+		searcher.completeDelta(!aether.hasMax() && aether.getMetrics().getArtifactsFailed() == 0);
+	}
+	
 	@SuppressWarnings("static-access")
 	private static Options buildOptions(){
 		Option help = new Option( "h", "print usage" );
@@ -156,12 +356,38 @@ public class SynchroniserCli {
 		Option groupId = OptionBuilder.withArgName("string").hasArg().withLongOpt("groupId").withDescription("limit to artifacts with this groupId").create("G");
 		Option artifactId = OptionBuilder.withArgName("string").hasArg().withLongOpt("artifactId").withDescription("limit to artifacts with this artifactId").create("A");
 		Option maxThreads = OptionBuilder.withArgName("int").hasArg().withLongOpt("maxThreads").withDescription("Maximum threads to allocate to the direct downloader").create("mt");
+		Option batch = OptionBuilder.withArgName("int").hasArg().withLongOpt("batch").withDescription("fixed number of dependencies per resolve request, tuned automatically if not set").create("b");
+		Option resolveThreads = OptionBuilder.withArgName("int").hasArg().withLongOpt("resolveThreads").withDescription("Number of dependency batches to resolve concurrently").create("rt");
+		Option engine = OptionBuilder.withArgName("pool|virtual").hasArg().withLongOpt("engine").withDescription("download engine for direct mode, a fixed thread pool (default) or virtual threads").create("e");
+		Option hostConcurrency = OptionBuilder.withArgName("int").hasArg().withLongOpt("hostConcurrency").withDescription("Maximum concurrent transfers per mirror host for the virtual thread engine").create("hc");
+		Option metricsPort = OptionBuilder.withArgName("port").hasArg().withLongOpt("metricsPort").withDescription("serve Prometheus metrics on this local port while syncing").create("mp");
+		Option logLevel = OptionBuilder.withArgName("debug|info|warn|error").hasArg().withLongOpt("logLevel").withDescription("only log artifact events at or above this level, info by default").create("ll");
+		Option logFile = OptionBuilder.withArgName("path").hasArg().withLongOpt("logFile").withDescription("also write artifact events to this file as JSON lines").create("lf");
+		Option quiet = OptionBuilder.withArgName("seconds").hasOptionalArg().withLongOpt("quiet").withDescription("only print warnings, errors and a progress line every few seconds, 10 by default").create("q");
+		Option shard = OptionBuilder.withArgName("i/N").hasArg().withLongOpt("shard").withDescription("only sync shard i of N, split by groupId:artifactId, for running N nodes in parallel").create("s");
+		Option listThreads = OptionBuilder.withArgName("int").hasArg().withLongOpt("listThreads").withDescription("threads checking the local repository for --list, 16 by default").create("lt");
+		Option diff = OptionBuilder.withArgName("gavFile").hasOptionalArg().withLongOpt("diff").withDescription("snapshot the index and the local repository and sync only what differs, or write the missing and changed GAVs to this file").create("D");
+		Option daemon = OptionBuilder.withArgName("port").hasOptionalArg().withLongOpt("daemon").withDescription("keep the index and downloads open and run sync jobs posted to http://127.0.0.1:port/jobs, 9405 by default").create("X");
+		Option daemonJobs = OptionBuilder.withArgName("int").hasArg().withLongOpt("daemonJobs").withDescription("jobs the daemon runs at once, 4 by default").create("xj");
+		Option continuous = OptionBuilder.withArgName("minutes").hasOptionalArg().withLongOpt("continuous").withDescription("keep syncing what each index update adds, every 15 minutes by default").create("C");
+		Option jitter = OptionBuilder.withArgName("seconds").hasArg().withLongOpt("jitter").withDescription("for --continuous, wait up to this much longer between cycles, a tenth of the interval by default, 0 for none").create("J");
+		Option batchWorker = OptionBuilder.withArgName("leaseSeconds").hasOptionalArg().withLongOpt("batchWorker").withDescription("claim and resolve batch files from .batches, or the shard's .batches-i-of-N, until all are done, holding each for a lease renewed while working, 300 seconds by default").create("W");
 		Option direct = new Option( "d", "skip resolve and download directly");
 		direct.setLongOpt("direct");
+		Option indexChecksums = new Option( "ic", "verify direct downloads against the index SHA-1 and size instead of fetching .sha1 files");
+		indexChecksums.setLongOpt("indexChecksums");
+		Option reverify = new Option( "rv", "ignore the verified artifact cache and rehash every local artifact");
+		reverify.setLongOpt("reverify");
+		Option resume = new Option( "R", "resume an interrupted sync from its journal checkpoint");
+		resume.setLongOpt("resume");
+		Option incremental = new Option( "I", "only sync the artifacts added by incremental index updates since the last incremental sync");
+		incremental.setLongOpt("incremental");
 		Option validate = new Option( "v", "validate local dependencies only");
 		validate.setLongOpt("validate");
 		Option list = new Option( "L", "print download summary and quit");
 		list.setLongOpt("list");
+		Option listCache = new Option( "lc", "for --list, list each version directory once instead of checking every artifact file");
+		listCache.setLongOpt("listCache");
 		
 		Options options = new Options();
 		options.addOption(help);
@@ -178,6 +404,27 @@ public class SynchroniserCli {
 		options.addOption(validate);
 		options.addOption(direct);
 		options.addOption(maxThreads);
+		options.addOption(batch);
+		options.addOption(resolveThreads);
+		options.addOption(engine);
+		options.addOption(hostConcurrency);
+		options.addOption(indexChecksums);
+		options.addOption(reverify);
+		options.addOption(resume);
+		options.addOption(metricsPort);
+		options.addOption(logLevel);
+		options.addOption(logFile);
+		options.addOption(quiet);
+		options.addOption(shard);
+		options.addOption(batchWorker);
+		options.addOption(incremental);
+		options.addOption(diff);
+		options.addOption(listThreads);
+		options.addOption(listCache);
+		options.addOption(daemon);
+		options.addOption(daemonJobs);
+		options.addOption(continuous);
+		options.addOption(jitter);
 		
 		return options;
 	}
@@ -0,0 +1,380 @@
+package app.maven.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.IteratorResultSet;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import app.maven.Aether;
+import app.maven.MavenSearcher;
+import app.maven.utils.Json;
+
+/**
+ * Keeps the index, repository system and download threads open and runs
+ * syncs submitted over a local HTTP API, so a small sync does not pay for
+ * starting the JVM, opening the index and connecting to the mirrors.
+ *
+ * The API only listens on the loopback interface:
+ *   POST /jobs           submit a job (see SyncJob), answered with the job;
+ *                        with ?wait=seconds only once it finished or the wait ran out
+ *   GET  /jobs           every job still remembered
+ *   GET  /jobs/{id}      one job with its progress
+ *   POST /index/update   update the index, waiting for running index queries
+ *   GET  /metrics        Prometheus metrics totalled over all jobs
+ *   POST /shutdown       finish the running jobs and stop
+ *
+ * Jobs run concurrently, each as a copy of the daemon's Aether with its own
+ * session, journal and metrics, sharing one download pool, HTTP transport
+ * and verified artifact cache.
+ */
+public class SyncDaemon {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int KEPT_JOBS = 1000;
+	private static final long MAX_WAIT = 10 * 60 * 1000;
+
+	private final Aether aether;
+	private final MavenSearcher searcher;
+	private final int port;
+	private final int concurrentJobs;
+	private final ReadWriteLock index = new ReentrantReadWriteLock();
+	private final AtomicLong ids = new AtomicLong();
+	private final Map<Long, SyncJob> jobs;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private ExecutorService runner;
+	private ExecutorService http;
+	private HttpServer server;
+	private volatile boolean stopping = false;
+
+	public SyncDaemon(Aether aether, MavenSearcher searcher, int port, int concurrentJobs){
+		this.aether = aether;
+		this.searcher = searcher;
+		this.port = port;
+		this.concurrentJobs = concurrentJobs;
+		this.jobs = new LinkedHashMap<Long, SyncJob>(){
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, SyncJob> eldest) {
+				return size() > KEPT_JOBS && eldest.getValue().isDone();
+			}
+		};
+	}
+
+	/**
+	 * Opens and updates the index, then starts accepting jobs.
+	 */
+	public void start() throws IOException, PlexusContainerException, ComponentLookupException {
+		searcher.setupIndexer();
+		searcher.updateIndex();
+		aether.shareDownloads();
+		runner = Executors.newFixedThreadPool(concurrentJobs, threads("sync-job"));
+		http = Executors.newCachedThreadPool(threads("sync-daemon"));
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.setExecutor(http);
+		server.createContext("/", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				try{
+					route(exchange);
+				}catch(RuntimeException e){
+					send(exchange, 500, error(e.toString()));
+				}finally{
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		System.out.println("Sync daemon listening on http://127.0.0.1:" + getPort() + "/jobs");
+	}
+
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Blocks until the daemon has stopped.
+	 */
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	/**
+	 * Stops accepting jobs, waits for the ones submitted to finish and closes
+	 * the index and shared downloads.
+	 */
+	public synchronized void stop(){
+		if(stopping){
+			return;
+		}
+		stopping = true;
+		System.out.println("Sync daemon stopping, finishing submitted jobs");
+		runner.shutdown();
+		try {
+			runner.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			runner.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		server.stop(0);
+		http.shutdownNow();
+		aether.closeSharedDownloads();
+		searcher.closeIndex();
+		stopped.countDown();
+	}
+
+	/**
+	 * Queues the job described by a JSON request.
+	 */
+	public SyncJob submit(String request){
+		final SyncJob job = SyncJob.parse(ids.incrementAndGet(), request);
+		synchronized(jobs){
+			jobs.put(job.getId(), job);
+		}
+		try{
+			runner.execute(new Runnable(){
+				public void run() {
+					execute(job);
+				}
+			});
+		}catch(RejectedExecutionException e){
+			synchronized(jobs){
+				jobs.remove(job.getId());
+			}
+			throw e;
+		}
+		return job;
+	}
+
+	public SyncJob getJob(long id){
+		synchronized(jobs){
+			return jobs.get(id);
+		}
+	}
+
+	/**
+	 * Updates the index once no job is reading it, holding new index jobs
+	 * back until the update is done.
+	 */
+	public Date updateIndex() throws IOException, PlexusContainerException, ComponentLookupException {
+		index.writeLock().lock();
+		try{
+			searcher.updateIndex();
+			return searcher.getIndexingContext().getTimestamp();
+		}finally{
+			index.writeLock().unlock();
+		}
+	}
+
+	private void execute(SyncJob job){
+		Aether worker = new Aether(aether);
+		File journal = new File(aether.getLocalRepository().getBasedir(), ".daemon-jobs/" + job.getId());
+		worker.setJournal(journal);
+		job.started(worker.getMetrics());
+		System.out.println("Job " + job.getId() + " started");
+		String error = null;
+		try{
+			if(job.getMode() == SyncJob.Mode.VALIDATE){
+				worker.setMethod(Aether.COLLECT);
+				worker.resolve(searcher.loadDependenciesFromFileSystem());
+			}else if(job.getArtifacts() != null){
+				sync(worker, job, job.getArtifacts().iterator());
+			}else{
+				index.readLock().lock();
+				IteratorResultSet results = null;
+				try{
+					results = searcher.loadDependenciesFromIndex(job.getGroupId(), job.getArtifactId());
+					sync(worker, job, results);
+				}finally{
+					if(results != null){
+						results.close();
+					}
+					index.readLock().unlock();
+				}
+			}
+			long failed = worker.getMetrics().getArtifactsFailed();
+			if(failed > 0){
+				error = failed + " artifacts failed";
+			}
+		}catch(IOException e){
+			error = e.getMessage();
+		}catch(RuntimeException e){
+			error = e.toString();
+		}
+		if(error == null){
+			FileUtils.deleteQuietly(journal);
+		}
+		job.finished(error);
+		System.out.println("Job " + job.getId() + " " + job.getState().name().toLowerCase() + (error != null ? ": " + error : ""));
+	}
+
+	private static void sync(Aether worker, SyncJob job, Iterator<ArtifactInfo> deps){
+		if(job.getMode() == SyncJob.Mode.DIRECT){
+			worker.setMethod(Aether.DIRECT);
+			worker.directDownload(deps);
+		}else{
+			worker.setMethod(Aether.RESOLVE);
+			worker.resolve(deps);
+		}
+	}
+
+	private void route(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		if(path.equals("/jobs") && method.equals("POST")){
+			postJob(exchange);
+		}else if(path.equals("/jobs") && method.equals("GET")){
+			List<SyncJob> all;
+			synchronized(jobs){
+				all = new ArrayList<SyncJob>(jobs.values());
+			}
+			StringBuilder out = new StringBuilder("[");
+			for(SyncJob job: all){
+				if(out.length() > 1){
+					out.append(',');
+				}
+				out.append(job.toJson());
+			}
+			send(exchange, 200, out.append(']').toString());
+		}else if(path.startsWith("/jobs/") && method.equals("GET")){
+			SyncJob job = null;
+			try{
+				job = getJob(Long.parseLong(path.substring("/jobs/".length())));
+			}catch(NumberFormatException e){}
+			if(job != null){
+				send(exchange, 200, job.toJson());
+			}else{
+				send(exchange, 404, error("no such job"));
+			}
+		}else if(path.equals("/index/update") && method.equals("POST")){
+			try{
+				Date timestamp = updateIndex();
+				send(exchange, 200, "{\"timestamp\":" + (timestamp != null ? timestamp.getTime() : 0) + "}");
+			}catch(Exception e){
+				send(exchange, 500, error("index update failed: " + e.getMessage()));
+			}
+		}else if(path.equals("/metrics") && method.equals("GET")){
+			byte[] body = aether.getMetrics().toPrometheus().getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+		}else if(path.equals("/shutdown") && method.equals("POST")){
+			send(exchange, 202, "{\"stopping\":true}");
+			// stop from another thread, it waits for this exchange's server
+			new Thread(new Runnable(){
+				public void run() {
+					stop();
+				}
+			}, "sync-daemon-stop").start();
+		}else{
+			send(exchange, 404, error("unknown request " + method + " " + path));
+		}
+	}
+
+	private void postJob(HttpExchange exchange) throws IOException {
+		if(stopping){
+			send(exchange, 503, error("daemon is stopping"));
+			return;
+		}
+		InputStream in = exchange.getRequestBody();
+		String request;
+		try{
+			request = IOUtils.toString(in, "UTF-8");
+		}finally{
+			in.close();
+		}
+		SyncJob job;
+		try{
+			job = submit(request);
+		}catch(IllegalArgumentException e){
+			send(exchange, 400, error(e.getMessage()));
+			return;
+		}catch(RejectedExecutionException e){
+			send(exchange, 503, error("daemon is stopping"));
+			return;
+		}
+		long wait = waitMillis(exchange.getRequestURI().getQuery());
+		boolean done = false;
+		try{
+			done = wait > 0 && job.await(wait);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		send(exchange, done ? 200 : 202, job.toJson());
+	}
+
+	private static long waitMillis(String query){
+		if(query == null){
+			return 0;
+		}
+		for(String param: query.split("&")){
+			if(param.equals("wait")){
+				return MAX_WAIT;
+			}
+			if(param.startsWith("wait=")){
+				try{
+					return Math.min(MAX_WAIT, Long.parseLong(param.substring(5)) * 1000);
+				}catch(NumberFormatException e){
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+
+	private static String error(String message){
+		StringBuilder out = new StringBuilder("{\"error\":");
+		Json.quote(out, message != null ? message : "unknown error");
+		return out.append('}').toString();
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = (json + "\n").getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try{
+			out.write(body);
+		}finally{
+			out.close();
+		}
+	}
+
+	private static ThreadFactory threads(final String name){
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,201 @@
+package app.maven.daemon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.metrics.SyncMetrics;
+import app.maven.utils.Helper;
+import app.maven.utils.Json;
+
+/**
+ * A sync submitted to the daemon: what to sync, how, and how far it got.
+ *
+ * Jobs are sent as a JSON object such as
+ * {"mode":"direct","groupId":"org.example","artifactId":"lib"} or
+ * {"gavs":["org.example:lib:1.0"]}. The mode is resolve, direct or validate,
+ * resolve by default. Without gavs the artifacts come from the index,
+ * filtered by groupId and artifactId if given; validate checks the local
+ * repository and takes no artifacts.
+ */
+public class SyncJob {
+
+	public enum Mode {
+		RESOLVE, DIRECT, VALIDATE
+	}
+
+	public enum State {
+		QUEUED, RUNNING, SUCCEEDED, FAILED
+	}
+
+	private final long id;
+	private final Mode mode;
+	private final String groupId;
+	private final String artifactId;
+	private final List<ArtifactInfo> artifacts;
+	private final long submitted = System.currentTimeMillis();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile State state = State.QUEUED;
+	private volatile long started;
+	private volatile long finished;
+	private volatile String error;
+	private volatile SyncMetrics metrics;
+
+	SyncJob(long id, Mode mode, String groupId, String artifactId, List<ArtifactInfo> artifacts){
+		this.id = id;
+		this.mode = mode;
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+		this.artifacts = artifacts;
+	}
+
+	/**
+	 * Reads a job from its JSON request, throwing IllegalArgumentException
+	 * if the request is malformed.
+	 */
+	@SuppressWarnings("unchecked")
+	public static SyncJob parse(long id, String request){
+		Object parsed = Json.parse(request);
+		if(!(parsed instanceof Map)){
+			throw new IllegalArgumentException("a job must be a JSON object");
+		}
+		Map<String, Object> job = (Map<String, Object>) parsed;
+		Mode mode = Mode.RESOLVE;
+		if(job.get("mode") != null){
+			try{
+				mode = Mode.valueOf(string(job, "mode").toUpperCase());
+			}catch(IllegalArgumentException e){
+				throw new IllegalArgumentException("unknown mode: " + job.get("mode"));
+			}
+		}
+		List<ArtifactInfo> artifacts = null;
+		Object gavs = job.get("gavs");
+		if(gavs != null){
+			if(!(gavs instanceof List)){
+				throw new IllegalArgumentException("gavs must be an array");
+			}
+			artifacts = new ArrayList<ArtifactInfo>();
+			for(Object gav: (List<Object>) gavs){
+				ArtifactInfo ai = gav instanceof String ? Helper.buildArtifactInfo((String) gav) : null;
+				if(ai == null){
+					throw new IllegalArgumentException("invalid GAV: " + gav);
+				}
+				artifacts.add(ai);
+			}
+			if(mode == Mode.VALIDATE){
+				throw new IllegalArgumentException("validate checks the local repository and takes no gavs");
+			}
+		}
+		return new SyncJob(id, mode, string(job, "groupId"), string(job, "artifactId"), artifacts);
+	}
+
+	private static String string(Map<String, Object> job, String name){
+		Object value = job.get(name);
+		if(value == null){
+			return "";
+		}
+		if(!(value instanceof String)){
+			throw new IllegalArgumentException(name + " must be a string");
+		}
+		return (String) value;
+	}
+
+	public long getId(){
+		return id;
+	}
+
+	public Mode getMode(){
+		return mode;
+	}
+
+	public String getGroupId(){
+		return groupId;
+	}
+
+	public String getArtifactId(){
+		return artifactId;
+	}
+
+	/**
+	 * The artifacts listed in the request, or null to sync from the index.
+	 */
+	public List<ArtifactInfo> getArtifacts(){
+		return artifacts != null ? Collections.unmodifiableList(artifacts) : null;
+	}
+
+	public State getState(){
+		return state;
+	}
+
+	public boolean isDone(){
+		return state == State.SUCCEEDED || state == State.FAILED;
+	}
+
+	void started(SyncMetrics metrics){
+		this.metrics = metrics;
+		this.started = System.currentTimeMillis();
+		this.state = State.RUNNING;
+	}
+
+	void finished(String error){
+		this.error = error;
+		this.finished = System.currentTimeMillis();
+		this.state = error == null ? State.SUCCEEDED : State.FAILED;
+		done.countDown();
+	}
+
+	/**
+	 * Waits up to timeoutMillis for the job to finish, returning whether it did.
+	 */
+	public boolean await(long timeoutMillis) throws InterruptedException {
+		return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public String toJson(){
+		StringBuilder out = new StringBuilder(256);
+		out.append("{\"id\":").append(id);
+		out.append(",\"mode\":");
+		Json.quote(out, mode.name().toLowerCase());
+		out.append(",\"state\":");
+		Json.quote(out, state.name().toLowerCase());
+		if(!groupId.isEmpty()){
+			out.append(",\"groupId\":");
+			Json.quote(out, groupId);
+		}
+		if(!artifactId.isEmpty()){
+			out.append(",\"artifactId\":");
+			Json.quote(out, artifactId);
+		}
+		if(artifacts != null){
+			out.append(",\"gavs\":").append(artifacts.size());
+		}
+		out.append(",\"submitted\":").append(submitted);
+		if(started > 0){
+			long end = finished > 0 ? finished : System.currentTimeMillis();
+			out.append(",\"started\":").append(started).append(",\"elapsedMillis\":").append(end - started);
+		}
+		if(finished > 0){
+			out.append(",\"finished\":").append(finished);
+		}
+		SyncMetrics m = metrics;
+		if(m != null){
+			out.append(",\"attempted\":").append(m.getArtifactsAttempted())
+				.append(",\"skipped\":").append(m.getArtifactsSkipped())
+				.append(",\"downloaded\":").append(m.getArtifactsDownloaded())
+				.append(",\"failed\":").append(m.getArtifactsFailed())
+				.append(",\"bytes\":").append(m.getBytesTransferred())
+				.append(",\"queued\":").append(m.getQueueDepth());
+		}
+		if(error != null){
+			out.append(",\"error\":");
+			Json.quote(out, error);
+		}
+		out.append('}');
+		return out.toString();
+	}
+}
@@ -0,0 +1,31 @@
+package app.maven.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Hashing a local artifact to check it against its expected checksum.
+ */
+@Name("app.maven.Checksum")
+@Label("Checksum Verification")
+@Category({"mvnsync", "Verification"})
+@Description("Hashing a local artifact that the verified artifact cache did not already vouch for")
+public class ChecksumEvent extends Event {
+
+	@Label("File")
+	public String file;
+
+	@Label("Algorithm")
+	public String algorithm;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+	@Label("Valid")
+	public boolean valid;
+}
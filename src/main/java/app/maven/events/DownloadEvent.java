@@ -0,0 +1,43 @@
+package app.maven.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One attempt by a DownloadWorker to fetch an artifact from a mirror.
+ */
+@Name("app.maven.Download")
+@Label("Artifact Download")
+@Category({"mvnsync", "Transfers"})
+@Description("Fetching an artifact from one mirror, from opening the request until the file was verified or discarded")
+public class DownloadEvent extends Event {
+
+	public static final String DOWNLOADED = "downloaded";
+	public static final String NOT_FOUND = "not found";
+	public static final String FAILED = "failed";
+	public static final String INVALID_SIZE = "invalid size";
+	public static final String INVALID_CHECKSUM = "invalid checksum";
+
+	@Label("URL")
+	public String url;
+
+	@Label("Mirror")
+	public String mirror;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+	@Label("Latency")
+	@Description("Time until the response started")
+	@Timespan(Timespan.MILLISECONDS)
+	public long latency;
+
+	@Label("Outcome")
+	public String outcome;
+}
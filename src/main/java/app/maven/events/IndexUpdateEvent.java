@@ -0,0 +1,39 @@
+package app.maven.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timestamp;
+
+/**
+ * Fetching and applying the remote repository's index.
+ */
+@Name("app.maven.IndexUpdate")
+@Label("Index Update")
+@Category({"mvnsync", "Index"})
+@Description("Downloading the remote index and merging it into the local Lucene index")
+public class IndexUpdateEvent extends Event {
+
+	public static final String FULL = "full";
+	public static final String INCREMENTAL = "incremental";
+	public static final String UP_TO_DATE = "up to date";
+	public static final String FAILED = "failed";
+
+	@Label("Repository")
+	public String repository;
+
+	@Label("Outcome")
+	public String outcome;
+
+	@Label("Previous Timestamp")
+	@Description("Timestamp of the local index before the update, zero if there was none")
+	@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+	public long previous;
+
+	@Label("Timestamp")
+	@Description("Timestamp of the index after the update, zero if unknown")
+	@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+	public long timestamp;
+}
@@ -0,0 +1,31 @@
+package app.maven.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A request that a mirror redirected elsewhere.
+ */
+@Name("app.maven.Redirect")
+@Label("Mirror Redirect")
+@Category({"mvnsync", "Transfers"})
+@Description("A GET that was redirected, timed until the final location started responding")
+public class RedirectEvent extends Event {
+
+	@Label("Mirror")
+	public String mirror;
+
+	@Label("Requested")
+	public String requested;
+
+	@Label("Location")
+	@Description("Where the redirects ended")
+	public String location;
+
+	@Label("Remembered")
+	@Description("Whether the mirror's new base URL was recorded by this request")
+	public boolean remembered;
+}
@@ -0,0 +1,29 @@
+package app.maven.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One resolve or collect request made to the repository system.
+ */
+@Name("app.maven.ResolveBatch")
+@Label("Resolve Batch")
+@Category({"mvnsync", "Resolve"})
+@Description("Resolving or collecting one batch of dependencies through aether")
+public class ResolveBatchEvent extends Event {
+
+	@Label("Batch")
+	public int batch;
+
+	@Label("Method")
+	public String method;
+
+	@Label("Dependencies")
+	public int dependencies;
+
+	@Label("Successful")
+	public boolean successful;
+}
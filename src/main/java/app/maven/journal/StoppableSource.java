@@ -0,0 +1,14 @@
+package app.maven.journal;
+
+/**
+ * An artifact source that may stop before it is exhausted, such as a batch
+ * whose lease was lost. A sync whose source stopped closes its journal
+ * without finishing it, keeping the checkpoint for whoever carries on.
+ */
+public interface StoppableSource {
+
+	/**
+	 * Whether the source stopped yielding artifacts it still had.
+	 */
+	boolean isStopped();
+}
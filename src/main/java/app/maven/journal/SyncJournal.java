@@ -0,0 +1,320 @@
+package app.maven.journal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.utils.Helper;
+
+/**
+ * Append-only record of the artifacts a sync has completed or failed, with a
+ * checkpoint of how far through the source it got.
+ *
+ * Every artifact read from the source is given a position. Completed and failed
+ * artifacts are appended to the journal with their position, and the journal is
+ * flushed in batches. Each flush also writes a checkpoint holding the highest
+ * position below which every artifact has finished, so artifacts still in
+ * flight when a run dies are never skipped on resume. A resumed run skips the
+ * source up to the checkpoint without looking at the artifacts at all, and
+ * skips artifacts the journal lists as completed beyond it. When a sync
+ * completes the journal is compacted down to its failures and the checkpoint
+ * is removed.
+ */
+public class SyncJournal {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int FLUSH_EVERY = 500;
+	private static final String OK = "OK";
+	private static final String FAIL = "FAIL";
+
+	private final File journal;
+	private final File checkpoint;
+
+	private Writer writer;
+	private int unflushed = 0;
+
+	// artifacts handed out by track() and not yet completed
+	private final Map<ArtifactInfo, Long> pending = new IdentityHashMap<ArtifactInfo, Long>();
+	// completed positions above the watermark, with their paths
+	private final TreeMap<Long, String> done = new TreeMap<Long, String>();
+	private long watermark = 0;
+	private String watermarkPath = null;
+
+	// state loaded from a previous run
+	private long resumeFrom = 0;
+	private String resumePath = null;
+	private Set<String> completed = new HashSet<String>();
+
+	private long completedCount = 0;
+	private long failedCount = 0;
+	private long skippedCount = 0;
+
+	public SyncJournal(File dir){
+		this.journal = new File(dir, "journal.log");
+		this.checkpoint = new File(dir, "checkpoint");
+	}
+
+	public File getJournal(){
+		return journal;
+	}
+
+	public long getCompleted(){
+		return completedCount;
+	}
+
+	public long getFailed(){
+		return failedCount;
+	}
+
+	public long getSkipped(){
+		return skippedCount;
+	}
+
+	/**
+	 * Opens the journal. When resuming, the checkpoint and the entries recorded
+	 * after it are loaded and appended to; otherwise any previous journal is
+	 * discarded.
+	 */
+	public synchronized void open(boolean resume) throws IOException {
+		journal.getParentFile().mkdirs();
+		if(resume && checkpoint.exists()){
+			loadCheckpoint();
+		}
+		if(resume && journal.exists()){
+			loadJournal();
+		}
+		if(!resume){
+			checkpoint.delete();
+		}
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, resume), UTF8));
+		watermark = resumeFrom;
+		watermarkPath = resumePath;
+		if(resume){
+			System.out.println("Resuming from position " + resumeFrom + " with " + completed.size()
+				+ " artifacts already completed after it");
+		}
+	}
+
+	/**
+	 * Wraps the source so artifacts before the checkpoint, and artifacts the
+	 * journal already has as completed, are skipped. Every artifact returned
+	 * must be passed to complete() once it has been processed.
+	 */
+	public Iterator<ArtifactInfo> track(final Iterator<ArtifactInfo> source){
+		return new Iterator<ArtifactInfo>(){
+			private long position = 0;
+			private ArtifactInfo next;
+
+			public boolean hasNext() {
+				while(next == null && source.hasNext()){
+					ArtifactInfo ai = source.next();
+					if(ai == null){
+						continue;
+					}
+					long seq = position++;
+					if(seq < resumeFrom){
+						if(seq == resumeFrom - 1 && resumePath != null && !resumePath.equals(Helper.calculatePath(ai))){
+							System.out.println("warning: source has changed since the checkpoint was written, "
+								+ "artifacts may have been skipped; run again without --resume to be sure");
+						}
+						skipped();
+						continue;
+					}
+					String path = Helper.calculatePath(ai);
+					if(completed.remove(path)){
+						skipped();
+						advance(seq, path);
+						continue;
+					}
+					synchronized(SyncJournal.this){
+						pending.put(ai, seq);
+					}
+					next = ai;
+				}
+				return next != null;
+			}
+
+			public ArtifactInfo next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				ArtifactInfo ai = next;
+				next = null;
+				return ai;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Records that a tracked artifact has finished, successfully or not.
+	 */
+	public synchronized void complete(ArtifactInfo ai, boolean ok){
+		Long seq = pending.remove(ai);
+		if(seq == null){
+			return;
+		}
+		String path = Helper.calculatePath(ai);
+		if(ok){
+			completedCount++;
+		}else{
+			failedCount++;
+		}
+		if(writer != null){
+			try{
+				writer.write((ok ? OK : FAIL) + "\t" + seq + "\t" + path + "\n");
+			}catch(IOException e){
+				System.out.println("could not write journal: " + e.getMessage());
+			}
+		}
+		advance(seq, path);
+		if(++unflushed >= FLUSH_EVERY){
+			flush();
+		}
+	}
+
+	/**
+	 * Flushes the journal and writes a checkpoint.
+	 */
+	public synchronized void flush(){
+		unflushed = 0;
+		if(writer == null){
+			return;
+		}
+		try{
+			writer.flush();
+			File tmp = new File(checkpoint.getPath() + ".tmp");
+			Writer out = new OutputStreamWriter(new FileOutputStream(tmp), UTF8);
+			try{
+				out.write(watermark + "\t" + (watermarkPath != null ? watermarkPath : "") + "\n");
+			}finally{
+				out.close();
+			}
+			Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}catch(IOException e){
+			System.out.println("could not write checkpoint: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Closes a journal whose sync did not finish, leaving it ready to resume.
+	 */
+	public synchronized void close(){
+		flush();
+		closeWriter();
+	}
+
+	/**
+	 * Marks the sync as complete, compacting the journal down to the artifacts
+	 * that failed and removing the checkpoint.
+	 */
+	public synchronized void finish() throws IOException {
+		flush();
+		closeWriter();
+		File compacted = new File(journal.getPath() + ".tmp");
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF8));
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compacted), UTF8));
+		int failures = 0;
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				if(line.startsWith(FAIL + "\t")){
+					out.write(line);
+					out.write('\n');
+					failures++;
+				}
+			}
+		}finally{
+			reader.close();
+			out.close();
+		}
+		Files.move(compacted.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		checkpoint.delete();
+		System.out.println("Sync complete, journal compacted to " + failures + " failures in " + journal.getPath());
+	}
+
+	private synchronized void skipped(){
+		skippedCount++;
+	}
+
+	// advance the watermark over every contiguous finished position
+	private synchronized void advance(long seq, String path){
+		if(seq != watermark){
+			done.put(seq, path);
+			return;
+		}
+		watermark++;
+		watermarkPath = path;
+		while(!done.isEmpty() && done.firstKey() == watermark){
+			watermarkPath = done.remove(watermark);
+			watermark++;
+		}
+	}
+
+	private void closeWriter(){
+		if(writer != null){
+			try{
+				writer.close();
+			}catch(IOException e){}
+			writer = null;
+		}
+	}
+
+	private void loadCheckpoint() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), UTF8));
+		try{
+			String line = reader.readLine();
+			if(line != null){
+				String[] parts = line.split("\t", 2);
+				resumeFrom = Long.parseLong(parts[0]);
+				resumePath = parts.length > 1 && !parts[1].isEmpty() ? parts[1] : null;
+			}
+		}catch(NumberFormatException e){
+			System.out.println("ignoring unreadable checkpoint: " + checkpoint.getPath());
+			resumeFrom = 0;
+		}finally{
+			reader.close();
+		}
+	}
+
+	private void loadJournal() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF8));
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] parts = line.split("\t", 3);
+				if(parts.length != 3 || !OK.equals(parts[0])){
+					continue;
+				}
+				try{
+					if(Long.parseLong(parts[1]) >= resumeFrom){
+						completed.add(parts[2]);
+					}
+				}catch(NumberFormatException e){}
+			}
+		}finally{
+			reader.close();
+		}
+	}
+}
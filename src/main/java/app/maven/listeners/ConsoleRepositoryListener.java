@@ -1,48 +1,44 @@
 package app.maven.listeners;
 
-import java.io.PrintStream;
-
 import org.eclipse.aether.AbstractRepositoryListener;
 import org.eclipse.aether.RepositoryEvent;
 
+import app.maven.logging.SyncLog;
+
 /**
- * A simplistic repository listener that logs events to the console.
+ * A simplistic repository listener that logs events through the sync log.
  */
 public class ConsoleRepositoryListener extends AbstractRepositoryListener
 {
-    private PrintStream out = System.out;
-    private PrintStream err = System.err;
-
     public void artifactDescriptorInvalid(RepositoryEvent event) {
-        err.println("artifact descriptor invalid: " + event.getArtifact()
-                + " : " + event.getException().getMessage());
+        SyncLog.warn("artifact descriptor invalid", event.getArtifact(), event.getException().getMessage());
     }
 
     public void artifactDescriptorMissing(RepositoryEvent event) {
-        err.println("artifact descriptor missing: " + event.getArtifact());
+        SyncLog.warn("artifact descriptor missing", event.getArtifact());
     }
 
     public void artifactInstalled(RepositoryEvent event) {
-        out.println("artifact installed: " + event.getArtifact() + " : " + event.getFile());   
+        SyncLog.info("artifact installed", event.getArtifact(), event.getFile());
     }
 
     public void artifactResolved(RepositoryEvent event) {
-        out.println("artifact resolved: " + event.getArtifact() + " : " + event.getRepository());
+        SyncLog.info("artifact resolved", event.getArtifact(), event.getRepository());
     }
 
     public void artifactDownloading(RepositoryEvent event) {
-        out.println("downloading " + event.getArtifact() + " : " + event.getRepository());
+        SyncLog.debug("downloading", event.getArtifact());
     }
 
     public void artifactDownloaded(RepositoryEvent event) {
-        out.println("downloaded " + event.getArtifact() + " : " + event.getRepository());
+        SyncLog.info("downloaded", event.getArtifact(), event.getRepository());
     }
 
     public void metadataInvalid(RepositoryEvent event) {
-        err.println("metadata invalid: " + event.getMetadata());
+        SyncLog.warn("metadata invalid", event.getMetadata());
     }
 
     public void metadataResolved(RepositoryEvent event) {
-        out.println("metadata resolved: " + event.getMetadata() + " : " + event.getRepository());
+        SyncLog.info("metadata resolved", event.getMetadata(), event.getRepository());
     }
  }
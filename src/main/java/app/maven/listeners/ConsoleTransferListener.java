@@ -3,15 +3,17 @@ package app.maven.listeners;
 import org.apache.maven.wagon.events.TransferEvent;
 import org.apache.maven.wagon.observers.AbstractTransferListener;
 
+import app.maven.logging.SyncLog;
+
 /**
- * A simplistic transfer listener that logs events to the console.
+ * A simplistic transfer listener that logs events through the sync log.
  */
 public class ConsoleTransferListener extends AbstractTransferListener
 {
 
 	public void transferStarted( TransferEvent transferEvent )
     {
-        System.out.print( "  Downloading " + transferEvent.getResource().getName() );
+        SyncLog.info( "downloading index file", transferEvent.getResource().getName() );
     }
 
     public void transferProgress( TransferEvent transferEvent, byte[] buffer, int length )
@@ -20,7 +22,12 @@ public class ConsoleTransferListener extends AbstractTransferListener
 
     public void transferCompleted( TransferEvent transferEvent )
     {
-        System.out.println( " - Done" );
+        SyncLog.info( "downloaded index file", transferEvent.getResource().getName() );
+    }
+
+    public void transferError( TransferEvent transferEvent )
+    {
+        SyncLog.warn( "index file failed", transferEvent.getResource().getName(), transferEvent.getException() );
     }
 
 }
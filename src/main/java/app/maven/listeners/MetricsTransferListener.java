@@ -0,0 +1,37 @@
+package app.maven.listeners;
+
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferResource;
+
+import app.maven.metrics.SyncMetrics;
+
+/**
+ * Records the transfers made while resolving in the sync metrics: how long
+ * each repository took to start responding and how many bytes it sent.
+ */
+public class MetricsTransferListener extends AbstractTransferListener
+{
+    private final SyncMetrics metrics;
+
+    public MetricsTransferListener( SyncMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
+    public void transferStarted( TransferEvent event )
+    {
+        TransferResource resource = event.getResource();
+        metrics.request( resource.getRepositoryUrl(), System.currentTimeMillis() - resource.getTransferStartTime() );
+    }
+
+    public void transferSucceeded( TransferEvent event )
+    {
+        metrics.transferred( event.getTransferredBytes() );
+    }
+
+    public void transferFailed( TransferEvent event )
+    {
+        metrics.transferred( event.getTransferredBytes() );
+    }
+}
@@ -0,0 +1,425 @@
+package app.maven.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import app.maven.metrics.SyncMetrics;
+import app.maven.utils.Json;
+
+/**
+ * Asynchronous log for per-artifact events.
+ *
+ * Callers only append an entry to a bounded queue; a single daemon thread
+ * drains it in batches, formats the lines and writes each batch to the
+ * console with one call, and optionally as JSON lines to a file. Subjects are
+ * converted to strings on that thread, so they must not change after being
+ * logged. When the queue is full, debug and info entries are dropped and
+ * counted rather than blocking a download thread.
+ *
+ * In quiet mode the console only gets warnings, errors and a periodic
+ * progress line built from the run's metrics, while the JSON file still
+ * receives every entry.
+ */
+public class SyncLog {
+
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	private static final int CAPACITY = 64 * 1024;
+	private static final int BATCH = 1024;
+	private static final long IDLE_WAIT = 1000;
+
+	private static volatile SyncLog current;
+
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(CAPACITY);
+	private final AtomicLong dropped = new AtomicLong();
+	private final Object sinks = new Object();
+	private final PrintStream console;
+	private volatile Level level = Level.INFO;
+	private volatile boolean quiet = false;
+	private volatile int threshold = Level.INFO.ordinal();
+	private Writer json;
+	private volatile SyncMetrics progress;
+	private volatile long progressInterval;
+	private Thread writer;
+	private volatile boolean closed = false;
+
+	// progress snapshot, only touched by the writer thread
+	private SyncMetrics lastMetrics;
+	private long lastProgress;
+	private long lastDone;
+	private long lastBytes;
+
+	/**
+	 * A log writing to the given console, or to whatever System.out is at the
+	 * time of writing when null.
+	 */
+	public SyncLog(PrintStream console){
+		this.console = console;
+	}
+
+	/**
+	 * The process wide log, started on first use and flushed at shutdown.
+	 */
+	public static SyncLog get(){
+		SyncLog log = current;
+		if(log == null){
+			synchronized(SyncLog.class){
+				log = current;
+				if(log == null){
+					log = new SyncLog(null);
+					log.start();
+					Runtime.getRuntime().addShutdownHook(new Thread("sync-log-shutdown"){
+						public void run(){
+							current.close();
+						}
+					});
+					current = log;
+				}
+			}
+		}
+		return log;
+	}
+
+	public static void debug(String event, Object subject){
+		get().log(Level.DEBUG, event, subject, null);
+	}
+
+	public static void info(String event, Object subject){
+		get().log(Level.INFO, event, subject, null);
+	}
+
+	public static void info(String event, Object subject, Object detail){
+		get().log(Level.INFO, event, subject, detail);
+	}
+
+	public static void warn(String event, Object subject){
+		get().log(Level.WARN, event, subject, null);
+	}
+
+	public static void warn(String event, Object subject, Object detail){
+		get().log(Level.WARN, event, subject, detail);
+	}
+
+	public static void error(String event, Object subject){
+		get().log(Level.ERROR, event, subject, null);
+	}
+
+	public synchronized void start(){
+		if(writer != null){
+			return;
+		}
+		writer = new Thread("sync-log"){
+			public void run(){
+				drain();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public boolean isEnabled(Level level){
+		return level.ordinal() >= threshold;
+	}
+
+	/**
+	 * Queues an entry, rendered on the console as "event: subject : detail".
+	 */
+	public void log(Level level, String event, Object subject, Object detail){
+		if(level.ordinal() < threshold){
+			return;
+		}
+		Entry entry = new Entry(level, event, subject, detail);
+		if(closed){
+			write(Collections.singletonList(entry));
+			return;
+		}
+		if(!queue.offer(entry)){
+			if(level.ordinal() < Level.WARN.ordinal()){
+				dropped.incrementAndGet();
+				return;
+			}
+			try {
+				queue.put(entry);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public void setLevel(Level level){
+		this.level = level;
+		updateThreshold();
+	}
+
+	public Level getLevel(){
+		return level;
+	}
+
+	/**
+	 * Print only warnings, errors and the progress line on the console.
+	 */
+	public void setQuiet(boolean quiet){
+		this.quiet = quiet;
+		updateThreshold();
+	}
+
+	public boolean isQuiet(){
+		return quiet;
+	}
+
+	/**
+	 * Also write every entry as a JSON object per line to this file, appending
+	 * to it if it exists, or stop writing JSON when null.
+	 */
+	public void setJsonFile(File file) throws IOException {
+		Writer opened = null;
+		if(file != null){
+			File parent = file.getAbsoluteFile().getParentFile();
+			if(parent != null){
+				parent.mkdirs();
+			}
+			opened = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"), 64 * 1024);
+		}
+		synchronized(sinks){
+			if(json != null){
+				json.close();
+			}
+			json = opened;
+		}
+		updateThreshold();
+	}
+
+	/**
+	 * Log a progress line every interval from these metrics, or stop when null.
+	 */
+	public void setProgress(SyncMetrics metrics, long intervalMillis){
+		this.progressInterval = intervalMillis;
+		this.progress = metrics;
+	}
+
+	/**
+	 * Waits until everything logged so far has been written.
+	 */
+	public void flush(){
+		if(closed || writer == null){
+			return;
+		}
+		Entry marker = new Entry(null, null, null, null);
+		marker.flushed = new CountDownLatch(1);
+		try {
+			queue.put(marker);
+			marker.flushed.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes what is queued and stops the writer; later entries are written
+	 * on the caller's thread.
+	 */
+	public void close(){
+		flush();
+		closed = true;
+		if(writer != null){
+			writer.interrupt();
+		}
+		synchronized(sinks){
+			if(json != null){
+				try {
+					json.flush();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	private void updateThreshold(){
+		boolean sink;
+		synchronized(sinks){
+			sink = !quiet || json != null;
+		}
+		threshold = sink ? level.ordinal() : Math.max(level.ordinal(), Level.WARN.ordinal());
+	}
+
+	private void drain(){
+		List<Entry> batch = new ArrayList<Entry>(BATCH);
+		while(!closed){
+			try {
+				Entry first = queue.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+				if(first != null){
+					batch.add(first);
+					queue.drainTo(batch, BATCH - 1);
+				}
+			} catch (InterruptedException e) {
+				if(closed){
+					break;
+				}
+			}
+			write(batch);
+			for(Entry entry: batch){
+				if(entry.flushed != null){
+					entry.flushed.countDown();
+				}
+			}
+			batch.clear();
+			progress();
+		}
+	}
+
+	private void write(List<Entry> batch){
+		long lost = dropped.getAndSet(0);
+		StringBuilder lines = new StringBuilder(batch.size() * 96);
+		StringBuilder objects = null;
+		synchronized(sinks){
+			if(json != null){
+				objects = new StringBuilder(batch.size() * 160);
+			}
+			if(lost > 0){
+				Entry entry = new Entry(Level.WARN, "log entries dropped", lost, null);
+				format(entry, lines, objects);
+			}
+			for(Entry entry: batch){
+				if(entry.level != null){
+					format(entry, quiet && entry.level.ordinal() < Level.WARN.ordinal() ? null : lines, objects);
+				}
+			}
+			try {
+				if(objects != null && objects.length() > 0){
+					json.write(objects.toString());
+					json.flush();
+				}
+			} catch (IOException e) {
+				lines.append("could not write log file: ").append(e.getMessage()).append('\n');
+			}
+		}
+		if(lines.length() > 0){
+			PrintStream out = console != null ? console : System.out;
+			out.print(lines);
+			out.flush();
+		}
+	}
+
+	private void format(Entry entry, StringBuilder lines, StringBuilder objects){
+		String subject = entry.subject != null ? entry.subject.toString() : null;
+		String detail = entry.detail != null ? entry.detail.toString() : null;
+		if(lines != null){
+			if(entry.level.ordinal() >= Level.WARN.ordinal()){
+				lines.append(entry.level).append(' ');
+			}
+			lines.append(entry.event);
+			if(subject != null){
+				lines.append(": ").append(subject);
+			}
+			if(detail != null){
+				lines.append(" : ").append(detail);
+			}
+			lines.append('\n');
+		}
+		if(objects != null){
+			objects.append("{\"time\":").append(entry.time)
+				.append(",\"level\":\"").append(entry.level)
+				.append("\",\"thread\":");
+			Json.quote(objects, entry.thread);
+			objects.append(",\"event\":");
+			Json.quote(objects, entry.event);
+			if(subject != null){
+				objects.append(",\"subject\":");
+				Json.quote(objects, subject);
+			}
+			if(detail != null){
+				objects.append(",\"detail\":");
+				Json.quote(objects, detail);
+			}
+			objects.append("}\n");
+		}
+	}
+
+	private void progress(){
+		SyncMetrics metrics = progress;
+		long now = System.currentTimeMillis();
+		if(metrics != lastMetrics){
+			lastMetrics = metrics;
+			lastProgress = now;
+			lastDone = 0;
+			lastBytes = 0;
+		}
+		if(metrics == null || progressInterval <= 0 || now - lastProgress < progressInterval){
+			return;
+		}
+		long done = metrics.getArtifactsSkipped() + metrics.getArtifactsDownloaded() + metrics.getArtifactsFailed();
+		long bytes = metrics.getBytesTransferred();
+		long elapsed = Math.max(1, now - lastProgress);
+		StringBuilder line = new StringBuilder(160);
+		line.append("progress");
+		if(metrics.getShard() != null){
+			line.append(" (shard ").append(metrics.getShard()).append(')');
+		}
+		line.append(": ").append(done).append('/').append(metrics.getArtifactsAttempted()).append(" done (")
+			.append(metrics.getArtifactsSkipped()).append(" valid, ")
+			.append(metrics.getArtifactsDownloaded()).append(" downloaded, ")
+			.append(metrics.getArtifactsFailed()).append(" failed), ")
+			.append((done - lastDone) * 1000 / elapsed).append(" artifacts/s, ")
+			.append((bytes - lastBytes) * 1000 / elapsed / 1024).append("KB/s, ")
+			.append(metrics.getQueueDepth()).append(" queued\n");
+		lastProgress = now;
+		lastDone = done;
+		lastBytes = bytes;
+
+		synchronized(sinks){
+			if(json != null){
+				StringBuilder object = new StringBuilder(200);
+				object.append("{\"time\":").append(now)
+					.append(",\"level\":\"INFO\",\"event\":\"progress\"");
+				if(metrics.getShard() != null){
+					object.append(",\"shard\":");
+					Json.quote(object, metrics.getShard());
+				}
+				object.append(",\"attempted\":").append(metrics.getArtifactsAttempted())
+					.append(",\"skipped\":").append(metrics.getArtifactsSkipped())
+					.append(",\"downloaded\":").append(metrics.getArtifactsDownloaded())
+					.append(",\"failed\":").append(metrics.getArtifactsFailed())
+					.append(",\"bytes\":").append(bytes)
+					.append(",\"queued\":").append(metrics.getQueueDepth()).append("}\n");
+				try {
+					json.write(object.toString());
+					json.flush();
+				} catch (IOException e) {}
+			}
+		}
+		PrintStream out = console != null ? console : System.out;
+		out.print(line);
+		out.flush();
+	}
+
+	private static class Entry {
+		final long time = System.currentTimeMillis();
+		final String thread = Thread.currentThread().getName();
+		final Level level;
+		final String event;
+		final Object subject;
+		final Object detail;
+		CountDownLatch flushed;
+
+		Entry(Level level, String event, Object subject, Object detail){
+			this.level = level;
+			this.event = event;
+			this.subject = subject;
+			this.detail = detail;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package app.maven.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in milliseconds into fixed buckets.
+ *
+ * Recording is a few atomic increments with no locking, so it is safe to call
+ * from every download thread. Percentiles are estimated as the upper bound of
+ * the bucket they fall in.
+ */
+public class Histogram {
+
+	// upper bounds in milliseconds, the last bucket is unbounded
+	static final long[] BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long millis){
+		int i = 0;
+		while(i < BOUNDS.length && millis > BOUNDS[i]){
+			i++;
+		}
+		buckets.incrementAndGet(i);
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+		long current;
+		while(millis > (current = max.get()) && !max.compareAndSet(current, millis)){}
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getSum(){
+		return sum.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public double getMean(){
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Upper bound of the bucket holding the given quantile, or the maximum
+	 * recorded value if that is smaller.
+	 */
+	public long percentile(double quantile){
+		long n = count.get();
+		if(n == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(quantile * n);
+		long seen = 0;
+		for(int i=0;i<BOUNDS.length;i++){
+			seen += buckets.get(i);
+			if(seen >= rank){
+				return Math.min(BOUNDS[i], max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Appends the histogram in Prometheus text format, in seconds.
+	 */
+	void writePrometheus(StringBuilder out, String name, String labels){
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		long cumulative = 0;
+		for(int i=0;i<BOUNDS.length;i++){
+			cumulative += buckets.get(i);
+			out.append(name).append("_bucket{").append(prefix).append("le=\"").append(BOUNDS[i] / 1000.0).append("\"} ")
+				.append(cumulative).append('\n');
+		}
+		cumulative += buckets.get(BOUNDS.length);
+		out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+		String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+		out.append(name).append("_sum").append(braces).append(' ').append(sum.get() / 1000.0).append('\n');
+		out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+	}
+}
@@ -0,0 +1,73 @@
+package app.maven.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves sync metrics at /metrics in Prometheus text format.
+ *
+ * The server only listens on the loopback interface, runs on a single daemon
+ * thread and renders the metrics on each scrape.
+ */
+public class MetricsServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final SyncMetrics metrics;
+	private final int port;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public MetricsServer(SyncMetrics metrics, int port){
+		this.metrics = metrics;
+		this.port = port;
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "metrics-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/metrics", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = metrics.toPrometheus().getBytes(UTF8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try{
+					out.write(body);
+				}finally{
+					out.close();
+				}
+			}
+		});
+		server.start();
+		System.out.println("Serving metrics on http://127.0.0.1:" + getPort() + "/metrics");
+	}
+
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	public void stop(){
+		if(server != null){
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package app.maven.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings for a sync run.
+ *
+ * Artifacts are counted as attempted when a worker or batch takes them on,
+ * then as skipped when the local copy was already valid, downloaded or
+ * failed. Request latency is kept per mirror, alongside checksum and resolve
+ * batch durations. The same figures are published over JMX, in Prometheus
+ * format by MetricsServer, and as a summary at the end of the run.
+ */
+public class SyncMetrics implements SyncMetricsMBean {
+
+	public static final String OBJECT_NAME = "app.maven:type=SyncMetrics";
+
+	/**
+	 * A value read when the metrics are published.
+	 */
+	public interface Gauge {
+		long value();
+	}
+
+	private final AtomicLong attempted = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong downloaded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final Histogram checksums = new Histogram();
+	private final Histogram batches = new Histogram();
+	private final ConcurrentMap<String, Histogram> requests = new ConcurrentHashMap<String, Histogram>();
+	private volatile Gauge queueDepth;
+	private volatile String shard;
+	private final long started = System.currentTimeMillis();
+	private final SyncMetrics parent;
+
+	public SyncMetrics(){
+		this(null);
+	}
+
+	/**
+	 * Metrics of one job that also count towards the parent's totals, which
+	 * keep covering every job while each job reports only its own figures.
+	 */
+	public SyncMetrics(SyncMetrics parent){
+		this.parent = parent;
+	}
+
+	public void attempted(int count){
+		attempted.addAndGet(count);
+		if(parent != null){
+			parent.attempted(count);
+		}
+	}
+
+	public void skipped(){
+		skipped.incrementAndGet();
+		if(parent != null){
+			parent.skipped();
+		}
+	}
+
+	public void downloaded(int count){
+		downloaded.addAndGet(count);
+		if(parent != null){
+			parent.downloaded(count);
+		}
+	}
+
+	public void failed(int count){
+		failed.addAndGet(count);
+		if(parent != null){
+			parent.failed(count);
+		}
+	}
+
+	public void transferred(long count){
+		if(count > 0){
+			bytes.addAndGet(count);
+			if(parent != null){
+				parent.transferred(count);
+			}
+		}
+	}
+
+	/**
+	 * Time from sending a request to a mirror until the response started.
+	 */
+	public void request(String mirror, long millis){
+		Histogram histogram = requests.get(mirror);
+		if(histogram == null){
+			Histogram created = new Histogram();
+			histogram = requests.putIfAbsent(mirror, created);
+			if(histogram == null){
+				histogram = created;
+			}
+		}
+		histogram.record(millis);
+		if(parent != null){
+			parent.request(mirror, millis);
+		}
+	}
+
+	public void checksum(long millis){
+		checksums.record(millis);
+		if(parent != null){
+			parent.checksum(millis);
+		}
+	}
+
+	public void batch(long millis){
+		batches.record(millis);
+		if(parent != null){
+			parent.batch(millis);
+		}
+	}
+
+	/**
+	 * Reports the download engine's backlog, until replaced or cleared with null.
+	 */
+	public void setQueueDepth(Gauge queueDepth){
+		this.queueDepth = queueDepth;
+	}
+
+	/**
+	 * The shard this run syncs, as "i/N", or null for everything.
+	 */
+	public void setShard(String shard){
+		this.shard = shard;
+	}
+
+	public String getShard(){
+		return shard;
+	}
+
+	/**
+	 * Publishes these metrics on the platform MBean server.
+	 */
+	public void register(){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(server.isRegistered(name)){
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			System.out.println("could not register metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	public long getArtifactsAttempted(){
+		return attempted.get();
+	}
+
+	public long getArtifactsSkipped(){
+		return skipped.get();
+	}
+
+	public long getArtifactsDownloaded(){
+		return downloaded.get();
+	}
+
+	public long getArtifactsFailed(){
+		return failed.get();
+	}
+
+	public long getBytesTransferred(){
+		return bytes.get();
+	}
+
+	public long getQueueDepth(){
+		Gauge gauge = queueDepth;
+		return gauge != null ? gauge.value() : 0;
+	}
+
+	public long getChecksumCount(){
+		return checksums.getCount();
+	}
+
+	public double getChecksumMeanMillis(){
+		return checksums.getMean();
+	}
+
+	public long getBatchCount(){
+		return batches.getCount();
+	}
+
+	public double getBatchMeanMillis(){
+		return batches.getMean();
+	}
+
+	public long getRequestCount(){
+		long count = 0;
+		for(Histogram histogram: requests.values()){
+			count += histogram.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * 95th percentile request latency of the busiest mirror.
+	 */
+	public long getRequestP95Millis(){
+		Histogram busiest = null;
+		for(Histogram histogram: requests.values()){
+			if(busiest == null || histogram.getCount() > busiest.getCount()){
+				busiest = histogram;
+			}
+		}
+		return busiest != null ? busiest.percentile(0.95) : 0;
+	}
+
+	public Histogram getRequests(String mirror){
+		return requests.get(mirror);
+	}
+
+	/**
+	 * All metrics in the Prometheus text exposition format.
+	 */
+	public String toPrometheus(){
+		StringBuilder out = new StringBuilder(4096);
+		if(shard != null){
+			out.append("# HELP mvnsync_shard_info The shard this node syncs\n");
+			out.append("# TYPE mvnsync_shard_info gauge\n");
+			out.append("mvnsync_shard_info{shard=\"").append(escape(shard)).append("\"} 1\n");
+		}
+		counter(out, "mvnsync_artifacts_attempted_total", "Artifacts taken on by a worker or batch", attempted.get());
+		counter(out, "mvnsync_artifacts_skipped_total", "Artifacts whose local copy was already valid", skipped.get());
+		counter(out, "mvnsync_artifacts_downloaded_total", "Artifacts downloaded or resolved", downloaded.get());
+		counter(out, "mvnsync_artifacts_failed_total", "Artifacts that could not be synced", failed.get());
+		counter(out, "mvnsync_bytes_transferred_total", "Bytes received from remote repositories", bytes.get());
+		out.append("# HELP mvnsync_queue_depth Artifacts read from the source waiting for a download worker\n");
+		out.append("# TYPE mvnsync_queue_depth gauge\n");
+		out.append("mvnsync_queue_depth ").append(getQueueDepth()).append('\n');
+
+		out.append("# HELP mvnsync_request_seconds Time until a mirror started responding\n");
+		out.append("# TYPE mvnsync_request_seconds histogram\n");
+		for(Map.Entry<String, Histogram> entry: new TreeMap<String, Histogram>(requests).entrySet()){
+			entry.getValue().writePrometheus(out, "mvnsync_request_seconds", "mirror=\"" + escape(entry.getKey()) + "\"");
+		}
+		out.append("# HELP mvnsync_checksum_seconds Time spent hashing local artifacts\n");
+		out.append("# TYPE mvnsync_checksum_seconds histogram\n");
+		checksums.writePrometheus(out, "mvnsync_checksum_seconds", "");
+		out.append("# HELP mvnsync_batch_seconds Time taken by each resolve or collect batch\n");
+		out.append("# TYPE mvnsync_batch_seconds histogram\n");
+		batches.writePrometheus(out, "mvnsync_batch_seconds", "");
+		return out.toString();
+	}
+
+	private static void counter(StringBuilder out, String name, String help, long value){
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static String escape(String label){
+		return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Human readable totals for the end of a run.
+	 */
+	public String getSummary(){
+		long elapsed = Math.max(1, System.currentTimeMillis() - started);
+		StringBuilder out = new StringBuilder();
+		if(shard != null){
+			out.append("Shard: ").append(shard).append('\n');
+		}
+		out.append("Artifacts: ").append(attempted.get()).append(" attempted, ")
+			.append(skipped.get()).append(" already valid, ")
+			.append(downloaded.get()).append(" downloaded, ")
+			.append(failed.get()).append(" failed\n");
+		out.append("Transferred: ").append(bytes.get() / (1024 * 1024)).append("MB at ")
+			.append(bytes.get() * 1000 / elapsed / 1024).append("KB/s over ").append(elapsed / 1000).append("s\n");
+		if(checksums.getCount() > 0){
+			out.append("Checksums: ").append(checksums.getCount()).append(", ").append(timing(checksums)).append('\n');
+		}
+		if(batches.getCount() > 0){
+			out.append("Batches: ").append(batches.getCount()).append(", ").append(timing(batches)).append('\n');
+		}
+		for(Map.Entry<String, Histogram> entry: new TreeMap<String, Histogram>(requests).entrySet()){
+			out.append("Requests to ").append(entry.getKey()).append(": ").append(entry.getValue().getCount())
+				.append(", ").append(timing(entry.getValue())).append('\n');
+		}
+		return out.toString();
+	}
+
+	private static String timing(Histogram histogram){
+		return "mean " + Math.round(histogram.getMean()) + "ms, p50 " + histogram.percentile(0.5)
+			+ "ms, p95 " + histogram.percentile(0.95) + "ms, max " + histogram.getMax() + "ms";
+	}
+}
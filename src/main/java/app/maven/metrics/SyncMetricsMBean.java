@@ -0,0 +1,35 @@
+package app.maven.metrics;
+
+/**
+ * JMX view of a running sync.
+ */
+public interface SyncMetricsMBean {
+
+	long getArtifactsAttempted();
+
+	long getArtifactsSkipped();
+
+	long getArtifactsDownloaded();
+
+	long getArtifactsFailed();
+
+	long getBytesTransferred();
+
+	long getQueueDepth();
+
+	long getChecksumCount();
+
+	double getChecksumMeanMillis();
+
+	long getBatchCount();
+
+	double getBatchMeanMillis();
+
+	long getRequestCount();
+
+	long getRequestP95Millis();
+
+	String getShard();
+
+	String getSummary();
+}
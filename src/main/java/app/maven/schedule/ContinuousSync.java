@@ -0,0 +1,143 @@
+package app.maven.schedule;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.IteratorResultSet;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+
+import app.maven.Aether;
+import app.maven.MavenSearcher;
+import app.maven.logging.SyncLog;
+
+/**
+ * Keeps a local repository following the remote one: every interval the
+ * index is updated and only the artifacts the update added are synced, the
+ * same as an --incremental run, while the indexer and download threads stay
+ * open between cycles.
+ *
+ * A cycle that downloads a new index, or gets a full index update, syncs
+ * everything. One that could not look up or sync all of its delta leaves it
+ * pending in .remote-index/pending-delta.txt, or pending-delta-i-of-N.txt for
+ * a shard, for the next, even across restarts.
+ * Each wait adds a random jitter so several mirrors scheduled alike do not
+ * poll the remote repository at the same moment. A cycle that overruns the
+ * interval is followed by the next one straight away.
+ */
+public class ContinuousSync {
+
+	private final Aether aether;
+	private final MavenSearcher searcher;
+	private final long intervalMillis;
+	private final long jitterMillis;
+	private final Random random = new Random();
+	private final CountDownLatch stop = new CountDownLatch(1);
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private boolean direct = false;
+
+	public ContinuousSync(Aether aether, MavenSearcher searcher, long intervalMillis, long jitterMillis){
+		if(intervalMillis <= 0 || jitterMillis < 0){
+			// a zero interval would poll the remote repository in a hot loop
+			throw new IllegalArgumentException("interval must be positive and jitter not negative");
+		}
+		this.aether = aether;
+		this.searcher = searcher;
+		this.intervalMillis = intervalMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Download directly instead of resolving.
+	 */
+	public void setDirect(boolean direct){
+		this.direct = direct;
+	}
+
+	/**
+	 * Syncs until stop is called, returning the number of cycles run. The
+	 * caller should hold the repository's lock.
+	 */
+	public int run() throws IOException, ComponentLookupException, PlexusContainerException, InterruptedException {
+		int cycles = 0;
+		searcher.setIncremental(true);
+		searcher.setupIndexer();
+		aether.shareDownloads();
+		try{
+			while(stop.getCount() > 0){
+				long start = System.currentTimeMillis();
+				cycles++;
+				System.out.println("Sync cycle " + cycles + " started");
+				try{
+					cycle();
+				}catch(Exception e){
+					// the remote or the index may be back by the next cycle
+					System.out.println("Sync cycle " + cycles + " failed: " + e.getMessage());
+				}
+				long delay = delay(intervalMillis, jitterMillis, System.currentTimeMillis() - start, random);
+				System.out.println("Sync cycle " + cycles + " finished in " + ((System.currentTimeMillis() - start) / 1000)
+					+ "s, next in " + (delay / 1000) + "s");
+				if(stop.await(delay, TimeUnit.MILLISECONDS)){
+					break;
+				}
+			}
+		}finally{
+			aether.closeSharedDownloads();
+			searcher.closeIndex();
+			stopped.countDown();
+		}
+		return cycles;
+	}
+
+	private void cycle() throws Exception {
+		searcher.updateIndex();
+		Aether sync = new Aether(aether);
+		Iterator<ArtifactInfo> deps = searcher.loadDependenciesFromDelta();
+		IteratorResultSet results = null;
+		if(deps == null){
+			System.out.println("Index was not updated incrementally, syncing everything");
+			results = searcher.loadDependenciesFromIndex();
+			deps = results;
+		}
+		try{
+			if(direct){
+				sync.setMethod(Aether.DIRECT);
+				sync.directDownload(deps);
+			}else{
+				sync.resolve(deps);
+			}
+		}finally{
+			if(results != null){
+				results.close();
+			}
+		}
+		// the delta is kept for the next cycle unless all of it was looked up and synced
+		if(!searcher.completeDelta(!sync.hasMax() && sync.getMetrics().getArtifactsFailed() == 0) && results == null){
+			System.out.println("Sync cycle left artifacts pending, retrying them next cycle");
+		}
+		SyncLog.get().flush();
+		System.out.print(sync.getMetrics().getSummary());
+	}
+
+	/**
+	 * Asks the loop to stop after the running cycle and waits up to
+	 * timeoutMillis for it to do so.
+	 */
+	public void stop(long timeoutMillis) throws InterruptedException {
+		stop.countDown();
+		stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The wait before the next cycle: what is left of the interval after a
+	 * cycle that took elapsed, plus up to jitter more.
+	 */
+	public static long delay(long interval, long jitter, long elapsed, Random random){
+		long extra = jitter > 0 ? (long) (random.nextDouble() * jitter) : 0;
+		return Math.max(0, interval - elapsed) + extra;
+	}
+}
@@ -0,0 +1,119 @@
+package app.maven.schedule;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+
+/**
+ * A lock on a local repository, held through an operating system lock on
+ * .sync.lock so it is released however the process ends. A sync that owns
+ * the repository takes it exclusively and names itself in the file, for the
+ * message shown to anyone who finds it locked. Shards and batch workers,
+ * which are meant to sync one repository side by side, share it.
+ */
+public class RepositoryLock implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileLock lock;
+
+	private RepositoryLock(File file, RandomAccessFile raf, FileLock lock){
+		this.file = file;
+		this.raf = raf;
+		this.lock = lock;
+	}
+
+	/**
+	 * Locks the repository in basedir exclusively, or returns null if another
+	 * process, or another lock in this one, already holds it.
+	 */
+	public static RepositoryLock tryAcquire(File basedir) throws IOException {
+		return tryAcquire(basedir, false);
+	}
+
+	/**
+	 * Locks the repository in basedir, shared with other shared holders, or
+	 * returns null if it is held exclusively.
+	 */
+	public static RepositoryLock tryAcquireShared(File basedir) throws IOException {
+		return tryAcquire(basedir, true);
+	}
+
+	private static RepositoryLock tryAcquire(File basedir, boolean shared) throws IOException {
+		basedir.mkdirs();
+		File file = new File(basedir, ".sync.lock");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileLock lock = null;
+		try{
+			lock = raf.getChannel().tryLock(0, Long.MAX_VALUE, shared);
+		}catch(OverlappingFileLockException e){
+			lock = null;
+		}finally{
+			if(lock == null){
+				raf.close();
+			}
+		}
+		if(lock == null){
+			return null;
+		}
+		FileChannel channel = raf.getChannel();
+		// drops the name an exclusive holder left if it was killed
+		channel.truncate(0);
+		if(shared){
+			return new RepositoryLock(file, raf, lock);
+		}
+		channel.write(ByteBuffer.wrap((ManagementFactory.getRuntimeMXBean().getName() + "\n").getBytes(UTF8)), 0);
+		channel.force(false);
+		return new RepositoryLock(file, raf, lock);
+	}
+
+	/**
+	 * Who holds the lock on the repository in basedir exclusively, as
+	 * pid@host, or null if that is not recorded.
+	 */
+	public static String holder(File basedir){
+		File file = new File(basedir, ".sync.lock");
+		try{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try{
+				byte[] name = new byte[(int) Math.min(raf.length(), 1024)];
+				raf.readFully(name);
+				String holder = new String(name, UTF8).trim();
+				return holder.isEmpty() ? null : holder;
+			}finally{
+				raf.close();
+			}
+		}catch(IOException e){
+			return null;
+		}
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	public boolean isShared(){
+		return lock.isShared();
+	}
+
+	public void close() throws IOException {
+		try{
+			if(!lock.isShared()){
+				// so a later shared holder is not taken for this one
+				raf.setLength(0);
+			}
+			lock.release();
+		}finally{
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package app.maven.snapshot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.utils.Helper;
+
+/**
+ * The differences between a remote and a local snapshot, found by walking
+ * both in key order at once, so the diff takes one pass and constant memory
+ * however large the snapshots are.
+ *
+ * Artifacts only in the remote snapshot are missing, ones only in the local
+ * snapshot are extra, and ones in both whose size or SHA-1 disagree are
+ * changed. Unchanged artifacts are only counted.
+ */
+public class SnapshotDiff implements Iterator<SnapshotDiff.Change> {
+
+	public enum Kind {
+		MISSING, CHANGED, EXTRA
+	}
+
+	public static class Change {
+		private final Kind kind;
+		private final SnapshotEntry remote;
+		private final SnapshotEntry local;
+
+		Change(Kind kind, SnapshotEntry remote, SnapshotEntry local){
+			this.kind = kind;
+			this.remote = remote;
+			this.local = local;
+		}
+
+		public Kind getKind(){
+			return kind;
+		}
+
+		/**
+		 * The remote entry, null for extra artifacts.
+		 */
+		public SnapshotEntry getRemote(){
+			return remote;
+		}
+
+		/**
+		 * The local entry, null for missing artifacts.
+		 */
+		public SnapshotEntry getLocal(){
+			return local;
+		}
+
+		public String toString(){
+			return kind + " " + (remote != null ? remote : local);
+		}
+	}
+
+	private final Iterator<SnapshotEntry> remote;
+	private final Iterator<SnapshotEntry> local;
+	private SnapshotEntry remoteHead;
+	private SnapshotEntry localHead;
+	private Change next;
+	private long missing = 0;
+	private long changed = 0;
+	private long extra = 0;
+	private long unchanged = 0;
+
+	public SnapshotDiff(Iterator<SnapshotEntry> remote, Iterator<SnapshotEntry> local){
+		this.remote = remote;
+		this.local = local;
+		this.remoteHead = remote.hasNext() ? remote.next() : null;
+		this.localHead = local.hasNext() ? local.next() : null;
+	}
+
+	public boolean hasNext() {
+		while(next == null && (remoteHead != null || localHead != null)){
+			int order = remoteHead == null ? 1 : localHead == null ? -1 : remoteHead.compareTo(localHead);
+			if(order < 0){
+				next = new Change(Kind.MISSING, remoteHead, null);
+				missing++;
+				remoteHead = remote.hasNext() ? remote.next() : null;
+			}else if(order > 0){
+				next = new Change(Kind.EXTRA, null, localHead);
+				extra++;
+				localHead = local.hasNext() ? local.next() : null;
+			}else{
+				if(remoteHead.differs(localHead)){
+					next = new Change(Kind.CHANGED, remoteHead, localHead);
+					changed++;
+				}else{
+					unchanged++;
+				}
+				remoteHead = remote.hasNext() ? remote.next() : null;
+				localHead = local.hasNext() ? local.next() : null;
+			}
+		}
+		return next != null;
+	}
+
+	public Change next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		Change change = next;
+		next = null;
+		return change;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public long getMissing(){
+		return missing;
+	}
+
+	public long getChanged(){
+		return changed;
+	}
+
+	public long getExtra(){
+		return extra;
+	}
+
+	public long getUnchanged(){
+		return unchanged;
+	}
+
+	/**
+	 * The counts so far, complete once the diff has been read to the end.
+	 */
+	public String summary(){
+		return "Diff: " + missing + " missing, " + changed + " changed, " + extra + " extra, " + unchanged + " unchanged";
+	}
+
+	/**
+	 * Streams the missing and changed artifacts, with the remote size and
+	 * SHA-1, for the resolver or downloader. The .sha1 kept beside a changed
+	 * artifact in basedir no longer describes the remote file, so it is deleted
+	 * as the artifact is handed out. The downloader replaces the artifact only
+	 * once the new one is verified, but the resolver takes any file it finds as
+	 * resolved, so when resolving the artifact is deleted as well.
+	 */
+	public Iterator<ArtifactInfo> toDownload(final File basedir, final boolean resolving){
+		return new Iterator<ArtifactInfo>() {
+			private ArtifactInfo ai;
+
+			public boolean hasNext() {
+				while(ai == null && SnapshotDiff.this.hasNext()){
+					Change change = SnapshotDiff.this.next();
+					if(change.getKind() == Kind.EXTRA){
+						continue;
+					}
+					ai = change.getRemote().toArtifactInfo();
+					if(ai != null && change.getKind() == Kind.CHANGED){
+						File stale = new File(basedir, Helper.calculatePath(ai));
+						if(resolving){
+							stale.delete();
+						}
+						new File(stale.getPath() + ".sha1").delete();
+					}
+				}
+				return ai != null;
+			}
+
+			public ArtifactInfo next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				ArtifactInfo next = ai;
+				ai = null;
+				return next;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Writes the GAVs of the missing and changed artifacts to a file that
+	 * --file can sync later, returning how many were written.
+	 */
+	public long write(File gavFile) throws IOException {
+		long written = 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(gavFile), SnapshotWriter.UTF8), 64 * 1024);
+		try{
+			while(hasNext()){
+				Change change = next();
+				if(change.getKind() != Kind.EXTRA){
+					out.write(change.getRemote().getGav());
+					out.write('\n');
+					written++;
+				}
+			}
+		}finally{
+			out.close();
+		}
+		return written;
+	}
+}
@@ -0,0 +1,89 @@
+package app.maven.snapshot;
+
+import org.apache.maven.index.ArtifactInfo;
+
+import app.maven.utils.Helper;
+
+/**
+ * One artifact of a GAV snapshot: its calculateGav key with the size and
+ * SHA-1 when they are known.
+ */
+public class SnapshotEntry implements Comparable<SnapshotEntry> {
+
+	private final String gav;
+	private final long size;
+	private final String sha1;
+
+	/**
+	 * A size below zero or a null sha1 mean unknown.
+	 */
+	public SnapshotEntry(String gav, long size, String sha1){
+		this.gav = gav;
+		this.size = size < 0 ? -1 : size;
+		this.sha1 = isSha1(sha1) ? sha1.toLowerCase() : null;
+	}
+
+	private static boolean isSha1(String text){
+		if(text == null || text.length() != 40){
+			return false;
+		}
+		for(int i=0;i<40;i++){
+			if(Character.digit(text.charAt(i), 16) < 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The entry for an artifact, or null if it has no GAV (snapshot versions
+	 * and incomplete index records).
+	 */
+	public static SnapshotEntry of(ArtifactInfo ai){
+		String gav = ai.version != null ? Helper.calculateGav(ai) : null;
+		if(gav == null){
+			return null;
+		}
+		return new SnapshotEntry(gav, ai.size, ai.sha1);
+	}
+
+	public String getGav(){
+		return gav;
+	}
+
+	public long getSize(){
+		return size;
+	}
+
+	public String getSha1(){
+		return sha1;
+	}
+
+	/**
+	 * Whether the two are known to be different files: a size or SHA-1 that
+	 * both sides have and that does not match.
+	 */
+	public boolean differs(SnapshotEntry other){
+		if(size >= 0 && other.size >= 0 && size != other.size){
+			return true;
+		}
+		return sha1 != null && other.sha1 != null && !sha1.equals(other.sha1);
+	}
+
+	public ArtifactInfo toArtifactInfo(){
+		ArtifactInfo ai = Helper.buildArtifactInfo(gav);
+		if(ai != null){
+			ai.size = size;
+			ai.sha1 = sha1;
+		}
+		return ai;
+	}
+
+	public int compareTo(SnapshotEntry other) {
+		return gav.compareTo(other.gav);
+	}
+
+	public String toString(){
+		return gav;
+	}
+}
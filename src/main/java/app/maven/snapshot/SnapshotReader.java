@@ -0,0 +1,137 @@
+package app.maven.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the entries of a snapshot written by SnapshotWriter, in key order.
+ *
+ * A snapshot that cannot be read to its end marker, or whose count does not
+ * match, fails with an IllegalStateException rather than ending early, as a
+ * short snapshot would show up in a diff as artifacts to download or delete.
+ */
+public class SnapshotReader implements Iterator<SnapshotEntry>, Closeable {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File file;
+	private final DataInputStream in;
+	private byte[] key = new byte[256];
+	private int keyLength = 0;
+	private SnapshotEntry next;
+	private boolean finished = false;
+	private long count = 0;
+
+	public SnapshotReader(File file) throws IOException {
+		this.file = file;
+		this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 256 * 1024));
+		try{
+			if(in.readInt() != SnapshotWriter.MAGIC){
+				throw new IOException("not a GAV snapshot: " + file.getPath());
+			}
+			int version = in.readUnsignedByte();
+			if(version != SnapshotWriter.VERSION){
+				throw new IOException("unsupported GAV snapshot version " + version + ": " + file.getPath());
+			}
+		}catch(IOException e){
+			in.close();
+			throw e;
+		}
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	public boolean hasNext() {
+		if(next != null){
+			return true;
+		}
+		if(finished){
+			return false;
+		}
+		try {
+			int flags = in.readUnsignedByte();
+			if(flags == SnapshotWriter.END){
+				long written = in.readLong();
+				finished = true;
+				close();
+				if(written != count){
+					throw new IllegalStateException("GAV snapshot " + file.getPath() + " has " + count + " entries, expected " + written);
+				}
+				return false;
+			}
+			int shared = (int) readVarint();
+			int suffix = (int) readVarint();
+			if(shared > keyLength){
+				throw new IOException("corrupt entry after " + count + " entries");
+			}
+			if(shared + suffix > key.length){
+				key = Arrays.copyOf(key, Math.max(key.length * 2, shared + suffix));
+			}
+			in.readFully(key, shared, suffix);
+			keyLength = shared + suffix;
+			long size = (flags & SnapshotWriter.HAS_SIZE) != 0 ? readVarint() : -1;
+			String sha1 = null;
+			if((flags & SnapshotWriter.HAS_SHA1) != 0){
+				char[] hex = new char[40];
+				for(int i=0;i<20;i++){
+					int b = in.readUnsignedByte();
+					hex[i * 2] = HEX[b >>> 4];
+					hex[i * 2 + 1] = HEX[b & 0xF];
+				}
+				sha1 = new String(hex);
+			}
+			next = new SnapshotEntry(new String(key, 0, keyLength, SnapshotWriter.UTF8), size, sha1);
+			count++;
+			return true;
+		} catch (EOFException e) {
+			finished = true;
+			close();
+			throw new IllegalStateException("GAV snapshot " + file.getPath() + " is truncated after " + count + " entries");
+		} catch (IOException e) {
+			finished = true;
+			close();
+			throw new IllegalStateException("could not read GAV snapshot " + file.getPath() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for(int shift=0;shift<64;shift+=7){
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("corrupt varint after " + count + " entries");
+	}
+
+	public SnapshotEntry next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		SnapshotEntry entry = next;
+		next = null;
+		return entry;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {}
+	}
+}
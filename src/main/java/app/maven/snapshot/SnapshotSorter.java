@@ -0,0 +1,144 @@
+package app.maven.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds a snapshot from entries in any order with bounded memory.
+ *
+ * Entries are collected into runs of at most runSize, each sorted and written
+ * out as a snapshot of its own beside the target; finish() then merges the
+ * runs into the target in one pass. When everything fits in a single run it
+ * is written straight to the target.
+ */
+public class SnapshotSorter {
+
+	public static final int DEFAULT_RUN_SIZE = 256 * 1024;
+
+	private final File target;
+	private final int runSize;
+	private final List<SnapshotEntry> run;
+	private final List<File> runs = new ArrayList<File>();
+	private long added = 0;
+
+	public SnapshotSorter(File target, int runSize){
+		this.target = target;
+		this.runSize = runSize;
+		this.run = new ArrayList<SnapshotEntry>(Math.min(runSize, 64 * 1024));
+	}
+
+	public void add(SnapshotEntry entry) throws IOException {
+		run.add(entry);
+		added++;
+		if(run.size() >= runSize){
+			spill();
+		}
+	}
+
+	public long getAdded(){
+		return added;
+	}
+
+	private void spill() throws IOException {
+		File file = new File(target.getPath() + ".run" + runs.size());
+		runs.add(file);
+		write(file);
+	}
+
+	private long write(File file) throws IOException {
+		Collections.sort(run);
+		SnapshotWriter writer = new SnapshotWriter(file);
+		try{
+			for(SnapshotEntry entry: run){
+				writer.write(entry);
+			}
+		}finally{
+			writer.close();
+		}
+		run.clear();
+		return writer.getCount();
+	}
+
+	/**
+	 * Writes the target, returning the number of distinct entries in it.
+	 */
+	public long finish() throws IOException {
+		File parent = target.getAbsoluteFile().getParentFile();
+		if(parent != null){
+			parent.mkdirs();
+		}
+		File tmp = new File(target.getPath() + ".tmp");
+		long count;
+		try{
+			if(runs.isEmpty()){
+				count = write(tmp);
+			}else{
+				if(!run.isEmpty()){
+					spill();
+				}
+				count = merge(tmp);
+			}
+			if(!tmp.renameTo(target)){
+				target.delete();
+				if(!tmp.renameTo(target)){
+					throw new IOException("could not rename " + tmp.getPath() + " to " + target.getPath());
+				}
+			}
+		}finally{
+			tmp.delete();
+			for(File file: runs){
+				file.delete();
+			}
+			runs.clear();
+		}
+		return count;
+	}
+
+	private long merge(File out) throws IOException {
+		PriorityQueue<Head> heads = new PriorityQueue<Head>(runs.size(), new Comparator<Head>() {
+			public int compare(Head a, Head b) {
+				return a.entry.compareTo(b.entry);
+			}
+		});
+		List<SnapshotReader> readers = new ArrayList<SnapshotReader>();
+		SnapshotWriter writer = new SnapshotWriter(out);
+		try{
+			for(File file: runs){
+				SnapshotReader reader = new SnapshotReader(file);
+				readers.add(reader);
+				if(reader.hasNext()){
+					heads.add(new Head(reader));
+				}
+			}
+			while(!heads.isEmpty()){
+				Head head = heads.poll();
+				writer.write(head.entry);
+				if(head.reader.hasNext()){
+					head.entry = head.reader.next();
+					heads.add(head);
+				}
+			}
+		}finally{
+			writer.close();
+			for(SnapshotReader reader: readers){
+				reader.close();
+			}
+		}
+		return writer.getCount();
+	}
+
+	private static class Head {
+		final SnapshotReader reader;
+		SnapshotEntry entry;
+
+		Head(SnapshotReader reader){
+			this.reader = reader;
+			this.entry = reader.next();
+		}
+	}
+}
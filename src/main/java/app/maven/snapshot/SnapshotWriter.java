@@ -0,0 +1,109 @@
+package app.maven.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a GAV snapshot: entries in key order, each key front-coded against
+ * the one before.
+ *
+ * The file starts with the magic "GAVS" and a format version. Each entry is a
+ * flags byte, the number of key bytes shared with the previous key and the
+ * remaining key bytes (both lengths as varints), then the size as a varint
+ * and the SHA-1 as 20 raw bytes when the flags say they are known. A flags
+ * byte of END followed by the entry count as a long closes the file, so a
+ * truncated snapshot is detected rather than read as a short one.
+ *
+ * Sorted GAVs share long group and artifact prefixes, so most entries take
+ * only a few bytes of key, and reading or writing a snapshot holds no more
+ * than the current and previous keys in memory.
+ */
+public class SnapshotWriter implements Closeable {
+
+	static final int MAGIC = 0x47415653;
+	static final int VERSION = 1;
+	static final int HAS_SIZE = 1;
+	static final int HAS_SHA1 = 2;
+	static final int END = 0x80;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final DataOutputStream out;
+	private String previous;
+	private byte[] previousBytes = new byte[0];
+	private long count = 0;
+	private long duplicates = 0;
+
+	public SnapshotWriter(File file) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 256 * 1024));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	/**
+	 * Appends an entry, which must not sort before the last one written. An
+	 * entry with the same key as the last one is dropped.
+	 */
+	public void write(SnapshotEntry entry) throws IOException {
+		String gav = entry.getGav();
+		if(previous != null){
+			int order = gav.compareTo(previous);
+			if(order == 0){
+				duplicates++;
+				return;
+			}
+			if(order < 0){
+				throw new IllegalStateException("snapshot entries out of order: " + gav + " after " + previous);
+			}
+		}
+		byte[] key = gav.getBytes(UTF8);
+		int shared = 0;
+		int limit = Math.min(key.length, previousBytes.length);
+		while(shared < limit && key[shared] == previousBytes[shared]){
+			shared++;
+		}
+		int flags = (entry.getSize() >= 0 ? HAS_SIZE : 0) | (entry.getSha1() != null ? HAS_SHA1 : 0);
+		out.writeByte(flags);
+		writeVarint(shared);
+		writeVarint(key.length - shared);
+		out.write(key, shared, key.length - shared);
+		if(entry.getSize() >= 0){
+			writeVarint(entry.getSize());
+		}
+		if(entry.getSha1() != null){
+			String sha1 = entry.getSha1();
+			for(int i=0;i<40;i+=2){
+				out.writeByte(Character.digit(sha1.charAt(i), 16) << 4 | Character.digit(sha1.charAt(i + 1), 16));
+			}
+		}
+		previous = gav;
+		previousBytes = key;
+		count++;
+	}
+
+	private void writeVarint(long value) throws IOException {
+		while((value & ~0x7FL) != 0){
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public long getCount(){
+		return count;
+	}
+
+	public long getDuplicates(){
+		return duplicates;
+	}
+
+	public void close() throws IOException {
+		out.writeByte(END);
+		out.writeLong(count);
+		out.close();
+	}
+}
@@ -0,0 +1,162 @@
+package app.maven.transport;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import app.maven.events.RedirectEvent;
+
+/**
+ * Shared, connection-pooled HTTP client for direct downloads.
+ *
+ * Redirects are followed inline on the GET that fetches the artifact. When a
+ * mirror redirects, the base URL it redirected to is remembered so later
+ * requests for that mirror go straight to the final location. Response
+ * streams must be closed by the caller, which returns the connection to the
+ * pool for the next artifact.
+ */
+public class HttpTransport {
+
+	private static final int TIMEOUT = 60 * 1000;
+
+	private final ThreadSafeClientConnManager connections;
+	private final DefaultHttpClient client;
+	private final List<String> mirrors = new CopyOnWriteArrayList<String>();
+	private final ConcurrentMap<String, String> redirects = new ConcurrentHashMap<String, String>();
+
+	public HttpTransport(int maxConnections){
+		connections = new ThreadSafeClientConnManager();
+		connections.setMaxTotal(maxConnections);
+		connections.setDefaultMaxPerRoute(maxConnections);
+		client = new DefaultHttpClient(connections);
+		HttpParams params = client.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, TIMEOUT);
+		HttpProtocolParams.setUserAgent(params, "mvnsync");
+	}
+
+	/**
+	 * Registers a mirror base URL whose redirects should be remembered.
+	 */
+	public void addMirror(String base){
+		mirrors.add(stripSlash(base));
+	}
+
+	/**
+	 * Opens the body of a GET for the given url, throwing FileNotFoundException
+	 * on a 404 in the same way URL.openStream does.
+	 */
+	public InputStream open(URL url) throws IOException {
+		String requested = url.toString();
+		String mirror = mirrorFor(requested);
+		String path = mirror != null ? requested.substring(mirror.length()) : null;
+		String target = requested;
+		if(mirror != null && redirects.containsKey(mirror)){
+			target = redirects.get(mirror) + path;
+		}
+
+		RedirectEvent event = new RedirectEvent();
+		event.begin();
+		HttpGet get = new HttpGet(target);
+		HttpContext context = new BasicHttpContext();
+		HttpResponse response = client.execute(get, context);
+		HttpEntity entity = response.getEntity();
+		int status = response.getStatusLine().getStatusCode();
+		if(status != HttpStatus.SC_OK || entity == null){
+			EntityUtils.consume(entity);
+			if(status == HttpStatus.SC_NOT_FOUND){
+				throw new FileNotFoundException(target);
+			}
+			throw new IOException("HTTP " + status + " for " + target);
+		}
+
+		String resolved = (mirror != null || event.isEnabled()) ? finalUrl(context) : null;
+		if(resolved != null && !resolved.equals(target)){
+			if(mirror != null && resolved.endsWith(path)){
+				String base = resolved.substring(0, resolved.length() - path.length());
+				if(redirects.put(mirror, base) == null){
+					event.remembered = true;
+					System.out.println("mirror " + mirror + " redirects to " + base);
+				}
+			}
+			event.end();
+			if(event.shouldCommit()){
+				event.mirror = mirror;
+				event.requested = target;
+				event.location = resolved;
+				event.commit();
+			}
+		}
+		return entity.getContent();
+	}
+
+	/**
+	 * Fetches a small text resource such as a .sha1 file.
+	 */
+	public String fetch(URL url) throws IOException {
+		InputStream in = open(url);
+		try{
+			byte[] buffer = new byte[1024];
+			StringBuilder text = new StringBuilder();
+			int read;
+			while((read = in.read(buffer)) != -1){
+				text.append(new String(buffer, 0, read, "UTF-8"));
+			}
+			return text.toString();
+		}finally{
+			in.close();
+		}
+	}
+
+	public void shutdown(){
+		connections.shutdown();
+	}
+
+	private String mirrorFor(String url){
+		for(String mirror: mirrors){
+			if(url.startsWith(mirror + "/")){
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	private static String finalUrl(HttpContext context){
+		HttpHost host = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+		HttpUriRequest request = (HttpUriRequest) context.getAttribute(ExecutionContext.HTTP_REQUEST);
+		if(host == null || request == null){
+			return null;
+		}
+		URI uri = request.getURI();
+		if(uri.isAbsolute()){
+			return uri.toString();
+		}
+		return host.toURI() + uri.toString();
+	}
+
+	private static String stripSlash(String url){
+		return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+	}
+}
@@ -1,108 +1,132 @@
 package app.maven.utils;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.List;
 
 import org.apache.maven.index.ArtifactInfo;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.graph.Dependency;
 
+/**
+ * GAV and repository path conversions used on every artifact.
+ *
+ * Everything here is parsed a character at a time into a builder sized from
+ * the inputs, so a call allocates only that builder and the result: no
+ * regular expressions, split arrays, intermediate strings or URIs.
+ */
 public class Helper {
 
-	public static String calculateGav(ArtifactInfo ai){
-		String gav = null;
-		if(
-			ai.groupId != null &&
-			ai.artifactId != null &&
-			ai.version.matches("^[0-9]+.*$")
-		){
-			gav = ai.groupId;
-			gav += ":" + ai.artifactId;
-			gav += ":" + ai.fextension;
-			if(ai.classifier != null){
-				gav += ":" + ai.classifier;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	public static String toHex(byte[] bytes){
+		char[] chars = new char[bytes.length * 2];
+		for(int i=0;i<bytes.length;i++){
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	// a null field is appended as "null"
+	private static int length(String text){
+		return text != null ? text.length() : 4;
+	}
+
+	// Same as version.matches("^[0-9]+.*$"): a leading digit and no line terminators
+	private static boolean isReleaseVersion(String version){
+		if(version.isEmpty()){
+			return false;
+		}
+		char first = version.charAt(0);
+		if(first < '0' || first > '9'){
+			return false;
+		}
+		for(int i=1;i<version.length();i++){
+			char c = version.charAt(i);
+			if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'){
+				return false;
 			}
-			gav += ":" + ai.version;
 		}
-		return gav;
+		return true;
+	}
+
+	public static String calculateGav(ArtifactInfo ai){
+		if(ai.groupId == null || ai.artifactId == null || !isReleaseVersion(ai.version)){
+			return null;
+		}
+		StringBuilder gav = new StringBuilder(ai.groupId.length() + ai.artifactId.length() + length(ai.fextension)
+			+ length(ai.classifier) + ai.version.length() + 4);
+		gav.append(ai.groupId).append(':').append(ai.artifactId).append(':').append(ai.fextension);
+		if(ai.classifier != null){
+			gav.append(':').append(ai.classifier);
+		}
+		gav.append(':').append(ai.version);
+		return gav.toString();
 	}
-	
+
 	public static String calculateGav(File root, File file){
-		String path = file.getPath();
-		String base = root.getPath();
-		String relative = new File(base).toURI().relativize(new File(path).toURI()).getPath();
-		String str = relative.replace("\\","/");
-
-		try
-        {
-            String s = str.startsWith( "/" ) ? str.substring( 1 ) : str;
-            int vEndPos = s.lastIndexOf( '/' );
-            if ( vEndPos == -1 ){
-                return null;
-            }
-            int aEndPos = s.lastIndexOf( '/', vEndPos - 1 );
-            if ( aEndPos == -1 ){
-                return null;
-            }
-            int gEndPos = s.lastIndexOf( '/', aEndPos - 1 );
-            if ( gEndPos == -1 ){
-                return null;
-            }
-            String groupId = s.substring( 0, gEndPos ).replace( '/', '.' );
-            String artifactId = s.substring( gEndPos + 1, aEndPos );
-            String version = s.substring( aEndPos + 1, vEndPos );
-            return calculateGav(groupId,artifactId,version);
-        }
-        catch ( NumberFormatException e )
-        {
-            return null;
-        }
-        catch ( StringIndexOutOfBoundsException e )
-        {
-            return null;
-        }
-	}
-	
+		String s = relativePath(root, file);
+		if(s.startsWith("/")){
+			s = s.substring(1);
+		}
+		int vEndPos = s.lastIndexOf( '/' );
+		if ( vEndPos == -1 ){
+			return null;
+		}
+		int aEndPos = s.lastIndexOf( '/', vEndPos - 1 );
+		if ( aEndPos == -1 ){
+			return null;
+		}
+		int gEndPos = s.lastIndexOf( '/', aEndPos - 1 );
+		if ( gEndPos == -1 ){
+			return null;
+		}
+		if(!isReleaseVersion(s.substring( aEndPos + 1, vEndPos ))){
+			return null;
+		}
+		StringBuilder gav = new StringBuilder(s.length() + 4);
+		gav.append(s, 0, gEndPos);
+		for(int i=0;i<gEndPos;i++){
+			if(gav.charAt(i) == '/'){
+				gav.setCharAt(i, '.');
+			}
+		}
+		gav.append(':').append(s, gEndPos + 1, aEndPos);
+		gav.append(":jar:");
+		gav.append(s, aEndPos + 1, vEndPos);
+		return gav.toString();
+	}
+
 	public static String calculateGav(String groupId, String artifactId, String version){
-		String gav = null;
-		if(
-			groupId != null &&
-			artifactId != null &&
-			version.matches("^[0-9]+.*$")
-		){
-			gav = groupId;
-			gav += ":" + artifactId;
-			gav += ":jar";
-			gav += ":" + version;
-		}
-		return gav;
-	}
-	
+		if(groupId == null || artifactId == null || !isReleaseVersion(version)){
+			return null;
+		}
+		StringBuilder gav = new StringBuilder(groupId.length() + artifactId.length() + version.length() + 6);
+		gav.append(groupId).append(':').append(artifactId).append(":jar:").append(version);
+		return gav.toString();
+	}
+
 	public static String calculateGav(Artifact artifact){
-		String gav = null;
-		if(artifact != null){
-			if(
-				artifact.getGroupId() != null &&
-				artifact.getArtifactId() != null &&
-				artifact.getVersion().matches("^[0-9]+.*$")
-			){
-				gav = artifact.getGroupId();
-				gav += ":" + artifact.getArtifactId();
-				gav += ":" + artifact.getExtension();
-				if(artifact.getClassifier() != null){
-					gav += ":" + artifact.getClassifier();
-				}
-				gav += ":" + artifact.getVersion();
-			}
+		if(artifact == null){
+			return null;
+		}
+		if(artifact.getGroupId() == null || artifact.getArtifactId() == null || !isReleaseVersion(artifact.getVersion())){
+			return null;
+		}
+		StringBuilder gav = new StringBuilder(artifact.getGroupId().length() + artifact.getArtifactId().length()
+			+ length(artifact.getExtension()) + length(artifact.getClassifier()) + artifact.getVersion().length() + 4);
+		gav.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId()).append(':').append(artifact.getExtension());
+		if(artifact.getClassifier() != null){
+			gav.append(':').append(artifact.getClassifier());
 		}
-		return gav;
+		gav.append(':').append(artifact.getVersion());
+		return gav.toString();
 	}
-	
+
 	// Build relative path from remote artifact
 	public static String calculatePath( ArtifactInfo ai ){
-		StringBuilder path = new StringBuilder( 128 );
-		path.append( ai.groupId.replace( '.', '/' ) ).append( '/' );
+		StringBuilder path = new StringBuilder(length(ai.groupId) + (length(ai.artifactId) + length(ai.version)) * 2
+			+ length(ai.classifier) + length(ai.fextension) + 6);
+		appendAsPath( path, ai.groupId ).append( '/' );
 		path.append( ai.artifactId ).append( '/' );
 		path.append( ai.version ).append( '/' );
 		path.append( ai.artifactId ).append( '-' ).append( ai.version );
@@ -112,36 +136,110 @@ public class Helper {
 		path.append( '.' ).append( ai.fextension );
 		return path.toString();
 	}
-	
+
+	/**
+	 * Path for a "groupId:artifactId[:extension[:classifier]]:version" string.
+	 * Fields are split on ':' ignoring whitespace around it, and trailing empty
+	 * fields are dropped, as String.split("\\s*:\\s*") would.
+	 */
 	public static String calculatePath( String gav ){
-		StringBuilder path = new StringBuilder( 128 );
-		List<String> parts = Arrays.asList(gav.split("\\s*:\\s*"));
-		path.append( parts.get(0).replace( '.', '/' ) ).append( '/' ); //groupId
-		path.append( parts.get(1).replace( '.', '/' ) ).append( '/' ); //artifactId
+		// start and end of the first five fields
+		int[] f = new int[10];
+		int fields = splitGav(gav, f);
+		// the artifactId and version appear twice
+		StringBuilder path = new StringBuilder(gav.length() * 2 + 8);
+		appendAsPath( path, gav, field(f, fields, 0), f[1] ).append( '/' ); //groupId
+		appendAsPath( path, gav, field(f, fields, 1), f[3] ).append( '/' ); //artifactId
 		if(path.length() == 5){
-			path.append( parts.get(4) ).append( '/' ); //version
-			path.append( parts.get(1) ).append( '-' ); //artifact-
-			path.append( parts.get(4) ).append( '-' ); //version-
-			path.append( parts.get(3) );				//classifier
-			path.append('.').append( parts.get(2) ); //extension
+			path.append( gav, field(f, fields, 4), f[9] ).append( '/' ); //version
+			path.append( gav, f[2], f[3] ).append( '-' ); //artifact-
+			path.append( gav, f[8], f[9] ).append( '-' ); //version-
+			path.append( gav, field(f, fields, 3), f[7] );				//classifier
+			path.append('.').append( gav, field(f, fields, 2), f[5] ); //extension
 		}else if(path.length() == 4){
-			path.append( parts.get(3) ).append( '/' ); //version
-			path.append( parts.get(1) ).append( '-' ); //artifact-
-			path.append( parts.get(3) ); //version-
-			path.append('.').append( parts.get(2) ); //extension
+			path.append( gav, field(f, fields, 3), f[7] ).append( '/' ); //version
+			path.append( gav, f[2], f[3] ).append( '-' ); //artifact-
+			path.append( gav, f[6], f[7] ); //version-
+			path.append('.').append( gav, field(f, fields, 2), f[5] ); //extension
 		}else{
-			path.append( parts.get(2) ).append( '/' ); //version
-			path.append( parts.get(1) ).append( '-' ); //artifact-
-			path.append( parts.get(2) ); //version-
+			path.append( gav, field(f, fields, 2), f[5] ).append( '/' ); //version
+			path.append( gav, f[2], f[3] ).append( '-' ); //artifact-
+			path.append( gav, f[4], f[5] ); //version-
 			path.append('.').append( "jar" ); //extension
 		}
 		return path.toString();
 	}
 
+	private static boolean isRegexWhitespace(char c){
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	// Records [start, end) of the first five fields in bounds and returns the
+	// number of fields, less any trailing empty ones
+	private static int splitGav(String gav, int[] bounds){
+		int fields = 0;
+		int lastNonEmpty = -1;
+		int start = 0;
+		int length = gav.length();
+		for(int i=0;i<=length;i++){
+			if(i < length && gav.charAt(i) != ':'){
+				continue;
+			}
+			int from = start;
+			int to = i;
+			if(i < length){
+				while(to > from && isRegexWhitespace(gav.charAt(to - 1))){
+					to--;
+				}
+			}
+			if(fields > 0){
+				while(from < to && isRegexWhitespace(gav.charAt(from))){
+					from++;
+				}
+			}
+			if(fields < 5){
+				bounds[fields * 2] = from;
+				bounds[fields * 2 + 1] = to;
+			}
+			if(to > from){
+				lastNonEmpty = fields;
+			}
+			fields++;
+			start = i + 1;
+		}
+		// without a separator the whole string is the only field, even if empty
+		return fields == 1 ? 1 : lastNonEmpty + 1;
+	}
+
+	// Start of a field, failing like List.get() if there are not enough fields
+	private static int field(int[] bounds, int fields, int index){
+		if(index >= fields){
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return bounds[index * 2];
+	}
+
+	// Appends text[from, to) with every '.' written as '/'
+	private static StringBuilder appendAsPath(StringBuilder sb, String text, int from, int to){
+		int start = sb.length();
+		sb.append(text, from, to);
+		for(int i=start;i<sb.length();i++){
+			if(sb.charAt(i) == '.'){
+				sb.setCharAt(i, '/');
+			}
+		}
+		return sb;
+	}
+
+	private static StringBuilder appendAsPath(StringBuilder sb, String text){
+		return appendAsPath(sb, text, 0, text.length());
+	}
+
 	public static String calculatePath(Dependency dep) {
-		StringBuilder path = new StringBuilder( 128 );
 		Artifact art = dep.getArtifact();
-		path.append( art.getGroupId().replace( '.', '/' ) ).append( '/' );
+		StringBuilder path = new StringBuilder(length(art.getGroupId()) + (length(art.getArtifactId()) + length(art.getVersion())) * 2
+			+ length(art.getClassifier()) + length(art.getExtension()) + 6);
+		appendAsPath( path, art.getGroupId() ).append( '/' );
 		path.append( art.getArtifactId() ).append( '/' );
 		path.append( art.getVersion() ).append( '/' );
 		path.append( art.getArtifactId() ).append( '-' ).append( art.getVersion() );
@@ -159,60 +257,109 @@ public class Helper {
 		return null;
 	}
 
-	
+	/**
+	 * Path of file relative to root with '/' separators, or its absolute path
+	 * if it is not under root, as root.toURI().relativize(file.toURI()) gives
+	 * for a regular file.
+	 */
+	private static String relativePath(File root, File file){
+		String base = root.getAbsolutePath();
+		String path = file.getAbsolutePath();
+		if(File.separatorChar != '/'){
+			base = base.replace(File.separatorChar, '/');
+			path = path.replace(File.separatorChar, '/');
+		}
+		if(path.equals(base)){
+			return "";
+		}
+		int prefix = base.endsWith("/") ? base.length() : base.length() + 1;
+		if(path.length() > prefix && path.startsWith(base) && path.charAt(prefix - 1) == '/'){
+			path = path.substring(prefix);
+		}
+		return path.indexOf('\\') >= 0 ? path.replace('\\', '/') : path;
+	}
+
+	/**
+	 * Artifact for a regular file in a repository, taking groupId, artifactId
+	 * and version from its directories.
+	 */
 	public static ArtifactInfo buildArtifactInfo(File root, File file) {
-		String path = file.getPath();
-		String base = root.getPath();
-		String relative = new File(base).toURI().relativize(new File(path).toURI()).getPath();
-		String str = relative.replace("\\","/");
-		ArtifactInfo ai = null;
-		try
-        {
-            String s = str.startsWith( "/" ) ? str.substring( 1 ) : str;
-            int vEndPos = s.lastIndexOf( '/' );
-            if ( vEndPos == -1 ){
-                return null;
-            }
-            int aEndPos = s.lastIndexOf( '/', vEndPos - 1 );
-            if ( aEndPos == -1 ){
-                return null;
-            }
-            int gEndPos = s.lastIndexOf( '/', aEndPos - 1 );
-            if ( gEndPos == -1 ){
-                return null;
-            }
-            ai = new ArtifactInfo();
-            ai.groupId = s.substring( 0, gEndPos ).replace( '/', '.' );
-            ai.artifactId = s.substring( gEndPos + 1, aEndPos );
-            ai.version = s.substring( aEndPos + 1, vEndPos );
-            ai.fextension = "jar";
-            ai.path = relative;
-            ai.fname = file.getName();
-            return ai;
-        }
-        catch ( NumberFormatException e )
-        {
-            return null;
-        }
-        catch ( StringIndexOutOfBoundsException e )
-        {
-            return null;
-        }
+		String relative = relativePath(root, file);
+		String s = relative.startsWith( "/" ) ? relative.substring( 1 ) : relative;
+		int vEndPos = s.lastIndexOf( '/' );
+		if ( vEndPos == -1 ){
+			return null;
+		}
+		int aEndPos = s.lastIndexOf( '/', vEndPos - 1 );
+		if ( aEndPos == -1 ){
+			return null;
+		}
+		int gEndPos = s.lastIndexOf( '/', aEndPos - 1 );
+		if ( gEndPos == -1 ){
+			return null;
+		}
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = s.substring( 0, gEndPos ).replace( '/', '.' );
+		ai.artifactId = s.substring( gEndPos + 1, aEndPos );
+		ai.version = s.substring( aEndPos + 1, vEndPos );
+		ai.fextension = "jar";
+		ai.path = relative;
+		ai.fname = file.getName();
+		return ai;
 	}
 
+	/**
+	 * Artifact for a "groupId:artifactId:version[:...]" string, or null if it
+	 * has fewer than three fields. The "groupId:artifactId:extension[:classifier]:version"
+	 * form written by calculateGav is recognised by its third field not being
+	 * a version while the last one is.
+	 */
 	public static ArtifactInfo buildArtifactInfo(String gav) {
-		ArtifactInfo ai = null;
-		try{
-			ai = new ArtifactInfo();
-			String[] parts = gav.split(":");
-			ai.groupId = parts[0];
-			ai.artifactId = parts[1];
-			ai.version = parts[2];
-			ai.fextension = "jar";
-			return ai;
-		}catch(Exception e){
+		if(gav == null){
+			return null;
+		}
+		int first = gav.indexOf(':');
+		if(first < 0){
+			return null;
+		}
+		int second = gav.indexOf(':', first + 1);
+		if(second < 0){
 			return null;
 		}
-		
+		int third = gav.indexOf(':', second + 1);
+		int end = third < 0 ? gav.length() : third;
+		// a version can only be empty if a later field is not, as split() drops trailing empty fields
+		if(end == second + 1 && !hasNonColon(gav, end)){
+			return null;
+		}
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = gav.substring(0, first);
+		ai.artifactId = gav.substring(first + 1, second);
+		ai.version = gav.substring(second + 1, end);
+		ai.fextension = "jar";
+		if(third >= 0 && !startsWithDigit(gav, second + 1)){
+			int last = gav.lastIndexOf(':');
+			if(startsWithDigit(gav, last + 1)){
+				ai.fextension = gav.substring(second + 1, third);
+				if(last > third){
+					ai.classifier = gav.substring(third + 1, last);
+				}
+				ai.version = gav.substring(last + 1);
+			}
+		}
+		return ai;
+	}
+
+	private static boolean startsWithDigit(String text, int at){
+		return at < text.length() && text.charAt(at) >= '0' && text.charAt(at) <= '9';
+	}
+
+	private static boolean hasNonColon(String text, int from){
+		for(int i=from;i<text.length();i++){
+			if(text.charAt(i) != ':'){
+				return true;
+			}
+		}
+		return false;
 	}
 }
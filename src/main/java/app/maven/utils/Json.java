@@ -0,0 +1,216 @@
+package app.maven.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the event log and the daemon's requests, without a
+ * library on the classpath.
+ *
+ * parse returns a Map for an object, a List for an array, a String, a Long
+ * or Double for a number, a Boolean, or null, and throws
+ * IllegalArgumentException naming the offset of anything malformed.
+ */
+public class Json {
+
+	private final String text;
+	private int pos;
+
+	private Json(String text){
+		this.text = text;
+	}
+
+	public static Object parse(String text){
+		Json json = new Json(text);
+		Object value = json.value();
+		json.skipSpace();
+		if(json.pos < text.length()){
+			throw json.error("unexpected trailing characters");
+		}
+		return value;
+	}
+
+	/**
+	 * Appends value as a JSON string.
+	 */
+	public static void quote(StringBuilder out, String value){
+		out.append('"');
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			switch(c){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if(c < 0x20){
+						out.append(String.format("\\u%04x", (int) c));
+					}else{
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+
+	private Object value(){
+		skipSpace();
+		if(pos >= text.length()){
+			throw error("unexpected end");
+		}
+		char c = text.charAt(pos);
+		switch(c){
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': return literal("true", Boolean.TRUE);
+			case 'f': return literal("false", Boolean.FALSE);
+			case 'n': return literal("null", null);
+			default:
+				if(c == '-' || (c >= '0' && c <= '9')){
+					return number();
+				}
+				throw error("unexpected character '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> object(){
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		pos++;
+		skipSpace();
+		if(peek() == '}'){
+			pos++;
+			return object;
+		}
+		while(true){
+			skipSpace();
+			if(peek() != '"'){
+				throw error("expected a name");
+			}
+			String name = string();
+			skipSpace();
+			expect(':');
+			object.put(name, value());
+			skipSpace();
+			if(peek() == ','){
+				pos++;
+			}else{
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> array(){
+		List<Object> array = new ArrayList<Object>();
+		pos++;
+		skipSpace();
+		if(peek() == ']'){
+			pos++;
+			return array;
+		}
+		while(true){
+			array.add(value());
+			skipSpace();
+			if(peek() == ','){
+				pos++;
+			}else{
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String string(){
+		StringBuilder out = new StringBuilder();
+		pos++;
+		while(pos < text.length()){
+			char c = text.charAt(pos++);
+			if(c == '"'){
+				return out.toString();
+			}
+			if(c != '\\'){
+				out.append(c);
+				continue;
+			}
+			if(pos >= text.length()){
+				break;
+			}
+			char escaped = text.charAt(pos++);
+			switch(escaped){
+				case '"': case '\\': case '/': out.append(escaped); break;
+				case 'b': out.append('\b'); break;
+				case 'f': out.append('\f'); break;
+				case 'n': out.append('\n'); break;
+				case 'r': out.append('\r'); break;
+				case 't': out.append('\t'); break;
+				case 'u':
+					if(pos + 4 > text.length()){
+						throw error("truncated escape");
+					}
+					try{
+						out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					}catch(NumberFormatException e){
+						throw error("bad escape");
+					}
+					pos += 4;
+					break;
+				default:
+					throw error("bad escape");
+			}
+		}
+		throw error("unterminated string");
+	}
+
+	private Object number(){
+		int start = pos;
+		boolean decimal = false;
+		while(pos < text.length()){
+			char c = text.charAt(pos);
+			if(c == '.' || c == 'e' || c == 'E'){
+				decimal = true;
+			}else if(!(c == '-' || c == '+' || (c >= '0' && c <= '9'))){
+				break;
+			}
+			pos++;
+		}
+		String number = text.substring(start, pos);
+		try{
+			return decimal ? (Object) Double.valueOf(number) : (Object) Long.valueOf(number);
+		}catch(NumberFormatException e){
+			throw error("bad number " + number);
+		}
+	}
+
+	private Object literal(String word, Object value){
+		if(!text.startsWith(word, pos)){
+			throw error("unexpected word");
+		}
+		pos += word.length();
+		return value;
+	}
+
+	private void expect(char c){
+		if(peek() != c){
+			throw error("expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private char peek(){
+		return pos < text.length() ? text.charAt(pos) : 0;
+	}
+
+	private void skipSpace(){
+		while(pos < text.length() && Character.isWhitespace(text.charAt(pos))){
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException("invalid JSON at " + pos + ": " + message);
+	}
+}
@@ -0,0 +1,113 @@
+package app.maven.utils;
+
+/**
+ * Open-addressing set of primitive longs.
+ *
+ * Used to de-duplicate very large inputs by a 64-bit hash of each entry
+ * instead of holding the entries themselves, at eight bytes per slot with no
+ * per-entry objects.
+ */
+public class LongHashSet {
+
+	private static final float LOAD_FACTOR = 0.75f;
+	// 0 marks an empty slot, so the value 0 is tracked separately
+	private long[] table;
+	private int size = 0;
+	private boolean hasZero = false;
+
+	public LongHashSet(){
+		this(1024);
+	}
+
+	public LongHashSet(int expected){
+		int capacity = 16;
+		while(capacity * LOAD_FACTOR < expected){
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+
+	public int size(){
+		return size + (hasZero ? 1 : 0);
+	}
+
+	public boolean contains(long value){
+		if(value == 0){
+			return hasZero;
+		}
+		int mask = table.length - 1;
+		int slot = mix(value) & mask;
+		while(table[slot] != 0){
+			if(table[slot] == value){
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the value, returning false if it was already present.
+	 */
+	public boolean add(long value){
+		if(value == 0){
+			boolean added = !hasZero;
+			hasZero = true;
+			return added;
+		}
+		if(size + 1 > table.length * LOAD_FACTOR){
+			grow();
+		}
+		int mask = table.length - 1;
+		int slot = mix(value) & mask;
+		while(table[slot] != 0){
+			if(table[slot] == value){
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = value;
+		size++;
+		return true;
+	}
+
+	private void grow(){
+		long[] old = table;
+		table = new long[old.length << 1];
+		int mask = table.length - 1;
+		for(long value: old){
+			if(value != 0){
+				int slot = mix(value) & mask;
+				while(table[slot] != 0){
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = value;
+			}
+		}
+	}
+
+	private static int mix(long value){
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		return (int) value;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of a string, finished with a murmur3 mix so nearby
+	 * strings spread across the whole range.
+	 */
+	public static long hash(CharSequence text){
+		long hash = 0xcbf29ce484222325L;
+		for(int i=0;i<text.length();i++){
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,34 @@
+package app.maven.workers;
+
+import java.util.Iterator;
+
+import org.apache.maven.index.ArtifactInfo;
+
+/**
+ * Executes a DownloadWorker for every artifact read from a source.
+ */
+public interface DownloadEngine {
+
+	/**
+	 * Creates the worker for a single artifact, called on the thread that will run it.
+	 */
+	public interface WorkerFactory {
+		DownloadWorker create(ArtifactInfo ai);
+	}
+
+	/**
+	 * Runs every artifact through the engine, blocking until all of them are processed.
+	 */
+	void run(Iterator<ArtifactInfo> deps, WorkerFactory factory) throws InterruptedException;
+
+	long getQueued();
+
+	long getCompleted();
+
+	long getFailed();
+
+	/**
+	 * Artifacts read from the source that are waiting for, or held by, a worker.
+	 */
+	int getQueueDepth();
+}
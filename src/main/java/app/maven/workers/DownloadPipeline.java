@@ -0,0 +1,152 @@
+package app.maven.workers;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.index.ArtifactInfo;
+
+/**
+ * Bounded producer/consumer pipeline for direct downloads.
+ *
+ * A single reader thread drains the artifact source into a bounded queue
+ * (blocking when it is full), a fixed pool of consumers turns each artifact
+ * into a worker and runs it, and the calling thread blocks until the last
+ * consumer has finished. Memory use is bounded by the queue capacity no
+ * matter how many artifacts the source yields.
+ */
+public class DownloadPipeline implements DownloadEngine {
+
+	// Marks the end of the source, one is queued per consumer
+	private static final ArtifactInfo END = new ArtifactInfo();
+
+	private final int consumers;
+	private final BlockingQueue<ArtifactInfo> queue;
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private volatile RuntimeException readError;
+
+	public DownloadPipeline(int consumers, int capacity){
+		if(consumers < 1 || capacity < 1){
+			throw new IllegalArgumentException("consumers and capacity must be greater than 0");
+		}
+		this.consumers = consumers;
+		this.queue = new ArrayBlockingQueue<ArtifactInfo>(capacity);
+	}
+
+	public long getQueued(){
+		return queued.get();
+	}
+
+	public long getCompleted(){
+		return completed.get();
+	}
+
+	public long getFailed(){
+		return failed.get();
+	}
+
+	public int getQueueDepth(){
+		return queue.size();
+	}
+
+	/**
+	 * Runs the pipeline to completion, blocking the caller until every
+	 * artifact read from the source has been processed. An error reading
+	 * the source is rethrown once the artifacts read before it are done.
+	 */
+	public void run(final Iterator<ArtifactInfo> deps, final WorkerFactory factory) throws InterruptedException {
+		readError = null;
+		ExecutorService pool = Executors.newFixedThreadPool(consumers);
+		final CountDownLatch done = new CountDownLatch(consumers);
+
+		for(int i=0;i<consumers;i++){
+			pool.execute(new Runnable(){
+				public void run() {
+					try{
+						consume(factory);
+					}finally{
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		Thread reader = new Thread(new Runnable(){
+			public void run() {
+				produce(deps);
+			}
+		}, "index-reader");
+		reader.start();
+
+		try{
+			done.await();
+			reader.join();
+		}catch(InterruptedException e){
+			reader.interrupt();
+			pool.shutdownNow();
+			throw e;
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+		System.out.println("Processed " + completed.get() + " of " + queued.get() + " artifacts, " + failed.get() + " failed");
+		if(readError != null){
+			throw readError;
+		}
+	}
+
+	private void produce(Iterator<ArtifactInfo> deps){
+		try{
+			while(deps.hasNext()){
+				ArtifactInfo ai = deps.next();
+				if(ai != null){
+					queue.put(ai);
+					queued.incrementAndGet();
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			return;
+		}catch(RuntimeException e){
+			readError = e;
+		}
+		try{
+			for(int i=0;i<consumers;i++){
+				queue.put(END);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void consume(WorkerFactory factory){
+		try{
+			while(true){
+				ArtifactInfo ai = queue.take();
+				if(ai == END){
+					return;
+				}
+				try{
+					DownloadWorker worker = factory.create(ai);
+					if(worker == null){
+						failed.incrementAndGet();
+						continue;
+					}
+					worker.run();
+					completed.incrementAndGet();
+				}catch(RuntimeException e){
+					failed.incrementAndGet();
+					System.out.println("download failed: " + e.getMessage());
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
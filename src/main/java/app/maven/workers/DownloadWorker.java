@@ -1,20 +1,75 @@
 package app.maven.workers;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.index.ArtifactInfo;
 import org.eclipse.aether.util.ChecksumUtils;
 
+import app.maven.MirrorScheduler;
+import app.maven.cache.VerifiedArtifactCache;
+import app.maven.events.ChecksumEvent;
+import app.maven.events.DownloadEvent;
+import app.maven.logging.SyncLog;
+import app.maven.metrics.SyncMetrics;
+import app.maven.transport.HttpTransport;
+import app.maven.utils.Helper;
+
 public class DownloadWorker implements Runnable {
     
+    /**
+     * Notified on the worker's thread once it has finished.
+     */
+    public interface Listener {
+    	void finished(DownloadWorker worker, boolean successful);
+    }
+    
+    /**
+     * Bounds how many workers talk to one host at once.
+     */
+    public interface HostLimiter {
+    	void acquire(String host) throws InterruptedException;
+    	
+    	void release(String host);
+    }
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
     private URL remote;
     private URL remoteChecksum;
     private File local;
+    private String expectedSha1;
+    private long expectedSize = -1;
+    private VerifiedArtifactCache verified;
+    private HttpTransport transport;
+    private MirrorScheduler scheduler;
+    private String mirror;
+    private String path;
+    private String checksumMirror;
+    private Listener listener;
+    private HostLimiter hosts;
+    private String heldHost;
+    private SyncMetrics metrics;
+    private ArtifactInfo artifact;
+    private boolean successful = false;
     
      
     public DownloadWorker(File local, URL remote, URL remoteChecksum){
@@ -22,36 +77,370 @@ public class DownloadWorker implements Runnable {
         this.remote = remote;
         this.remoteChecksum = remoteChecksum;
     }
+    
+    /**
+     * Worker that trusts the SHA-1 and size recorded in the index, so the
+     * remote checksum is only fetched when the index has no value.
+     */
+    public DownloadWorker(File local, URL remote, URL remoteChecksum, String expectedSha1, long expectedSize){
+        this(local, remote, remoteChecksum);
+        this.expectedSha1 = expectedSha1;
+        this.expectedSize = expectedSize;
+    }
+ 
+    /**
+     * Skip hashing local files the cache has already seen verified, and record
+     * newly verified ones.
+     */
+    public void setVerifiedArtifactCache(VerifiedArtifactCache verified){
+    	this.verified = verified;
+    }
+ 
+    /**
+     * Fetch through a shared pooled client instead of a new connection per request.
+     */
+    public void setTransport(HttpTransport transport){
+    	this.transport = transport;
+    }
+ 
+    /**
+     * Report transfer figures for the mirror this worker was given, and retry on
+     * other mirrors when it is missing the artifact or fails.
+     */
+    public void setScheduler(MirrorScheduler scheduler, String mirror, String path){
+    	this.scheduler = scheduler;
+    	this.mirror = mirror;
+    	this.path = path;
+    	this.checksumMirror = mirror;
+    }
+ 
+    /**
+     * The index entry this worker downloads, for listeners that need it.
+     */
+    public void setArtifact(ArtifactInfo artifact){
+    	this.artifact = artifact;
+    }
+    
+    public ArtifactInfo getArtifact(){
+    	return artifact;
+    }
+    
+    public void setListener(Listener listener){
+    	this.listener = listener;
+    }
+    
+    /**
+     * Hold a permit for the host of the mirror being contacted from the first
+     * checksum request to the end of the transfer, moving it to the next
+     * mirror's host on a retry.
+     */
+    public void setHostLimiter(HostLimiter hosts){
+    	this.hosts = hosts;
+    }
+    
+    /**
+     * Count this artifact, its transfer and checksum timings in the run's metrics.
+     */
+    public void setMetrics(SyncMetrics metrics){
+    	this.metrics = metrics;
+    }
+    
+    /**
+     * Whether the local file was valid or was downloaded and moved into place.
+     */
+    public boolean isSuccessful(){
+    	return successful;
+    }
+ 
+    public URL getRemote(){
+    	return remote;
+    }
  
     @Override
     public void run() {
-        processCommand();
+    	try{
+    		holdHost();
+    		processCommand();
+    	}catch(InterruptedIOException e){
+    		SyncLog.warn("download interrupted", remote, e.getMessage());
+    		// the mirror waited for was never asked for anything
+    		unusedMirror();
+    		if(metrics != null){
+    			metrics.attempted(1);
+    			metrics.failed(1);
+    		}
+    	}finally{
+    		releaseHost();
+    		if(listener != null){
+    			listener.finished(this, successful);
+    		}
+    	}
     }
  
     private void processCommand(){
+    	if(metrics != null){
+    		metrics.attempted(1);
+    	}
     	if(!validChecksum(local)){
 	    	try {
-	    		System.out.println("downloading file: " + remote);
-	    		FileUtils.copyURLToFile(remote, local);
-	    		System.out.println("downloaded file: " + remote);
+	    		SyncLog.debug("downloading file", remote);
+	    		if(download()){
+	    			successful = true;
+	    			SyncLog.info("downloaded file", remote);
+	    		}
 	        } catch (IOException e) {
-	        	System.out.println("download failed: " +  e.getMessage());
+	        	SyncLog.warn("download failed", remote, e.getMessage());
 			}
+	    	if(metrics != null){
+	    		if(successful){
+	    			metrics.downloaded(1);
+	    		}else{
+	    			metrics.failed(1);
+	    		}
+	    	}
     	}else{
-    		System.out.println("local checksum valid, skipping: " + remote);
+    		successful = true;
+    		unusedMirror();
+    		if(metrics != null){
+    			metrics.skipped();
+    		}
+    		SyncLog.info("local checksum valid, skipping", remote);
     	}
     }
 
-	private boolean validChecksum(File local) {
+	/**
+	 * Downloads from the current mirror, moving on to the next one the scheduler
+	 * offers if the mirror does not have the artifact, fails or serves content
+	 * that does not match its checksum.
+	 */
+	private boolean download() throws IOException {
+		Set<String> tried = new HashSet<String>();
+		while(true){
+			try{
+				if(downloadFrom()){
+					return true;
+				}
+				if(scheduler == null){
+					return false;
+				}
+				scheduler.failure(mirror);
+				if(!switchMirror(tried)){
+					return false;
+				}
+			}catch(FileNotFoundException e){
+				if(scheduler == null){
+					throw e;
+				}
+				scheduler.notFound(mirror);
+				if(!switchMirror(tried)){
+					throw e;
+				}
+			}catch(IOException e){
+				if(scheduler == null){
+					throw e;
+				}
+				scheduler.failure(mirror);
+				if(!switchMirror(tried)){
+					throw e;
+				}
+			}
+		}
+	}
+	
+	private boolean switchMirror(Set<String> tried) throws IOException {
+		tried.add(mirror);
+		String next = scheduler.next(tried);
+		if(next == null){
+			return false;
+		}
+		mirror = next;
+		remote = new URL(mirror + "/" + path);
+		remoteChecksum = new URL(mirror + "/" + path + ".sha1");
+		holdHost();
+		SyncLog.warn("retrying on mirror", remote);
+		return true;
+	}
+	
+	private void unusedMirror(){
+		if(scheduler != null){
+			scheduler.unused(mirror);
+		}
+	}
+	
+	private void holdHost() throws InterruptedIOException {
+		if(hosts == null){
+			return;
+		}
+		String host = remote != null ? remote.getHost() : "";
+		if(host.equals(heldHost)){
+			return;
+		}
+		releaseHost();
+		try {
+			hosts.acquire(host);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for " + host);
+		}
+		heldHost = host;
+	}
+	
+	private void releaseHost(){
+		if(heldHost != null){
+			hosts.release(heldHost);
+			heldHost = null;
+		}
+	}
+
+	/**
+	 * Streams the remote file into a temporary file next to the target, hashing
+	 * it on the way, and only moves it into place if the SHA-1 matches.
+	 */
+	private boolean downloadFrom() throws IOException {
+		DownloadEvent event = new DownloadEvent();
+		event.begin();
+		event.outcome = DownloadEvent.FAILED;
+		try{
+			return downloadFrom(event);
+		}finally{
+			event.end();
+			if(event.shouldCommit()){
+				event.url = remote.toString();
+				event.mirror = mirror;
+				event.commit();
+			}
+		}
+	}
+	
+	private boolean downloadFrom(DownloadEvent event) throws IOException {
+		String expected = expectedChecksum();
+		File part = new File(local.getPath() + ".part");
+		FileUtils.forceMkdir(local.getParentFile());
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		
+		InputStream in = null;
+		OutputStream out = null;
+		long size = 0;
+		long start = System.currentTimeMillis();
+		long latency;
+		try {
+			in = (transport != null) ? transport.open(remote) : remote.openStream();
+			latency = System.currentTimeMillis() - start;
+			event.latency = latency;
+			if(metrics != null){
+				metrics.request(mirror != null ? mirror : remote.getProtocol() + "://" + remote.getAuthority(), latency);
+			}
+			out = new FileOutputStream(part);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while((read = in.read(buffer)) != -1){
+				digest.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+				size += read;
+			}
+		} catch (IOException e) {
+			IOUtils.closeQuietly(out);
+			part.delete();
+			if(e instanceof FileNotFoundException){
+				event.outcome = DownloadEvent.NOT_FOUND;
+			}
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(out);
+			event.bytes = size;
+			if(metrics != null){
+				metrics.transferred(size);
+			}
+		}
+		
+		// a size or checksum mismatch returns false, which download() reports as a failure of this mirror
+		if(expectedSize >= 0 && size != expectedSize){
+			part.delete();
+			event.outcome = DownloadEvent.INVALID_SIZE;
+			SyncLog.warn("invalid size, discarded download", remote);
+			return false;
+		}
+		String actual = Helper.toHex(digest.digest());
+		if(expected != null && !actual.equalsIgnoreCase(expected)){
+			part.delete();
+			event.outcome = DownloadEvent.INVALID_CHECKSUM;
+			SyncLog.warn("invalid checksum, discarded download", remote);
+			return false;
+		}
+		if(expected == null){
+			SyncLog.warn("no checksum available, keeping unverified", remote);
+		}
+		if(scheduler != null){
+			scheduler.success(mirror, latency, size, System.currentTimeMillis() - start);
+		}
+		try {
+			Files.move(part.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(part.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if(expected != null && verified != null){
+			verified.markVerified(local, actual);
+		}
+		event.outcome = DownloadEvent.DOWNLOADED;
+		return true;
+	}
+	
+	private String expectedChecksum(){
+		if(expectedSha1 != null){
+			return expectedSha1;
+		}
+		File localChecksum = new File(local.getPath()+".sha1");
+		if(!localChecksum.exists() && mirror != null && !mirror.equals(checksumMirror)){
+			// the first mirror had no checksum, try the one we moved on to
+			checksumMirror = mirror;
+			fetchChecksum(localChecksum);
+		}
+		if(localChecksum.exists()){
+			try {
+				return ChecksumUtils.read( localChecksum );
+			} catch (IOException e) {}
+		}
+		return null;
+	}
+	
+	private boolean fetchChecksum(File localChecksum){
+		try{
+			SyncLog.debug("downloading checksum", remoteChecksum);
+			if(transport != null){
+				FileUtils.writeStringToFile(localChecksum, transport.fetch(remoteChecksum));
+			}else{
+				FileUtils.copyURLToFile(remoteChecksum, localChecksum);
+			}
+			SyncLog.debug("downloaded checksum", remoteChecksum);
+			return true;
+		}catch(Exception e){
+			return false;
+		}
+	}
+
+	// package-private so the benchmarks can measure it
+	boolean validChecksum(File local) {
 		File localChecksum = new File(local.getPath()+".sha1");
 		Map<String, Object> checksums = null;
+		String expected = expectedSha1;
 		
-    	if(!localChecksum.exists()){
-			try{
-				System.out.println("downloading checksum: " + remoteChecksum);
-				FileUtils.copyURLToFile(remoteChecksum, localChecksum);
-				System.out.println("downloaded checksum: " + remoteChecksum);
-			}catch(Exception e){
+		if(expected != null){
+			if(!localChecksum.exists()){
+				try{
+					FileUtils.writeStringToFile(localChecksum, expected);
+				}catch(IOException e){
+					SyncLog.warn("could not write checksum", localChecksum);
+				}
+			}
+		}else if(!localChecksum.exists()){
+			if(!fetchChecksum(localChecksum)){
 				return false;
 			}
 		}
@@ -60,18 +449,45 @@ public class DownloadWorker implements Runnable {
 			return false;
 		}
 		
+		if(expectedSize >= 0 && local.length() != expectedSize){
+			SyncLog.info("invalid size", remote);
+			return false;
+		}
+		
     	try {
+			if(expected == null){
+				expected = ChecksumUtils.read( localChecksum );
+			}
+			if(verified != null && verified.isVerified(local, expected)){
+				return true;
+			}
+			ChecksumEvent event = new ChecksumEvent();
+			event.begin();
+			long start = System.currentTimeMillis();
 			checksums = ChecksumUtils.calc( local, Arrays.asList( "SHA-1" ) );
+			if(metrics != null){
+				metrics.checksum(System.currentTimeMillis() - start);
+			}
+			event.end();
 			for ( Entry<String, Object> entry : checksums.entrySet() )
 	        {
 	            String actual = entry.getValue().toString();
-	            String expected = ChecksumUtils.read( localChecksum );
-	            if(actual.equals(expected)){
-	            	return true;
+	            event.valid = actual.equalsIgnoreCase(expected);
+	            if(event.valid && verified != null){
+	            	verified.markVerified(local, actual);
 	            }
 	        }
+			if(event.shouldCommit()){
+				event.file = local.getPath();
+				event.algorithm = "SHA-1";
+				event.bytes = local.length();
+				event.commit();
+			}
+			if(event.valid){
+				return true;
+			}
 		} catch (IOException e) {}
-    	System.out.println("invalid checksum: " + remote);
+    	SyncLog.info("invalid checksum", remote);
     	return false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package app.maven.workers;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.index.ArtifactInfo;
+
+/**
+ * A long-lived pool of download threads shared by concurrent jobs.
+ *
+ * Each job runs through its own engine from newEngine, which counts only
+ * that job's artifacts and returns once they are done, while the threads
+ * stay warm between jobs. Artifacts are handed to the pool through a fair
+ * semaphore sized to the threads plus a small backlog, so a large job cannot
+ * queue ahead of everything else and a small job submitted after it starts
+ * downloading straight away.
+ */
+public class SharedDownloadEngine {
+
+	private final ExecutorService pool;
+	private final Semaphore slots;
+	private final int threads;
+
+	public SharedDownloadEngine(int threads){
+		if(threads < 1){
+			throw new IllegalArgumentException("threads must be greater than 0");
+		}
+		this.threads = threads;
+		this.slots = new Semaphore(threads * 2, true);
+		final AtomicInteger count = new AtomicInteger();
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "shared-download-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public int getThreads(){
+		return threads;
+	}
+
+	/**
+	 * An engine for one job, running its downloads on the shared threads.
+	 */
+	public DownloadEngine newEngine(){
+		return new JobEngine();
+	}
+
+	public void shutdown(){
+		pool.shutdown();
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private class JobEngine implements DownloadEngine {
+		private final AtomicLong queued = new AtomicLong();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		public long getQueued(){
+			return queued.get();
+		}
+
+		public long getCompleted(){
+			return completed.get();
+		}
+
+		public long getFailed(){
+			return failed.get();
+		}
+
+		public int getQueueDepth(){
+			return inFlight.get();
+		}
+
+		/**
+		 * Reads the artifacts on the calling thread, taking a slot for each,
+		 * then waits for this job's last download to finish. An error reading
+		 * them is rethrown once that is done, so the job fails.
+		 */
+		public void run(Iterator<ArtifactInfo> deps, final WorkerFactory factory) throws InterruptedException {
+			RuntimeException readError = null;
+			try{
+				while(deps.hasNext()){
+					final ArtifactInfo ai = deps.next();
+					if(ai == null){
+						continue;
+					}
+					slots.acquire();
+					queued.incrementAndGet();
+					inFlight.incrementAndGet();
+					pool.execute(new Runnable(){
+						public void run() {
+							try{
+								DownloadWorker worker = factory.create(ai);
+								if(worker == null){
+									failed.incrementAndGet();
+								}else{
+									worker.run();
+									completed.incrementAndGet();
+								}
+							}catch(RuntimeException e){
+								failed.incrementAndGet();
+								System.out.println("download failed: " + e.getMessage());
+							}finally{
+								slots.release();
+								synchronized(inFlight){
+									if(inFlight.decrementAndGet() == 0){
+										inFlight.notifyAll();
+									}
+								}
+							}
+						}
+					});
+				}
+			}catch(RuntimeException e){
+				readError = e;
+			}finally{
+				// downloads already handed out finish even if this job is interrupted
+				boolean interrupted = false;
+				synchronized(inFlight){
+					while(inFlight.get() > 0){
+						try {
+							inFlight.wait();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+				}
+				if(interrupted){
+					Thread.currentThread().interrupt();
+				}
+			}
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			System.out.println("Processed " + completed.get() + " of " + queued.get() + " artifacts, " + failed.get() + " failed");
+			if(readError != null){
+				throw readError;
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package app.maven.workers;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.index.ArtifactInfo;
+
+/**
+ * Download engine that runs every DownloadWorker on its own virtual thread.
+ *
+ * Concurrency is bounded per mirror host by a semaphore instead of by the size
+ * of a thread pool, and the total number of artifacts in flight is bounded so
+ * the reader blocks rather than spawning threads without limit. On a JVM
+ * without virtual threads it falls back to a cached pool of platform threads
+ * with the same limits.
+ */
+public class VirtualThreadDownloadEngine implements DownloadEngine {
+
+	private final int hostConcurrency;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+	private final DownloadWorker.HostLimiter limiter = new DownloadWorker.HostLimiter() {
+		public void acquire(String host) throws InterruptedException {
+			hostSemaphore(host).acquire();
+		}
+
+		public void release(String host) {
+			hostSemaphore(host).release();
+		}
+	};
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public VirtualThreadDownloadEngine(int hostConcurrency, int maxInFlight){
+		if(hostConcurrency < 1 || maxInFlight < 1){
+			throw new IllegalArgumentException("hostConcurrency and maxInFlight must be greater than 0");
+		}
+		this.hostConcurrency = hostConcurrency;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	public long getQueued(){
+		return queued.get();
+	}
+
+	public long getCompleted(){
+		return completed.get();
+	}
+
+	public long getFailed(){
+		return failed.get();
+	}
+
+	public int getQueueDepth(){
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/**
+	 * Runs every artifact on its own thread, blocking until all are done. An
+	 * error reading the source is rethrown once the artifacts read before it
+	 * are done.
+	 */
+	public void run(Iterator<ArtifactInfo> deps, final WorkerFactory factory) throws InterruptedException {
+		ExecutorService executor = newVirtualThreadExecutor();
+		RuntimeException readError = null;
+		try{
+			try{
+				read(deps, factory, executor);
+			}catch(RuntimeException e){
+				readError = e;
+			}
+			// Every permit back means every task has finished
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+		}catch(InterruptedException e){
+			executor.shutdownNow();
+			throw e;
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		System.out.println("Processed " + completed.get() + " of " + queued.get() + " artifacts, " + failed.get() + " failed");
+		if(readError != null){
+			throw readError;
+		}
+	}
+
+	private void read(Iterator<ArtifactInfo> deps, final WorkerFactory factory, ExecutorService executor) throws InterruptedException {
+		while(deps.hasNext()){
+			final ArtifactInfo ai = deps.next();
+			if(ai == null){
+				continue;
+			}
+			inFlight.acquire();
+			queued.incrementAndGet();
+			executor.execute(new Runnable(){
+				public void run() {
+					try{
+						process(factory, ai);
+					}finally{
+						inFlight.release();
+					}
+				}
+			});
+		}
+	}
+
+	private void process(WorkerFactory factory, ArtifactInfo ai){
+		try{
+			DownloadWorker worker = factory.create(ai);
+			if(worker == null){
+				failed.incrementAndGet();
+				return;
+			}
+			// the worker holds its host's permit itself, as it may retry on another mirror
+			worker.setHostLimiter(limiter);
+			worker.run();
+			if(Thread.currentThread().isInterrupted()){
+				failed.incrementAndGet();
+			}else{
+				completed.incrementAndGet();
+			}
+		}catch(RuntimeException e){
+			failed.incrementAndGet();
+			System.out.println("download failed: " + e.getMessage());
+		}
+	}
+
+	private Semaphore hostSemaphore(String host){
+		Semaphore semaphore = hosts.get(host);
+		if(semaphore == null){
+			Semaphore created = new Semaphore(hostConcurrency);
+			semaphore = hosts.putIfAbsent(host, created);
+			if(semaphore == null){
+				semaphore = created;
+			}
+		}
+		return semaphore;
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor only exists on Java 21+
+	private static ExecutorService newVirtualThreadExecutor(){
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			System.out.println("virtual threads not supported by this JVM, using platform threads");
+			return Executors.newCachedThreadPool();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.Aether;
+import app.maven.GavFileReader;
+import app.maven.batch.BatchQueue;
+import app.maven.batch.BatchWorker;
+import app.maven.utils.Helper;
+
+public class BatchQueueTest {
+
+	private static final long LEASE = 60 * 1000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File batches(int count) throws Exception {
+		File dir = folder.newFolder(".batches");
+		for(int i=1;i<=count;i++){
+			FileUtils.writeStringToFile(new File(dir, "batch_" + i + ".txt"), "g:a" + i + ":1.0\n");
+		}
+		FileUtils.writeStringToFile(new File(dir, "batch_" + (count + 1) + ".txt.tmp"), "g:partial:1.0\n");
+		return dir;
+	}
+
+	@Test
+	public void testWorkersClaimDistinctBatches() throws Exception {
+		File dir = batches(3);
+		BatchQueue a = new BatchQueue(dir, "a", LEASE);
+		BatchQueue b = new BatchQueue(dir, "b", LEASE);
+		assertEquals(3, a.batches().size());
+		assertEquals("batch_1.txt", a.batches().get(0).getName());
+
+		Set<String> claimed = new HashSet<String>();
+		for(BatchQueue queue: Arrays.asList(a, b, a)){
+			BatchQueue.Lease lease = queue.claim();
+			assertNotNull(lease);
+			assertTrue(claimed.add(lease.getBatch().getName()));
+		}
+		assertNull(b.claim());
+		assertEquals(3, b.remaining());
+		a.close();
+		b.close();
+	}
+
+	@Test
+	public void testCompleteMarksDone() throws Exception {
+		File dir = batches(1);
+		BatchQueue queue = new BatchQueue(dir, "a", LEASE);
+		BatchQueue.Lease lease = queue.claim();
+		assertTrue(lease.complete("1 attempted"));
+		assertFalse(lease.isHeld());
+		assertTrue(new File(dir, "batch_1.txt.done").exists());
+		assertFalse(new File(dir, "batch_1.txt.lease").exists());
+		assertEquals(0, queue.remaining());
+		assertNull(queue.claim());
+		queue.close();
+	}
+
+	@Test
+	public void testRewrittenBatchesStartOver() throws Exception {
+		File dir = batches(3);
+		BatchQueue queue = new BatchQueue(dir, "a", LEASE);
+		for(int i=0;i<3;i++){
+			BatchQueue.Lease lease = queue.claim();
+			FileUtils.writeStringToFile(new File(lease.getJournalDir(), "journal.log"), "1\n");
+			assertTrue(lease.complete("1 attempted"));
+		}
+		assertEquals(0, queue.remaining());
+
+		// a smaller second run of createBatchFiles
+		BatchQueue.reset(new File(dir, "batch_1.txt"));
+		BatchQueue.removeAfter(dir, 1);
+		assertEquals(1, queue.batches().size());
+		assertEquals(1, queue.remaining());
+		assertFalse(new File(dir, "batch_2.txt.done").exists());
+		assertFalse(new File(dir, "batch_3.txt.journal").exists());
+		BatchQueue.Lease lease = queue.claim();
+		assertEquals("batch_1.txt", lease.getBatch().getName());
+		assertFalse(lease.getJournalDir().exists());
+		queue.close();
+	}
+
+	@Test
+	public void testReleasedBatchCanBeClaimedAgain() throws Exception {
+		File dir = batches(1);
+		BatchQueue a = new BatchQueue(dir, "a", LEASE);
+		a.claim().release();
+		BatchQueue b = new BatchQueue(dir, "b", LEASE);
+		assertNotNull(b.claim());
+		a.close();
+		b.close();
+	}
+
+	@Test
+	public void testExpiredLeaseIsReclaimed() throws Exception {
+		File dir = batches(1);
+		BatchQueue dead = new BatchQueue(dir, "dead", LEASE);
+		BatchQueue.Lease stale = dead.claim();
+		dead.close();
+		Iterator<String> guarded = stale.guard(Arrays.asList("x", "y").iterator());
+		assertEquals("x", guarded.next());
+
+		BatchQueue live = new BatchQueue(dir, "live", LEASE);
+		assertNull(live.claim());
+		File lease = new File(dir, "batch_1.txt.lease");
+		lease.setLastModified(System.currentTimeMillis() - 2 * LEASE);
+
+		BatchQueue.Lease reclaimed = live.claim();
+		assertNotNull(reclaimed);
+		assertEquals("dead", reclaimed.getReclaimedFrom());
+		assertEquals("live", FileUtils.readFileToString(lease));
+		// only the batch, the partial batch and the new lease are left
+		assertEquals(3, dir.listFiles().length);
+
+		// the old owner finds out on its next renewal and stops
+		assertFalse(stale.renew());
+		assertFalse(guarded.hasNext());
+		assertFalse(stale.complete("late"));
+		assertFalse(new File(dir, "batch_1.txt.done").exists());
+		assertTrue(reclaimed.complete("done"));
+		live.close();
+	}
+
+	@Test
+	public void testLostLeaseKeepsBatchJournal() throws Exception {
+		final File dir = folder.newFolder(".batches");
+		File repo = folder.newFolder("repo");
+		StringBuilder gavs = new StringBuilder();
+		for(int i=0;i<5;i++){
+			String gav = "g:a" + i + ":1.0";
+			gavs.append(gav).append('\n');
+			// already local, so resolving skips them without a remote
+			FileUtils.writeStringToFile(new File(repo, Helper.calculatePath(Helper.buildArtifactInfo(gav))), "x");
+		}
+		File batch = new File(dir, "batch_1.txt");
+		FileUtils.writeStringToFile(batch, gavs.toString());
+		BatchQueue queue = new BatchQueue(dir, "a", LEASE);
+		final BatchQueue.Lease lease = queue.claim();
+		final GavFileReader reader = new GavFileReader(batch);
+		Iterator<ArtifactInfo> stolen = new Iterator<ArtifactInfo>() {
+			private int read = 0;
+
+			public boolean hasNext() {
+				if(read == 2){
+					// another worker takes the batch over partway through
+					try {
+						FileUtils.writeStringToFile(new File(dir, "batch_1.txt.lease"), "b");
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+					lease.renew();
+				}
+				return reader.hasNext();
+			}
+
+			public ArtifactInfo next() {
+				read++;
+				return reader.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		Aether aether = new Aether(repo.getPath());
+		aether.setRemoteRepository("http://127.0.0.1:1/");
+		aether.setJournal(lease.getJournalDir());
+		aether.resolve(lease.guard(stolen));
+		reader.close();
+		queue.close();
+
+		assertFalse(lease.isHeld());
+		assertTrue(new File(lease.getJournalDir(), "checkpoint").exists());
+		assertEquals(2, FileUtils.readLines(new File(lease.getJournalDir(), "journal.log")).size());
+	}
+
+	@Test
+	public void testFailedBatchIsRetriedThenGivenUp() throws Exception {
+		File dir = folder.newFolder(".batches");
+		File repo = folder.newFolder("repo");
+		FileUtils.writeStringToFile(new File(dir, "batch_1.txt"), "g:ok:1.0\ng:missing:1.0\n");
+		FileUtils.writeStringToFile(new File(repo, "g/ok/1.0/ok-1.0.jar"), "x");
+		Aether aether = new Aether(repo.getPath());
+		// nothing listens here, so the artifact that is not local fails
+		aether.setRemoteRepository("http://127.0.0.1:1/");
+		BatchQueue queue = new BatchQueue(dir, "a", 20);
+
+		assertEquals(0, new BatchWorker(aether, queue).run());
+		File batch = new File(dir, "batch_1.txt");
+		assertFalse(queue.isDone(batch));
+		assertEquals(BatchQueue.MAX_ATTEMPTS, queue.attempts(batch));
+		assertTrue(queue.isGivenUp(batch));
+		assertEquals(0, queue.remaining());
+		assertEquals(1, queue.givenUp());
+		assertNull(queue.claim());
+		assertFalse(new File(dir, "batch_1.txt.lease").exists());
+
+		BatchQueue.reset(batch);
+		assertEquals(1, queue.remaining());
+		queue.close();
+	}
+
+	@Test
+	public void testUnreadableBatchIsGivenUp() throws Exception {
+		File dir = folder.newFolder(".batches");
+		File repo = folder.newFolder("repo");
+		// gzip magic with a broken header, so the batch cannot be opened
+		File batch = new File(dir, "batch_1.txt");
+		FileUtils.writeByteArrayToFile(batch, new byte[]{ 0x1f, (byte) 0x8b, 0 });
+		BatchQueue queue = new BatchQueue(dir, "a", 40);
+		long start = System.currentTimeMillis();
+		assertEquals(0, new BatchWorker(new Aether(repo.getPath()), queue).run());
+		assertTrue(queue.isGivenUp(batch));
+		// paused between attempts instead of claiming it again straight away
+		assertTrue(System.currentTimeMillis() - start >= BatchQueue.MAX_ATTEMPTS * 20);
+		queue.close();
+	}
+}
@@ -0,0 +1,48 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import app.maven.BatchSizeController;
+
+public class BatchSizeControllerTest {
+
+	// artifacts per second peaks at a batch size of 120
+	private static long elapsedFor(int size){
+		double rate = 1000 - Math.abs(size - 120) * 4;
+		return Math.round(size * 1000 / rate);
+	}
+
+	@Test
+	public void testConvergesOnBestSize() {
+		BatchSizeController controller = new BatchSizeController(50, 10, 500);
+		for(int i=0;i<300 && !controller.isSettled();i++){
+			int size = controller.current();
+			controller.record(size, elapsedFor(size));
+		}
+		assertTrue(controller.isSettled());
+		int size = controller.current();
+		assertTrue("settled at " + size, size >= 80 && size <= 160);
+	}
+
+	@Test
+	public void testStaysWithinBounds() {
+		BatchSizeController controller = new BatchSizeController(50, 20, 60);
+		for(int i=0;i<100;i++){
+			int size = controller.current();
+			assertTrue(size >= 20 && size <= 60);
+			controller.record(size, size);
+		}
+	}
+
+	@Test
+	public void testFixedSizeNeverChanges() {
+		BatchSizeController controller = BatchSizeController.fixed(75);
+		for(int i=0;i<30;i++){
+			controller.record(75, i * 10);
+		}
+		assertEquals(75, controller.current());
+	}
+}
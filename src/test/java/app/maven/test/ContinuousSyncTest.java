@@ -0,0 +1,78 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.schedule.ContinuousSync;
+import app.maven.schedule.RepositoryLock;
+
+public class ContinuousSyncTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testOnlyOneLockPerRepository() throws Exception {
+		File base = new File(folder.getRoot(), "repo");
+		RepositoryLock lock = RepositoryLock.tryAcquire(base);
+		assertNotNull(lock);
+		assertNull(RepositoryLock.tryAcquire(base));
+		assertTrue(RepositoryLock.holder(base).contains("@"));
+		RepositoryLock other = RepositoryLock.tryAcquire(folder.newFolder("other"));
+		assertNotNull(other);
+		other.close();
+		lock.close();
+		assertNull(RepositoryLock.holder(base));
+		lock = RepositoryLock.tryAcquire(base);
+		assertNotNull(lock);
+		assertNull(RepositoryLock.tryAcquireShared(base));
+		lock.close();
+	}
+
+	@Test
+	public void testSharedLockKeepsOutExclusiveSyncs() throws Exception {
+		File base = new File(folder.getRoot(), "repo");
+		RepositoryLock shared = RepositoryLock.tryAcquireShared(base);
+		assertNotNull(shared);
+		assertTrue(shared.isShared());
+		assertNull(RepositoryLock.tryAcquire(base));
+		assertNull(RepositoryLock.holder(base));
+		shared.close();
+		RepositoryLock lock = RepositoryLock.tryAcquire(base);
+		assertNotNull(lock);
+		assertFalse(lock.isShared());
+		lock.close();
+	}
+
+	@Test
+	public void testRejectsNonPositiveInterval() throws Exception {
+		for(long[] bad: new long[][]{ {0, 0}, {-60000, 1000}, {60000, -1} }){
+			try{
+				new ContinuousSync(null, null, bad[0], bad[1]);
+				fail("accepted " + bad[0] + "/" + bad[1]);
+			}catch(IllegalArgumentException e){}
+		}
+	}
+
+	@Test
+	public void testDelayKeepsTheIntervalWithJitter() throws Exception {
+		Random random = new Random(1);
+		for(int i=0;i<100;i++){
+			long delay = ContinuousSync.delay(60000, 6000, 15000, random);
+			assertTrue(delay >= 45000 && delay < 51000);
+		}
+		assertEquals(0, ContinuousSync.delay(60000, 0, 90000, random));
+		assertEquals(60000, ContinuousSync.delay(60000, 0, 0, random));
+	}
+}
@@ -0,0 +1,200 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import app.maven.MirrorScheduler;
+import app.maven.utils.Helper;
+import app.maven.workers.DownloadEngine;
+import app.maven.workers.DownloadPipeline;
+import app.maven.workers.DownloadWorker;
+import app.maven.workers.VirtualThreadDownloadEngine;
+
+public class DownloadPipelineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testProcessesEveryArtifact() throws InterruptedException {
+		List<ArtifactInfo> deps = new ArrayList<ArtifactInfo>();
+		for(int i=0;i<500;i++){
+			deps.add(new ArtifactInfo("repo","g","a"+i,"1.0",null));
+		}
+		final AtomicInteger ran = new AtomicInteger();
+		DownloadPipeline pipeline = new DownloadPipeline(4, 8);
+		pipeline.run(deps.iterator(), new DownloadEngine.WorkerFactory() {
+			public DownloadWorker create(ArtifactInfo ai) {
+				return new DownloadWorker(null, null, null) {
+					public void run() {
+						ran.incrementAndGet();
+					}
+				};
+			}
+		});
+		assertEquals(500, ran.get());
+		assertEquals(500, pipeline.getCompleted());
+		assertEquals(0, pipeline.getFailed());
+	}
+
+	@Test
+	public void testQueueIsBounded() throws InterruptedException {
+		List<ArtifactInfo> deps = new ArrayList<ArtifactInfo>();
+		for(int i=0;i<200;i++){
+			deps.add(new ArtifactInfo("repo","g","a"+i,"1.0",null));
+		}
+		final AtomicInteger maxDepth = new AtomicInteger();
+		final DownloadPipeline pipeline = new DownloadPipeline(2, 5);
+		pipeline.run(deps.iterator(), new DownloadEngine.WorkerFactory() {
+			public DownloadWorker create(ArtifactInfo ai) {
+				int depth = pipeline.getQueueDepth();
+				if(depth > maxDepth.get()){
+					maxDepth.set(depth);
+				}
+				return null;
+			}
+		});
+		assertTrue(maxDepth.get() <= 5);
+		assertEquals(200, pipeline.getFailed());
+	}
+
+	@Test
+	public void testReaderErrorIsRethrown() throws InterruptedException {
+		for(DownloadEngine engine: new DownloadEngine[]{ new DownloadPipeline(2, 4), new VirtualThreadDownloadEngine(2, 4) }){
+			final AtomicInteger ran = new AtomicInteger();
+			try{
+				engine.run(failingAfter(10), new DownloadEngine.WorkerFactory() {
+					public DownloadWorker create(ArtifactInfo ai) {
+						return new DownloadWorker(null, null, null) {
+							public void run() {
+								ran.incrementAndGet();
+							}
+						};
+					}
+				});
+				fail("reader error swallowed by " + engine.getClass().getSimpleName());
+			}catch(IllegalStateException e){
+				assertEquals("index closed", e.getMessage());
+			}
+			assertEquals(10, ran.get());
+			assertEquals(10, engine.getCompleted());
+		}
+	}
+
+	@Test
+	public void testHostLimitFollowsTheMirrorContacted() throws Exception {
+		final byte[] jar = "jar".getBytes("UTF-8");
+		final String sha1 = Helper.toHex(MessageDigest.getInstance("SHA-1").digest(jar));
+		final AtomicInteger current = new AtomicInteger();
+		final AtomicInteger most = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if(!path.startsWith("/b/")){
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				int now = current.incrementAndGet();
+				synchronized(most){
+					most.set(Math.max(most.get(), now));
+				}
+				try{
+					Thread.sleep(20);
+					byte[] body = path.endsWith(".sha1") ? sha1.getBytes("UTF-8") : jar;
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}finally{
+					current.decrementAndGet();
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		try{
+			// half the workers start on the first host and retry on the second
+			int port = server.getAddress().getPort();
+			final String first = "http://localhost:" + port + "/a";
+			final String second = "http://127.0.0.1:" + port + "/b";
+			final MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(first, second));
+			final File base = folder.getRoot();
+			List<ArtifactInfo> deps = new ArrayList<ArtifactInfo>();
+			for(int i=0;i<8;i++){
+				deps.add(new ArtifactInfo("repo","g","a"+i,"1.0",null));
+			}
+			VirtualThreadDownloadEngine engine = new VirtualThreadDownloadEngine(1, 8);
+			engine.run(deps.iterator(), new DownloadEngine.WorkerFactory() {
+				public DownloadWorker create(ArtifactInfo ai) {
+					String path = ai.artifactId + ".jar";
+					String mirror = Integer.parseInt(ai.artifactId.substring(1)) % 2 == 0 ? first : second;
+					try{
+						DownloadWorker worker = new DownloadWorker(new File(base, path), new URL(mirror + "/" + path), new URL(mirror + "/" + path + ".sha1"));
+						worker.setScheduler(scheduler, mirror, path);
+						return worker;
+					}catch(MalformedURLException e){
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			assertEquals(8, engine.getCompleted());
+			for(int i=0;i<8;i++){
+				assertTrue(new File(base, "a" + i + ".jar").exists());
+			}
+			assertEquals(1, most.get());
+		}finally{
+			server.stop(0);
+		}
+	}
+
+	private static Iterator<ArtifactInfo> failingAfter(final int count){
+		return new Iterator<ArtifactInfo>(){
+			private int read = 0;
+
+			public boolean hasNext() {
+				return true;
+			}
+
+			public ArtifactInfo next() {
+				if(read == count){
+					throw new IllegalStateException("index closed");
+				}
+				read++;
+				return new ArtifactInfo("repo","g","a"+read,"1.0",null);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,57 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.GavFileReader;
+
+public class GavFileReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static List<String> read(File file) throws IOException {
+		List<String> gavs = new ArrayList<String>();
+		GavFileReader reader = new GavFileReader(file);
+		while(reader.hasNext()){
+			ArtifactInfo ai = reader.next();
+			gavs.add(ai.groupId + ":" + ai.artifactId + ":" + ai.version);
+		}
+		return gavs;
+	}
+
+	@Test
+	public void testSkipsDuplicatesCommentsAndBlankLines() throws IOException {
+		File file = folder.newFile("deps.txt");
+		FileUtils.writeStringToFile(file, "# deps\norg.ex:a:1.0\n\norg.ex : a : 1.0\norg.ex:b:2.0\norg.ex:a:1.0\n");
+		assertEquals("[org.ex:a:1.0, org.ex:b:2.0]", read(file).toString());
+	}
+
+	@Test
+	public void testReadsGzippedFile() throws IOException {
+		File file = folder.newFile("deps.txt.gz");
+		Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), "UTF-8");
+		try{
+			for(int i=0;i<1000;i++){
+				writer.write("org.ex:a" + (i % 100) + ":1.0\n");
+			}
+		}finally{
+			writer.close();
+		}
+		assertEquals(100, read(file).size());
+	}
+}
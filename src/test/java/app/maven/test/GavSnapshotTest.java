@@ -0,0 +1,188 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import app.maven.Aether;
+import app.maven.snapshot.SnapshotDiff;
+import app.maven.snapshot.SnapshotEntry;
+import app.maven.snapshot.SnapshotReader;
+import app.maven.snapshot.SnapshotSorter;
+
+public class GavSnapshotTest {
+
+	private static final String SHA1 = "0123456789abcdef0123456789abcdef01234567";
+	private static final String OTHER = "fedcba9876543210fedcba9876543210fedcba98";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File snapshot(String name, int runSize, SnapshotEntry... entries) throws Exception {
+		File file = new File(folder.getRoot(), name);
+		SnapshotSorter sorter = new SnapshotSorter(file, runSize);
+		for(SnapshotEntry entry: entries){
+			sorter.add(entry);
+		}
+		sorter.finish();
+		return file;
+	}
+
+	private static List<String> read(File file) throws Exception {
+		List<String> entries = new ArrayList<String>();
+		SnapshotReader reader = new SnapshotReader(file);
+		while(reader.hasNext()){
+			SnapshotEntry entry = reader.next();
+			entries.add(entry.getGav() + " " + entry.getSize() + " " + entry.getSha1());
+		}
+		return entries;
+	}
+
+	@Test
+	public void testSortsAcrossRunsAndDropsDuplicates() throws Exception {
+		File file = snapshot("remote.gavs", 2,
+			new SnapshotEntry("org.b:lib:jar:1.0", 10, SHA1),
+			new SnapshotEntry("org.a:lib:jar:sources:2.0", -1, null),
+			new SnapshotEntry("org.a:lib:jar:1.0", 5, "not a sha1"),
+			new SnapshotEntry("org.b:lib:jar:1.0", 10, SHA1),
+			new SnapshotEntry("org.a:lib:jar:10.0", 7, SHA1.toUpperCase()));
+		assertEquals(Arrays.asList(
+			"org.a:lib:jar:1.0 5 null",
+			"org.a:lib:jar:10.0 7 " + SHA1,
+			"org.a:lib:jar:sources:2.0 -1 null",
+			"org.b:lib:jar:1.0 10 " + SHA1), read(file));
+		assertFalse(new File(file.getPath() + ".run0").exists());
+	}
+
+	@Test
+	public void testTruncatedSnapshotFails() throws Exception {
+		File file = snapshot("remote.gavs", 100, new SnapshotEntry("g:a:jar:1.0", 1, null), new SnapshotEntry("g:b:jar:1.0", 2, null));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 9);
+		raf.close();
+		try{
+			read(file);
+			fail("truncated snapshot read");
+		}catch(IllegalStateException e){
+			assertTrue(e.getMessage().contains("truncated"));
+		}
+	}
+
+	@Test
+	public void testDiffFindsMissingChangedAndExtra() throws Exception {
+		File remote = snapshot("remote.gavs", 100,
+			new SnapshotEntry("g:a:jar:1.0", 10, SHA1),
+			new SnapshotEntry("g:b:jar:1.0", 10, SHA1),
+			new SnapshotEntry("g:c:jar:1.0", 10, SHA1),
+			new SnapshotEntry("g:d:jar:1.0", 10, SHA1));
+		File local = snapshot("local.gavs", 100,
+			new SnapshotEntry("g:a:jar:1.0", 10, null),
+			new SnapshotEntry("g:c:jar:1.0", 10, OTHER),
+			new SnapshotEntry("g:d:jar:1.0", 11, SHA1),
+			new SnapshotEntry("g:e:jar:1.0", 10, SHA1));
+		File base = folder.newFolder("repo");
+		File jar = new File(base, "g/c/1.0/c-1.0.jar");
+		FileUtils.writeStringToFile(jar, "local jar");
+		File stale = new File(base, "g/c/1.0/c-1.0.jar.sha1");
+		FileUtils.writeStringToFile(stale, OTHER);
+
+		SnapshotDiff diff = new SnapshotDiff(new SnapshotReader(remote), new SnapshotReader(local));
+		List<String> fetched = new ArrayList<String>();
+		for(Iterator<ArtifactInfo> it = diff.toDownload(base, false); it.hasNext();){
+			ArtifactInfo ai = it.next();
+			fetched.add(ai.artifactId + " " + ai.size + " " + ai.sha1);
+		}
+		assertEquals(Arrays.asList("b 10 " + SHA1, "c 10 " + SHA1, "d 10 " + SHA1), fetched);
+		assertFalse(stale.exists());
+		// the downloader only replaces the changed jar once the new one is verified
+		assertTrue(jar.exists());
+		assertEquals(1, diff.getMissing());
+		assertEquals(2, diff.getChanged());
+		assertEquals(1, diff.getExtra());
+		assertEquals(1, diff.getUnchanged());
+	}
+
+	@Test
+	public void testChangedArtifactIsResolvedAgain() throws Exception {
+		final Map<String, String> files = new HashMap<String, String>();
+		files.put("/g/c/1.0/c-1.0.jar", "remote jar");
+		files.put("/g/c/1.0/c-1.0.pom", "<project><modelVersion>4.0.0</modelVersion><groupId>g</groupId>"
+			+ "<artifactId>c</artifactId><version>1.0</version></project>");
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String file = files.get(exchange.getRequestURI().getPath());
+				if(file == null){
+					exchange.sendResponseHeaders(404, -1);
+				}else{
+					byte[] body = file.getBytes("UTF-8");
+					exchange.sendResponseHeaders(200, exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		try{
+			File remote = snapshot("remote.gavs", 100, new SnapshotEntry("g:c:jar:1.0", 10, SHA1));
+			File local = snapshot("local.gavs", 100, new SnapshotEntry("g:c:jar:1.0", 9, OTHER));
+			File base = folder.newFolder("repo");
+			File jar = new File(base, "g/c/1.0/c-1.0.jar");
+			FileUtils.writeStringToFile(jar, "local jar");
+			FileUtils.writeStringToFile(new File(base, "g/c/1.0/c-1.0.jar.sha1"), OTHER);
+
+			Aether aether = new Aether(base.getPath());
+			aether.setRemoteRepository("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+			SnapshotDiff diff = new SnapshotDiff(new SnapshotReader(remote), new SnapshotReader(local));
+			aether.resolve(diff.toDownload(base, true));
+			assertEquals(1, diff.getChanged());
+			assertEquals("remote jar", FileUtils.readFileToString(jar));
+		}finally{
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void testEntryFromArtifactInfo() throws Exception {
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = "g";
+		ai.artifactId = "a";
+		ai.fextension = "jar";
+		assertNull(SnapshotEntry.of(ai));
+		ai.version = "1.0";
+		ai.classifier = "sources";
+		ai.size = 3;
+		SnapshotEntry entry = SnapshotEntry.of(ai);
+		assertEquals("g:a:jar:sources:1.0", entry.getGav());
+		ArtifactInfo back = entry.toArtifactInfo();
+		assertEquals("sources", back.classifier);
+		assertEquals("1.0", back.version);
+		assertEquals(3, back.size);
+	}
+}
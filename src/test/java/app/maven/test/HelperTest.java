@@ -0,0 +1,100 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.utils.Helper;
+
+public class HelperTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCalculatePathFromGav() {
+		assertEquals("org/apache/commons/1.0/commons-1.0.jar", Helper.calculatePath("org.apache:commons:1.0"));
+		assertEquals("org/ex/lib/2.1/lib-2.1.jar", Helper.calculatePath("org.ex : lib : 2.1"));
+		// the short forms are only recognised from the length of "g/a/"
+		assertEquals("a/b/1.0/b-1.0.pom", Helper.calculatePath("a:b:pom:1.0"));
+		assertEquals("a/bc/1.0/bc-1.0-sources.jar", Helper.calculatePath("a:bc:jar:sources:1.0"));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testCalculatePathFailsOnTrailingEmptyField() {
+		Helper.calculatePath("g:a:");
+	}
+
+	@Test
+	public void testCalculateGavNeedsReleaseVersion() {
+		assertEquals("org.ex:lib:jar:1.0-beta", Helper.calculateGav("org.ex", "lib", "1.0-beta"));
+		assertNull(Helper.calculateGav("org.ex", "lib", "LATEST"));
+		assertNull(Helper.calculateGav("org.ex", "lib", ""));
+		assertNull(Helper.calculateGav("org.ex", "lib", "1.0\n"));
+
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = "org.ex";
+		ai.artifactId = "lib";
+		ai.version = "2.0";
+		ai.fextension = "jar";
+		ai.classifier = "tests";
+		assertEquals("org.ex:lib:jar:tests:2.0", Helper.calculateGav(ai));
+		assertEquals("org/ex/lib/2.0/lib-2.0-tests.jar", Helper.calculatePath(ai));
+	}
+
+	@Test
+	public void testBuildArtifactInfoFromGav() {
+		ArtifactInfo ai = Helper.buildArtifactInfo("org.ex:lib:1.0:extra");
+		assertEquals("org.ex", ai.groupId);
+		assertEquals("lib", ai.artifactId);
+		assertEquals("1.0", ai.version);
+		assertEquals("jar", ai.fextension);
+		assertEquals("", Helper.buildArtifactInfo("g:a::x").version);
+		assertNull(Helper.buildArtifactInfo("g:a"));
+		assertNull(Helper.buildArtifactInfo("g:a::"));
+		assertNull(Helper.buildArtifactInfo(null));
+	}
+
+	@Test
+	public void testBuildArtifactInfoReadsCalculatedGav() {
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = "org.ex";
+		ai.artifactId = "lib";
+		ai.fextension = "jar";
+		ai.classifier = "sources";
+		ai.version = "1.0";
+		ArtifactInfo read = Helper.buildArtifactInfo(Helper.calculateGav(ai));
+		assertEquals("org.ex", read.groupId);
+		assertEquals("lib", read.artifactId);
+		assertEquals("jar", read.fextension);
+		assertEquals("sources", read.classifier);
+		assertEquals("1.0", read.version);
+
+		read = Helper.buildArtifactInfo("org.ex:lib:jar:2.1");
+		assertEquals("2.1", read.version);
+		assertNull(read.classifier);
+	}
+
+	@Test
+	public void testRepositoryFiles() throws IOException {
+		File root = folder.getRoot();
+		File jar = new File(root, "org/ex/lib/1.0/lib-1.0.jar");
+		jar.getParentFile().mkdirs();
+		jar.createNewFile();
+		assertEquals("org.ex:lib:jar:1.0", Helper.calculateGav(root, jar));
+		ArtifactInfo ai = Helper.buildArtifactInfo(root, jar);
+		assertEquals("org.ex", ai.groupId);
+		assertEquals("lib", ai.artifactId);
+		assertEquals("1.0", ai.version);
+		assertEquals("org/ex/lib/1.0/lib-1.0.jar", ai.path);
+		assertEquals("lib-1.0.jar", ai.fname);
+		assertNull(Helper.buildArtifactInfo(root, new File(root, "lib/lib-1.0.jar")));
+	}
+}
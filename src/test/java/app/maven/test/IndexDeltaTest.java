@@ -0,0 +1,73 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.IndexDelta;
+
+public class IndexDeltaTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Document document(String field, String value){
+		Document doc = new Document();
+		doc.add(new Field(field, value, Field.Store.YES, Field.Index.NOT_ANALYZED));
+		return doc;
+	}
+
+	@Test
+	public void testRecordsArtifactsAcrossUpdatesUntilCleared() throws Exception {
+		File dir = folder.getRoot();
+		IndexDelta first = new IndexDelta(dir);
+		assertTrue(first.accept(document(ArtifactInfo.UINFO, "g|a|1.0|NA|jar")));
+		assertTrue(first.accept(document(ArtifactInfo.DELETED, "g|old|1.0|NA|jar")));
+		assertTrue(first.accept(document(ArtifactInfo.UINFO, "g|b|1.0|sources|jar")));
+		assertEquals(2, first.getRecorded());
+		first.commit();
+
+		// a failed update keeps what earlier updates recorded
+		IndexDelta failed = new IndexDelta(dir);
+		failed.accept(document(ArtifactInfo.UINFO, "g|c|1.0|NA|jar"));
+		failed.discard();
+
+		IndexDelta second = new IndexDelta(dir);
+		second.accept(document(ArtifactInfo.UINFO, "g|a|1.0|NA|jar"));
+		second.accept(document(ArtifactInfo.UINFO, "g|d|2.0|NA|pom"));
+		second.commit();
+		assertEquals(Arrays.asList("g|a|1.0|NA|jar", "g|b|1.0|sources|jar", "g|d|2.0|NA|pom"), second.read());
+		assertFalse(second.isOverflowed());
+
+		second.clear();
+		assertFalse(second.getFile().exists());
+		assertTrue(new IndexDelta(dir).read().isEmpty());
+	}
+
+	@Test
+	public void testShardsKeepTheirOwnDelta() throws Exception {
+		File dir = folder.getRoot();
+		IndexDelta first = new IndexDelta(dir, "-1-of-2");
+		first.accept(document(ArtifactInfo.UINFO, "g|a|1.0|NA|jar"));
+		first.commit();
+		IndexDelta second = new IndexDelta(dir, "-2-of-2");
+		second.accept(document(ArtifactInfo.UINFO, "g|a|1.0|NA|jar"));
+		second.commit();
+
+		// one shard finishing its sync leaves the other's delta pending
+		first.clear();
+		assertTrue(new IndexDelta(dir, "-1-of-2").read().isEmpty());
+		assertEquals(Arrays.asList("g|a|1.0|NA|jar"), new IndexDelta(dir, "-2-of-2").read());
+		assertTrue(new IndexDelta(dir).read().isEmpty());
+	}
+}
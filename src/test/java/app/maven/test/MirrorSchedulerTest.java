@@ -0,0 +1,142 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import app.maven.MirrorScheduler;
+import app.maven.utils.Helper;
+import app.maven.workers.DownloadWorker;
+
+public class MirrorSchedulerTest {
+
+	private static final String FAST = "http://fast/maven2";
+	private static final String SLOW = "http://slow/maven2";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPrefersFasterMirror() {
+		MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(FAST, SLOW));
+		for(int i=0;i<20;i++){
+			scheduler.success(FAST, 10, 100000, 100);
+			scheduler.success(SLOW, 100, 100000, 1000);
+		}
+		int fast = 0;
+		for(int i=0;i<1000;i++){
+			if(FAST.equals(scheduler.next())){
+				fast++;
+			}
+		}
+		assertTrue("fast mirror picked " + fast + " times", fast > 800);
+	}
+
+	@Test
+	public void testPrefersLowerLatencyForSmallArtifacts() {
+		MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(FAST, SLOW));
+		// SLOW streams large files ten times faster but takes 300ms to answer
+		for(int i=0;i<5;i++){
+			scheduler.success(SLOW, 300, 10000000, 1300);
+		}
+		for(int i=0;i<40;i++){
+			scheduler.success(FAST, 5, 1000, 6);
+		}
+		int fast = 0;
+		for(int i=0;i<1000;i++){
+			if(FAST.equals(scheduler.next())){
+				fast++;
+			}
+		}
+		assertTrue("low latency mirror picked " + fast + " times", fast > 800);
+	}
+
+	@Test
+	public void testBacksOffFailingMirror() {
+		MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(FAST, SLOW));
+		scheduler.failure(SLOW);
+		scheduler.failure(SLOW);
+		assertFalse(scheduler.isBackedOff(SLOW));
+		scheduler.failure(SLOW);
+		assertTrue(scheduler.isBackedOff(SLOW));
+		for(int i=0;i<100;i++){
+			assertEquals(FAST, scheduler.next());
+		}
+	}
+
+	@Test
+	public void testExcludedMirrorsAreSkipped() {
+		MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(FAST, SLOW));
+		assertEquals(SLOW, scheduler.next(Arrays.asList(FAST)));
+		assertNull(scheduler.next(Arrays.asList(FAST, SLOW)));
+	}
+
+	@Test
+	public void testSkippedDownloadEndsProbe() throws Exception {
+		MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(FAST, SLOW), 1);
+		for(int i=0;i<3;i++){
+			scheduler.failure(SLOW);
+		}
+		Thread.sleep(10);
+		assertEquals(SLOW, scheduler.next(Arrays.asList(FAST)));
+
+		String path = "g/a/1.0/a-1.0.jar";
+		File local = new File(folder.getRoot(), path);
+		FileUtils.writeStringToFile(local, "jar");
+		String sha1 = Helper.toHex(MessageDigest.getInstance("SHA-1").digest("jar".getBytes("UTF-8")));
+		DownloadWorker worker = new DownloadWorker(local, new URL(SLOW + "/" + path), new URL(SLOW + "/" + path + ".sha1"), sha1, 3);
+		worker.setScheduler(scheduler, SLOW, path);
+		worker.run();
+		assertTrue(worker.isSuccessful());
+		// the probe was never sent, so the next pick probes again instead of shunning the mirror
+		assertEquals(SLOW, scheduler.next());
+	}
+
+	@Test
+	public void testCorruptDownloadsBackOffMirror() throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = "corrupt".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		try{
+			String mirror = "http://127.0.0.1:" + server.getAddress().getPort();
+			MirrorScheduler scheduler = new MirrorScheduler(Arrays.asList(mirror));
+			for(int i=0;i<3;i++){
+				String path = "g/a" + i + "/1.0/a" + i + "-1.0.jar";
+				DownloadWorker worker = new DownloadWorker(new File(folder.getRoot(), path), new URL(mirror + "/" + path),
+					new URL(mirror + "/" + path + ".sha1"), "0123456789abcdef0123456789abcdef01234567", -1);
+				worker.setScheduler(scheduler, mirror, path);
+				worker.run();
+				assertFalse(worker.isSuccessful());
+			}
+			assertTrue(scheduler.isBackedOff(mirror));
+		}finally{
+			server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.PresenceReport;
+import app.maven.utils.Helper;
+
+public class PresenceReportTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static ArtifactInfo artifact(String groupId, String artifactId, String classifier, String packaging, long size){
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = groupId;
+		ai.artifactId = artifactId;
+		ai.version = "1.0";
+		ai.classifier = classifier;
+		ai.packaging = packaging;
+		ai.fextension = "jar";
+		ai.size = size;
+		return ai;
+	}
+
+	@Test
+	public void testCountsPresenceAndBytesWithAndWithoutListingCache() throws Exception {
+		File base = folder.getRoot();
+		List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+		for(int i=0;i<600;i++){
+			artifacts.add(artifact("org.g" + (i % 3), "a" + i, null, "jar", 100));
+			artifacts.add(artifact("org.g" + (i % 3), "a" + i, "sources", "jar", 10));
+		}
+		artifacts.add(artifact("org.p", "plugin", null, "maven-plugin", -1));
+		// every even artifact is local with its sources, every third without
+		for(int i=0;i<600;i+=2){
+			FileUtils.writeStringToFile(new File(base, Helper.calculatePath(artifacts.get(i * 2))), "x");
+			if(i % 3 != 0){
+				FileUtils.writeStringToFile(new File(base, Helper.calculatePath(artifacts.get(i * 2 + 1))), "x");
+			}
+		}
+
+		for(boolean cache: new boolean[]{ false, true }){
+			PresenceReport report = new PresenceReport(base, 4, cache);
+			report.run(artifacts.iterator());
+			PresenceReport.Totals total = report.getTotal();
+			assertEquals(1201, total.getArtifacts());
+			assertEquals(300 + 200, total.getLocal());
+			assertEquals(600 * 110, total.getBytes());
+			assertEquals(300 * 110 + 100 * 10, total.getMissingBytes());
+			String summary = report.summary(2);
+			assertTrue(summary, summary.contains("maven-plugin: 1 artifacts (0B), 0 local, 1 missing (0B)"));
+			assertTrue(summary, summary.contains("(1 missing artifacts have no size in the index)"));
+			assertTrue(summary, summary.contains("Top 2 of 4 groupIds"));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.RepositoryScanner;
+
+public class RepositoryScannerTest {
+
+	private static final String SHA1 = "0123456789abcdef0123456789abcdef01234567";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File base;
+
+	private void file(String path, String content) throws Exception {
+		FileUtils.writeStringToFile(new File(base, path), content);
+	}
+
+	@Before
+	public void createRepository() throws Exception {
+		base = folder.newFolder("repo");
+		file("org/example/lib/1.0/lib-1.0.jar", "jar");
+		file("org/example/lib/1.0/lib-1.0.jar.sha1", SHA1);
+		file("org/example/lib/1.0/lib-1.0.pom", "pom");
+		file("org/example/lib/1.0/_remote.repositories", "");
+		file("org/example/lib/2.0/lib-2.0.jar", "jar");
+		file("org/example/lib/2.0/lib-2.0.jar.part", "half");
+		file("org/example/lib/maven-metadata.xml", "<metadata/>");
+		// a group nested inside an artifact directory
+		file("org/example/lib/ext/3.1/ext-3.1.jar", "jar");
+		file("org/example/lib/ext/3.1/ext-3.1-sources.jar", "sources");
+		file("org/example/lib/ext/3.1/ext-3.1.tar.gz", "tar");
+		file("com/x/parent/1/parent-1.pom", "pom");
+		file("com/x/parent/1/parent-1.pom.sha1", SHA1);
+		file("com/x/notes/README.txt", "not an artifact");
+		file(".remote-index/org/hidden/1.0/hidden-1.0.jar", "jar");
+		// more versions than the queue holds, so the walk has to wait for the reader
+		for(int i=0;i<50;i++){
+			file("org/many/a" + i + "/1." + i + "/a" + i + "-1." + i + ".jar", "jar");
+		}
+	}
+
+	private static List<String> scan(RepositoryScanner scanner){
+		List<String> found = new ArrayList<String>();
+		scanner.start();
+		while(scanner.hasNext()){
+			ArtifactInfo ai = scanner.next();
+			found.add(ai.groupId + ":" + ai.artifactId + ":" + ai.version
+				+ (ai.classifier != null ? ":" + ai.classifier : "")
+				+ (ai.size > 0 ? " " + ai.fextension + " " + ai.size + " " + ai.sha1 : ""));
+		}
+		Collections.sort(found);
+		return found;
+	}
+
+	@Test
+	public void testStreamsEveryVersionDirectoryOnce() throws Exception {
+		RepositoryScanner scanner = new RepositoryScanner(base, 4, 4);
+		List<String> expected = new ArrayList<String>();
+		expected.add("com.x:parent:1");
+		expected.add("org.example:lib:1.0");
+		expected.add("org.example:lib:2.0");
+		expected.add("org.example.lib:ext:3.1");
+		for(int i=0;i<50;i++){
+			expected.add("org.many:a" + i + ":1." + i);
+		}
+		Collections.sort(expected);
+		assertEquals(expected, scan(scanner));
+		assertEquals(expected.size(), scanner.getFound());
+	}
+
+	@Test
+	public void testStreamsEveryArtifactFileOnce() throws Exception {
+		RepositoryScanner scanner = new RepositoryScanner(base, 4, 4).setArtifactFiles(true);
+		List<String> expected = new ArrayList<String>();
+		expected.add("com.x:parent:1 pom 3 " + SHA1);
+		expected.add("org.example:lib:1.0 jar 3 " + SHA1);
+		expected.add("org.example:lib:2.0 jar 3 null");
+		expected.add("org.example.lib:ext:3.1 jar 3 null");
+		expected.add("org.example.lib:ext:3.1 tar.gz 3 null");
+		expected.add("org.example.lib:ext:3.1:sources jar 7 null");
+		for(int i=0;i<50;i++){
+			expected.add("org.many:a" + i + ":1." + i + " jar 3 null");
+		}
+		Collections.sort(expected);
+		assertEquals(expected, scan(scanner));
+	}
+}
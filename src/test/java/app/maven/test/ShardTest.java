@@ -0,0 +1,95 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Test;
+
+import app.maven.Shard;
+
+public class ShardTest {
+
+	private static ArtifactInfo artifact(String groupId, String artifactId, String version){
+		ArtifactInfo ai = new ArtifactInfo();
+		ai.groupId = groupId;
+		ai.artifactId = artifactId;
+		ai.version = version;
+		return ai;
+	}
+
+	@Test
+	public void testParse() {
+		Shard shard = Shard.parse("2/8");
+		assertEquals(2, shard.getIndex());
+		assertEquals(8, shard.getCount());
+		assertEquals("-2-of-8", shard.suffix());
+		assertEquals("", Shard.ALL.suffix());
+		for(String bad: new String[]{"0/4", "5/4", "1", "a/b", "1/0"}){
+			try{
+				Shard.parse(bad);
+				assertTrue("accepted " + bad, false);
+			}catch(IllegalArgumentException e){}
+		}
+	}
+
+	@Test
+	public void testShardsPartitionAndAreStable() {
+		int count = 7;
+		int[] sizes = new int[count + 1];
+		for(int g=0;g<50;g++){
+			for(int a=0;a<40;a++){
+				int owners = 0;
+				for(int i=1;i<=count;i++){
+					if(new Shard(i, count).contains("org.group" + g, "lib" + a)){
+						owners++;
+						sizes[i]++;
+					}
+				}
+				assertEquals(1, owners);
+			}
+		}
+		for(int i=1;i<=count;i++){
+			assertTrue("shard " + i + " has " + sizes[i], sizes[i] > 2000 / count / 2);
+		}
+		// assignments are shared between nodes, so they must never change
+		assertEquals(1, Shard.of("junit", "junit", 4));
+		assertEquals(4, Shard.of("org.apache.maven", "maven-core", 4));
+		assertEquals(2, Shard.of("com.google.guava", "guava", 4));
+	}
+
+	@Test
+	public void testFilterKeepsAllVersionsTogether() {
+		List<ArtifactInfo> source = new ArrayList<ArtifactInfo>();
+		for(int a=0;a<20;a++){
+			for(int v=0;v<3;v++){
+				source.add(artifact("org.example", "lib" + a, "1." + v));
+			}
+		}
+		source.add(null);
+		Shard shard = new Shard(1, 3);
+		Iterator<ArtifactInfo> it = shard.filter(source.iterator());
+		int kept = 0;
+		boolean sawNull = false;
+		while(it.hasNext()){
+			ArtifactInfo ai = it.next();
+			if(ai == null){
+				sawNull = true;
+				continue;
+			}
+			assertTrue(shard.contains(ai));
+			kept++;
+		}
+		assertTrue(sawNull);
+		assertEquals(0, kept % 3);
+		assertFalse(it.hasNext());
+		assertNull(Shard.ALL.filter(Arrays.<ArtifactInfo>asList((ArtifactInfo) null).iterator()).next());
+	}
+}
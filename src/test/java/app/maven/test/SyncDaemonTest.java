@@ -0,0 +1,144 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Test;
+
+import app.maven.daemon.SyncJob;
+import app.maven.utils.Json;
+import app.maven.workers.DownloadEngine;
+import app.maven.workers.DownloadWorker;
+import app.maven.workers.SharedDownloadEngine;
+
+public class SyncDaemonTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testParsesJson() throws Exception {
+		Map<String, Object> parsed = (Map<String, Object>) Json.parse(" {\"a\": [1, -2.5e1, true, null], \"b\": \"x\\\"\\u0041\\n\", \"c\": {}} ");
+		assertEquals(Arrays.asList(1L, -25.0, Boolean.TRUE, null), parsed.get("a"));
+		assertEquals("x\"A\n", parsed.get("b"));
+		assertTrue(((Map<String, Object>) parsed.get("c")).isEmpty());
+		for(String bad: new String[]{ "{\"a\":1,}", "[1 2]", "\"open", "{} x", "" }){
+			try{
+				Json.parse(bad);
+				fail("parsed " + bad);
+			}catch(IllegalArgumentException e){}
+		}
+		StringBuilder quoted = new StringBuilder();
+		Json.quote(quoted, "x\"A\n\u0001");
+		assertEquals("x\"A\n\u0001", Json.parse(quoted.toString()));
+	}
+
+	@Test
+	public void testParsesJobs() throws Exception {
+		SyncJob job = SyncJob.parse(1, "{\"mode\":\"direct\",\"groupId\":\"org.example\"}");
+		assertEquals(SyncJob.Mode.DIRECT, job.getMode());
+		assertEquals("org.example", job.getGroupId());
+		assertEquals("", job.getArtifactId());
+		assertNull(job.getArtifacts());
+		assertEquals(SyncJob.State.QUEUED, job.getState());
+
+		job = SyncJob.parse(2, "{\"gavs\":[\"g:a:1.0\",\"g:b:zip:sources:2.0\"]}");
+		assertEquals(SyncJob.Mode.RESOLVE, job.getMode());
+		assertEquals(2, job.getArtifacts().size());
+		assertEquals("sources", job.getArtifacts().get(1).classifier);
+		assertTrue(job.toJson(), job.toJson().startsWith("{\"id\":2,\"mode\":\"resolve\",\"state\":\"queued\",\"gavs\":2,"));
+
+		for(String bad: new String[]{ "[]", "{\"mode\":\"sideways\"}", "{\"gavs\":[\"g:a\"]}", "{\"groupId\":1}", "{\"mode\":\"validate\",\"gavs\":[]}" }){
+			try{
+				SyncJob.parse(3, bad);
+				fail("parsed " + bad);
+			}catch(IllegalArgumentException e){}
+		}
+	}
+
+	@Test
+	public void testSharedEngineCountsEachJob() throws Exception {
+		final SharedDownloadEngine shared = new SharedDownloadEngine(2);
+		final DownloadEngine.WorkerFactory none = new DownloadEngine.WorkerFactory() {
+			public DownloadWorker create(ArtifactInfo ai) {
+				return null;
+			}
+		};
+		final List<DownloadEngine> engines = new ArrayList<DownloadEngine>();
+		List<Thread> jobs = new ArrayList<Thread>();
+		for(int i=1;i<=3;i++){
+			final DownloadEngine engine = shared.newEngine();
+			final int count = i * 100;
+			engines.add(engine);
+			Thread job = new Thread(new Runnable(){
+				public void run() {
+					try {
+						engine.run(artifacts(count), none);
+					} catch (InterruptedException e) {}
+				}
+			});
+			jobs.add(job);
+			job.start();
+		}
+		for(Thread job: jobs){
+			job.join();
+		}
+		for(int i=0;i<3;i++){
+			assertEquals((i + 1) * 100, engines.get(i).getQueued());
+			assertEquals((i + 1) * 100, engines.get(i).getFailed());
+			assertEquals(0, engines.get(i).getQueueDepth());
+		}
+		shared.shutdown();
+	}
+
+	@Test
+	public void testSharedEngineFailsJobOnReaderError() throws Exception {
+		SharedDownloadEngine shared = new SharedDownloadEngine(2);
+		DownloadEngine engine = shared.newEngine();
+		final Iterator<ArtifactInfo> five = artifacts(5);
+		Iterator<ArtifactInfo> broken = new Iterator<ArtifactInfo>(){
+			public boolean hasNext() {
+				return true;
+			}
+
+			public ArtifactInfo next() {
+				if(!five.hasNext()){
+					throw new IllegalStateException("index closed");
+				}
+				return five.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		try{
+			engine.run(broken, new DownloadEngine.WorkerFactory() {
+				public DownloadWorker create(ArtifactInfo ai) {
+					return null;
+				}
+			});
+			fail("reader error swallowed");
+		}catch(IllegalStateException e){
+			assertEquals("index closed", e.getMessage());
+		}
+		assertEquals(5, engine.getFailed());
+		assertEquals(0, engine.getQueueDepth());
+		shared.shutdown();
+	}
+
+	private static Iterator<ArtifactInfo> artifacts(int count){
+		List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+		for(int i=0;i<count;i++){
+			artifacts.add(new ArtifactInfo());
+		}
+		return artifacts.iterator();
+	}
+}
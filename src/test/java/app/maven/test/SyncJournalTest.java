@@ -0,0 +1,78 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.index.ArtifactInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.journal.SyncJournal;
+
+public class SyncJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static List<ArtifactInfo> artifacts(int count){
+		List<ArtifactInfo> deps = new ArrayList<ArtifactInfo>();
+		for(int i=0;i<count;i++){
+			ArtifactInfo ai = new ArtifactInfo("repo","g","a"+i,"1.0",null);
+			ai.fextension = "jar";
+			deps.add(ai);
+		}
+		return deps;
+	}
+
+	@Test
+	public void testResumeSkipsCompletedArtifacts() throws IOException {
+		File dir = folder.getRoot();
+		SyncJournal journal = new SyncJournal(dir);
+		journal.open(false);
+		Iterator<ArtifactInfo> it = journal.track(artifacts(10).iterator());
+		List<ArtifactInfo> taken = new ArrayList<ArtifactInfo>();
+		for(int i=0;i<6;i++){
+			taken.add(it.next());
+		}
+		// 0-3 and 5 finish, 4 is still in flight when the run dies
+		for(int i: new int[]{0, 1, 2, 3, 5}){
+			journal.complete(taken.get(i), true);
+		}
+		journal.close();
+
+		journal = new SyncJournal(dir);
+		journal.open(true);
+		List<String> remaining = new ArrayList<String>();
+		it = journal.track(artifacts(10).iterator());
+		while(it.hasNext()){
+			ArtifactInfo ai = it.next();
+			remaining.add(ai.artifactId);
+			journal.complete(ai, true);
+		}
+		assertEquals(5, journal.getSkipped());
+		assertEquals("[a4, a6, a7, a8, a9]", remaining.toString());
+		journal.finish();
+		assertEquals("", FileUtils.readFileToString(journal.getJournal()));
+		assertFalse(new File(dir, "checkpoint").exists());
+	}
+
+	@Test
+	public void testFinishKeepsFailures() throws IOException {
+		SyncJournal journal = new SyncJournal(folder.getRoot());
+		journal.open(false);
+		Iterator<ArtifactInfo> it = journal.track(artifacts(3).iterator());
+		journal.complete(it.next(), true);
+		journal.complete(it.next(), false);
+		journal.complete(it.next(), true);
+		journal.finish();
+		assertEquals("FAIL\t1\tg/a1/1.0/a1-1.0.jar\n", FileUtils.readFileToString(journal.getJournal()));
+	}
+}
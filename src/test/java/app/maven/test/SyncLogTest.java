@@ -0,0 +1,86 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.logging.SyncLog;
+import app.maven.logging.SyncLog.Level;
+
+public class SyncLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+
+	private SyncLog start(){
+		SyncLog log = new SyncLog(new PrintStream(console, true));
+		log.start();
+		return log;
+	}
+
+	@Test
+	public void testWritesAtOrAboveLevel() throws Exception {
+		SyncLog log = start();
+		log.log(Level.DEBUG, "downloading file", "a.jar", null);
+		log.log(Level.INFO, "downloaded file", "a.jar", null);
+		log.log(Level.WARN, "download failed", "b.jar", "timeout");
+		log.flush();
+		assertEquals("downloaded file: a.jar\nWARN download failed: b.jar : timeout\n", console.toString("UTF-8"));
+
+		log.setLevel(Level.DEBUG);
+		assertTrue(log.isEnabled(Level.DEBUG));
+		log.log(Level.DEBUG, "downloading file", "c.jar", null);
+		log.close();
+		assertTrue(console.toString("UTF-8").endsWith("downloading file: c.jar\n"));
+	}
+
+	@Test
+	public void testQuietWritesJsonOnly() throws Exception {
+		File file = new File(folder.getRoot(), "logs/sync.jsonl");
+		SyncLog log = start();
+		log.setQuiet(true);
+		assertFalse(log.isEnabled(Level.INFO));
+		log.setJsonFile(file);
+		assertTrue(log.isEnabled(Level.INFO));
+		log.log(Level.INFO, "downloaded file", "a \"quoted\"\n.jar", null);
+		log.close();
+		assertEquals("", console.toString("UTF-8"));
+		List<String> lines = FileUtils.readLines(file, "UTF-8");
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0).startsWith("{\"time\":"));
+		assertTrue(lines.get(0).contains("\"level\":\"INFO\""));
+		assertTrue(lines.get(0).endsWith("\"event\":\"downloaded file\",\"subject\":\"a \\\"quoted\\\"\\n.jar\"}"));
+	}
+
+	@Test
+	public void testQuietKeepsWarningsOnConsole() throws Exception {
+		File file = new File(folder.getRoot(), "sync.jsonl");
+		SyncLog log = start();
+		log.setQuiet(true);
+		assertTrue(log.isEnabled(Level.WARN));
+		assertFalse(log.isEnabled(Level.INFO));
+		log.log(Level.INFO, "downloaded file", "a.jar", null);
+		log.log(Level.WARN, "download failed", "b.jar", "timeout");
+		log.flush();
+		assertEquals("WARN download failed: b.jar : timeout\n", console.toString("UTF-8"));
+
+		log.setJsonFile(file);
+		log.log(Level.INFO, "downloaded file", "c.jar", null);
+		log.log(Level.ERROR, "could not write", "d.jar", null);
+		log.close();
+		assertEquals("WARN download failed: b.jar : timeout\nERROR could not write: d.jar\n", console.toString("UTF-8"));
+		assertEquals(2, FileUtils.readLines(file, "UTF-8").size());
+	}
+}
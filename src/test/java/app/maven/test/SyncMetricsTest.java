@@ -0,0 +1,57 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import app.maven.metrics.Histogram;
+import app.maven.metrics.SyncMetrics;
+
+public class SyncMetricsTest {
+
+	@Test
+	public void testPercentileUsesBucketBounds() {
+		Histogram histogram = new Histogram();
+		for(int i=1;i<=100;i++){
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50.5, histogram.getMean(), 0.001);
+		assertEquals(50, histogram.percentile(0.5));
+		assertEquals(100, histogram.percentile(0.95));
+		assertEquals(100, histogram.getMax());
+	}
+
+	@Test
+	public void testPercentileCappedByMax() {
+		Histogram histogram = new Histogram();
+		histogram.record(120);
+		assertEquals(120, histogram.percentile(0.99));
+		assertEquals(0, new Histogram().percentile(0.5));
+	}
+
+	@Test
+	public void testPrometheusOutput() {
+		SyncMetrics metrics = new SyncMetrics();
+		metrics.attempted(3);
+		metrics.downloaded(2);
+		metrics.failed(1);
+		metrics.transferred(2048);
+		metrics.request("http://mirror/maven2", 30);
+		metrics.request("http://mirror/maven2", 3000);
+		metrics.setQueueDepth(new SyncMetrics.Gauge(){
+			public long value() {
+				return 7;
+			}
+		});
+		String text = metrics.toPrometheus();
+		assertTrue(text.contains("mvnsync_artifacts_attempted_total 3\n"));
+		assertTrue(text.contains("mvnsync_bytes_transferred_total 2048\n"));
+		assertTrue(text.contains("mvnsync_queue_depth 7\n"));
+		assertTrue(text.contains("mvnsync_request_seconds_bucket{mirror=\"http://mirror/maven2\",le=\"0.05\"} 1\n"));
+		assertTrue(text.contains("mvnsync_request_seconds_bucket{mirror=\"http://mirror/maven2\",le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("mvnsync_request_seconds_count{mirror=\"http://mirror/maven2\"} 2\n"));
+		assertEquals(2, metrics.getRequestCount());
+	}
+}
@@ -0,0 +1,75 @@
+package app.maven.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import app.maven.cache.VerifiedArtifactCache;
+
+public class VerifiedArtifactCacheTest {
+
+	private static final String SHA1 = "2aae6c35c94fcfb415dbe95f408b9ce91ee846ed";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testEntriesSurviveReopen() throws IOException {
+		File repo = folder.getRoot();
+		File jar = new File(repo, "g/a/1.0/a-1.0.jar");
+		FileUtils.writeStringToFile(jar, "hello world");
+
+		VerifiedArtifactCache cache = new VerifiedArtifactCache(repo);
+		cache.open(false);
+		assertFalse(cache.isVerified(jar, SHA1));
+		cache.markVerified(jar, SHA1);
+		cache.close();
+
+		cache = new VerifiedArtifactCache(repo);
+		cache.open(false);
+		assertTrue(cache.isVerified(jar, SHA1));
+		assertTrue(cache.isVerified(jar, null));
+		assertFalse(cache.isVerified(jar, "0000"));
+		cache.close();
+	}
+
+	@Test
+	public void testChangedFileIsNotTrusted() throws IOException {
+		File repo = folder.getRoot();
+		File jar = new File(repo, "g/a/1.0/a-1.0.jar");
+		FileUtils.writeStringToFile(jar, "hello world");
+
+		VerifiedArtifactCache cache = new VerifiedArtifactCache(repo);
+		cache.open(false);
+		cache.markVerified(jar, SHA1);
+		FileUtils.writeStringToFile(jar, "hello world, again");
+		assertFalse(cache.isVerified(jar, SHA1));
+		cache.close();
+	}
+
+	@Test
+	public void testReverifyDiscardsEntries() throws IOException {
+		File repo = folder.getRoot();
+		File jar = new File(repo, "g/a/1.0/a-1.0.jar");
+		FileUtils.writeStringToFile(jar, "hello world");
+
+		VerifiedArtifactCache cache = new VerifiedArtifactCache(repo);
+		cache.open(false);
+		cache.markVerified(jar, SHA1);
+		cache.close();
+
+		cache = new VerifiedArtifactCache(repo);
+		cache.open(true);
+		assertEquals(0, cache.size());
+		assertFalse(cache.isVerified(jar, SHA1));
+		cache.close();
+	}
+}